@@ -18,7 +18,7 @@ repositories {
 
 dependencies {
     implementation("me.mattstudios:triumph-config:1.0.5-SNAPSHOT")
-    compileOnly("com.zaxxer:HikariCP:2.4.0")
+    compileOnly("com.zaxxer:HikariCP:4.0.3")
     compileOnly("org.xerial:sqlite-jdbc:3.34.0")
     compileOnly("net.md-5:bungeecord-api:1.17-R0.1-SNAPSHOT")
     compileOnly("mysql:mysql-connector-java:5.1.28")
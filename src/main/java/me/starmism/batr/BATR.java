@@ -94,6 +94,13 @@ public class BATR extends Plugin {
         return dsHandler.getConnection();
     }
 
+    /**
+     * Get a connection for the lookup and history queries, which may come from the read replica
+     */
+    public static Connection getReadConnection() {
+        return dsHandler.getReadConnection();
+    }
+
     /**
      * Kick a player from the proxy for a specified reason
      *
@@ -202,6 +209,9 @@ public class BATR extends Plugin {
             getRedis().destroy();
         }
         modules.unloadModules();
+        if (dsHandler != null) {
+            dsHandler.close();
+        }
         instance = null;
     }
 
@@ -63,6 +63,74 @@ public class Configuration implements SettingsHolder {
     @Path("mysql.port")
 	public static final Property<String> MYSQL_PORT = Property.create("3306");
 
+	@Comment("Maximum number of connections opened to the MySQL database")
+	@Path("mysql.pool.maximumPoolSize")
+	public static final Property<Integer> MYSQL_POOL_SIZE = Property.create(8);
+
+	@Comment("Time in milliseconds to wait for a free connection before failing the query")
+	@Path("mysql.pool.connectionTimeout")
+	public static final Property<Integer> MYSQL_CONNECTION_TIMEOUT = Property.create(10000);
+
+	@Comment("Time in milliseconds after which a connection is replaced, it must be shorter than the wait_timeout of MySQL")
+	@Path("mysql.pool.maxLifetime")
+	public static final Property<Integer> MYSQL_MAX_LIFETIME = Property.create(1800000);
+
+	@Comment("Log a warning when a connection is held for longer than this time in milliseconds. 0 to disable")
+	@Path("mysql.pool.leakDetectionThreshold")
+	public static final Property<Integer> MYSQL_LEAK_DETECTION = Property.create(0);
+
+	@Comment("Number of prepared statements cached per connection. 0 to disable the cache")
+	@Path("mysql.preparedStatements.cacheSize")
+	public static final Property<Integer> MYSQL_PREP_STMT_CACHE_SIZE = Property.create(250);
+
+	@Comment("Maximum length of a query to be cached")
+	@Path("mysql.preparedStatements.cacheSqlLimit")
+	public static final Property<Integer> MYSQL_PREP_STMT_CACHE_SQL_LIMIT = Property.create(2048);
+
+	@Comment("Prepare the statements on the MySQL server instead of emulating them in the driver")
+	@Path("mysql.preparedStatements.serverSide")
+	public static final Property<Boolean> MYSQL_SERVER_PREP_STMTS = Property.create(true);
+
+	@Comment({"Optional read-only replica of the MySQL database. When enabled, the lookups and the sanctions history are read from it,",
+			"while the writes and the checks made when a player joins still use the main database"})
+	@Path("mysql.replica.enabled")
+	public static final Property<Boolean> MYSQL_REPLICA_ENABLED = Property.create(false);
+
+	@Path("mysql.replica.user")
+	public static final Property<String> MYSQL_REPLICA_USER = Property.create("user");
+
+	@Path("mysql.replica.password")
+	public static final Property<String> MYSQL_REPLICA_PASSWORD = Property.create("password");
+
+	@Path("mysql.replica.database")
+	public static final Property<String> MYSQL_REPLICA_DATABASE = Property.create("database");
+
+	@Path("mysql.replica.host")
+	public static final Property<String> MYSQL_REPLICA_HOST = Property.create("localhost");
+
+	@Path("mysql.replica.port")
+	public static final Property<String> MYSQL_REPLICA_PORT = Property.create("3307");
+
+	@Comment({"Move the bans and mutes which are no longer active, and the kicks, to history tables once they are older than",
+			"the given number of days. The checks made when a player joins then read smaller tables, while the lookups still show everything"})
+	@Path("archive.enabled")
+	public static final Property<Boolean> ARCHIVE_ENABLED = Property.create(false);
+
+	@Path("archive.afterDays")
+	public static final Property<Integer> ARCHIVE_AFTER_DAYS = Property.create(90);
+
+	@Comment("Number of rows moved per transaction, a smaller value holds the locks for less time")
+	@Path("archive.batchSize")
+	public static final Property<Integer> ARCHIVE_BATCH_SIZE = Property.create(500);
+
+	@Comment("Maximum time in milliseconds to wait for the queries of a /bat lookup, which are run concurrently")
+	@Path("lookupTimeout")
+	public static final Property<Integer> LOOKUP_TIMEOUT = Property.create(10000);
+
+	@Comment("Measure the time spent by each query, the results are displayed with /bat stats")
+	@Path("databaseMetrics")
+	public static final Property<Boolean> DATABASE_METRICS = Property.create(true);
+
 
 //	public Locale getLocale() {
 //		if (language.length() != 2) {
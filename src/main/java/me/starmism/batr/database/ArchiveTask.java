@@ -0,0 +1,128 @@
+package me.starmism.batr.database;
+
+import me.starmism.batr.BATR;
+import me.starmism.batr.Configuration;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Move the rows which are no longer used by the checks (the inactive bans and mutes, and the kicks) to the history table
+ * of their module once they are older than the configured age. <br>
+ * The rows are moved in batches, each batch being copied then deleted in its own transaction, so the locks of the main
+ * table are only held for a short time. The copy never overwrites an archived row: a row already archived identically
+ * (i.e restored in the main table by a backup) is only deleted, and a row whose id is archived for another sanction
+ * isn't selected at all (cf SQLQueries.archivable).
+ */
+public class ArchiveTask implements Runnable {
+    // Minutes between two runs
+    public static final long INTERVAL = 60;
+    // Bound the rows moved by a run, the remaining ones are moved by the next runs
+    private static final int MAX_BATCHES_PER_RUN = 100;
+
+    private final String table;
+    private final String selectQuery;
+    private final int cutoffParams;
+    private final String archiveQuery;
+    private final String deleteQuery;
+
+    /**
+     * @param table        | the main table, used in the logs
+     * @param selectQuery  | query returning the ids of the rows to archive, its parameters being the cutoff date then the batch size
+     * @param cutoffParams | number of times the cutoff date is given to the select query
+     * @param archiveQuery | query copying the rows to the history table, {ids} being replaced by their ids
+     * @param deleteQuery  | query deleting the rows from the main table, {ids} being replaced by their ids
+     */
+    public ArchiveTask(final String table, final String selectQuery, final int cutoffParams, final String archiveQuery,
+                       final String deleteQuery) {
+        this.table = table;
+        this.selectQuery = selectQuery;
+        this.cutoffParams = cutoffParams;
+        this.archiveQuery = archiveQuery;
+        this.deleteQuery = deleteQuery;
+    }
+
+    /**
+     * Schedule the archival of a table if it's enabled in the configuration
+     *
+     * @return the scheduled task, or null if the archival is disabled
+     */
+    public static ScheduledTask schedule(final ArchiveTask archiveTask) {
+        if (!BATR.getInstance().getConfiguration().get(Configuration.ARCHIVE_ENABLED)) {
+            return null;
+        }
+        return ProxyServer.getInstance().getScheduler().schedule(BATR.getInstance(), archiveTask, 1, INTERVAL, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void run() {
+        final long cutoff = System.currentTimeMillis()
+                - TimeUnit.DAYS.toMillis(BATR.getInstance().getConfiguration().get(Configuration.ARCHIVE_AFTER_DAYS));
+        final int batchSize = Math.max(1, BATR.getInstance().getConfiguration().get(Configuration.ARCHIVE_BATCH_SIZE));
+        int archived = 0;
+        try {
+            for (int batch = 0; batch < MAX_BATCHES_PER_RUN; batch++) {
+                final int moved = archiveBatch(cutoff, batchSize);
+                archived += moved;
+                if (moved < batchSize) {
+                    break;
+                }
+            }
+        } catch (final SQLException e) {
+            DataSourceHandler.handleException(e);
+        }
+        if (archived > 0) {
+            BATR.getInstance().getLogger().config(archived + " rows of " + table + " moved to its history.");
+        }
+    }
+
+    private int archiveBatch(final long cutoff, final int batchSize) throws SQLException {
+        try (Connection conn = BATR.getConnection()) {
+            final List<Integer> ids = new ArrayList<>(batchSize);
+            try (PreparedStatement statement = conn.prepareStatement(selectQuery)) {
+                for (int i = 1; i <= cutoffParams; i++) {
+                    if (DataSourceHandler.isSQLite()) {
+                        statement.setLong(i, cutoff);
+                    } else {
+                        statement.setTimestamp(i, new Timestamp(cutoff));
+                    }
+                }
+                statement.setInt(cutoffParams + 1, batchSize);
+                final ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    ids.add(resultSet.getInt(1));
+                }
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+
+            final String placeholders = DataSourceHandler.placeholders(ids.size());
+            conn.setAutoCommit(false);
+            try (PreparedStatement archive = conn.prepareStatement(archiveQuery.replace("{ids}", placeholders));
+                 PreparedStatement delete = conn.prepareStatement(deleteQuery.replace("{ids}", placeholders))) {
+                for (int i = 0; i < ids.size(); i++) {
+                    archive.setInt(i + 1, ids.get(i));
+                    delete.setInt(i + 1, ids.get(i));
+                }
+                archive.executeUpdate();
+                delete.executeUpdate();
+                conn.commit();
+            } catch (final SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            return ids.size();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package me.starmism.batr.database;
+
+import java.sql.*;
+
+/**
+ * Keep track of the last modification read from a table having an "updated" column (ban_updated, mute_updated),
+ * so that a poller only queries the rows modified since its last run.<br>
+ * The rows are queried again for a few seconds after the watermark, because a row may be committed after a more
+ * recent one. The changes must therefore be applied in an idempotent way.
+ */
+public class ChangeWatermark {
+    private static final long LOOKBACK = 5000;
+    private final String column;
+    private long lastUpdate = -1;
+
+    /**
+     * @param column | name of the "updated" column, i.e ban_updated
+     */
+    public ChangeWatermark(final String column) {
+        this.column = column;
+    }
+
+    public boolean isInitialized() {
+        return lastUpdate != -1;
+    }
+
+    /**
+     * Set the watermark to the most recent modification of the table
+     *
+     * @param lastUpdateQuery | query returning the MAX of the "updated" column
+     */
+    public void init(final Connection conn, final String lastUpdateQuery) throws SQLException {
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = conn.createStatement();
+            resultSet = statement.executeQuery(lastUpdateQuery);
+            lastUpdate = resultSet.next() ? read(resultSet, 1) : 0;
+        } finally {
+            DataSourceHandler.close(statement, resultSet);
+        }
+    }
+
+    /**
+     * Set the parameter of the "updated > ?" clause of a changes query
+     */
+    public void setParameter(final PreparedStatement statement, final int index) throws SQLException {
+        final long since = Math.max(0, lastUpdate - LOOKBACK);
+        if (DataSourceHandler.isSQLite()) {
+            statement.setLong(index, since);
+        } else {
+            statement.setTimestamp(index, new Timestamp(since));
+        }
+    }
+
+    /**
+     * Move the watermark forward according to a row returned by a changes query
+     */
+    public void update(final ResultSet resultSet) throws SQLException {
+        lastUpdate = Math.max(lastUpdate, read(resultSet, resultSet.findColumn(column)));
+    }
+
+    private static long read(final ResultSet resultSet, final int columnIndex) throws SQLException {
+        if (DataSourceHandler.isSQLite()) {
+            return resultSet.getLong(columnIndex);
+        }
+        final Timestamp timestamp = resultSet.getTimestamp(columnIndex);
+        return (timestamp != null) ? timestamp.getTime() : 0;
+    }
+}
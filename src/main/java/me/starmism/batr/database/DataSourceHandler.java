@@ -1,38 +1,65 @@
 package me.starmism.batr.database;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.io.CharStreams;
 import com.mysql.jdbc.exceptions.jdbc4.CommunicationsException;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import me.starmism.batr.BATR;
+import me.mattstudios.config.SettingsManager;
 import me.starmism.batr.Configuration;
-import me.starmism.batr.utils.CallbackUtils;
 import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.text.SimpleDateFormat;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Collections;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
-import static java.lang.String.format;
-
 public class DataSourceHandler {
     private static boolean sqlite = false; // If sqlite is used or not
     // Connection informations
     private HikariDataSource ds;
+    // Optional read-only replica of the MySQL database, used by the lookup and history queries
+    private HikariDataSource replica;
     private String username;
     private String password;
     private String database;
     private String port;
     private String host;
-    private Connection SQLiteConn;
+    private QueryMetrics metrics;
+    private WriteJournal journal;
+    private ScheduledTask journalTask;
+    private ExecutorService queryExecutor;
+    // Acquire the connections waited with a timeout (cf getConnection(long)), which may stay blocked during an outage
+    private final ExecutorService connectExecutor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "BATR-Connect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Number of pooled SQLite connections, SQLite allows a single writer at a time anyway
+    private static final int SQLITE_POOL_SIZE = 4;
+    // Time in ms a SQLite query waits for the write lock before failing
+    private static final int SQLITE_BUSY_TIMEOUT = 10000;
+    // Number of lookup queries which may wait for each thread of the query executor before the new ones are rejected
+    private static final int QUERIES_QUEUED_PER_THREAD = 16;
 
     /**
      * Constructor used for MySQL
@@ -53,13 +80,18 @@ public class DataSourceHandler {
         this.password = Preconditions.checkNotNull(password);
 
         BATR.getInstance().getLogger().config("Initialization of HikariCP in progress ...");
-        ds = new HikariDataSource();
-        ds.setJdbcUrl("jdbc:mysql://" + this.host + ":" + this.port + "/" + this.database +
-                "?useLegacyDatetimeCode=false&serverTimezone=" + TimeZone.getDefault().getID());
-        ds.setUsername(this.username);
-        ds.setPassword(this.password);
-        ds.addDataSourceProperty("cachePrepStmts", "true");
-        ds.setMaximumPoolSize(8);
+        ds = createMySQLDataSource("BATR-MySQL", this.host, this.port, this.database, this.username, this.password);
+        final SettingsManager config = BATR.getInstance().getConfiguration();
+        if (config.get(Configuration.MYSQL_REPLICA_ENABLED)) {
+            BATR.getInstance().getLogger().config("Initialization of the read replica connection pool in progress ...");
+            replica = createMySQLDataSource("BATR-MySQL-Replica", config.get(Configuration.MYSQL_REPLICA_HOST),
+                    config.get(Configuration.MYSQL_REPLICA_PORT), config.get(Configuration.MYSQL_REPLICA_DATABASE),
+                    config.get(Configuration.MYSQL_REPLICA_USER), config.get(Configuration.MYSQL_REPLICA_PASSWORD));
+            replica.setReadOnly(true);
+        }
+        metrics = createMetrics();
+        openJournal();
+        queryExecutor = createQueryExecutor((replica != null) ? replica : ds);
         try {
             final Connection conn = ds.getConnection();
             int intOffset = Calendar.getInstance().getTimeZone().getOffset(Calendar.getInstance().getTimeInMillis()) / 1000;
@@ -81,24 +113,65 @@ public class DataSourceHandler {
         sqlite = false;
     }
 
+    private static HikariDataSource createMySQLDataSource(final String poolName, final String host, final String port,
+                                                          final String database, final String username, final String password) {
+        final HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database +
+                "?useLegacyDatetimeCode=false&serverTimezone=" + TimeZone.getDefault().getID());
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSource.setPoolName(poolName);
+        final SettingsManager config = BATR.getInstance().getConfiguration();
+        final int prepStmtCacheSize = config.get(Configuration.MYSQL_PREP_STMT_CACHE_SIZE);
+        dataSource.addDataSourceProperty("cachePrepStmts", String.valueOf(prepStmtCacheSize > 0));
+        dataSource.addDataSourceProperty("prepStmtCacheSize", String.valueOf(prepStmtCacheSize));
+        dataSource.addDataSourceProperty("prepStmtCacheSqlLimit", String.valueOf(config.get(Configuration.MYSQL_PREP_STMT_CACHE_SQL_LIMIT)));
+        dataSource.addDataSourceProperty("useServerPrepStmts", String.valueOf(config.get(Configuration.MYSQL_SERVER_PREP_STMTS)));
+        dataSource.setMaximumPoolSize(config.get(Configuration.MYSQL_POOL_SIZE));
+        dataSource.setConnectionTimeout(config.get(Configuration.MYSQL_CONNECTION_TIMEOUT));
+        dataSource.setMaxLifetime(config.get(Configuration.MYSQL_MAX_LIFETIME));
+        dataSource.setLeakDetectionThreshold(config.get(Configuration.MYSQL_LEAK_DETECTION));
+        return dataSource;
+    }
+
     /**
      * Constructor used for SQLite
      */
     public DataSourceHandler() {
         /*
-         * As SQLite supports concurrency pretty badly (locked database which causes problem), we're gonna get a connection from the DriverManager each time
-         * we need to access to the database. In the contrary of BoneCP with mysql in which we saved connection to optimize performance, it's not necessary with SQLite.
-         * FYI, here are the results of test : execute 1000 insert request using SQLite, with or without using the same connection :
-         * - Using the same connection it took : 22820 ms
-         * - Getting another connection each time (DriverManager.getConnection), it took : 24186 ms
-         * The difference is only 1366 ms for 1000 request, that means on average additional 1.3 ms, which is insignificant as we are executing almost every query async.
-         * To the people who read that, all these calculations can seem a little overrated, but I really like to improve performance at the most and I'm pretty curious :p
+         * The SQLite connections are opened once and kept in a small pool, instead of opening a new connection for each query.
+         * The database is switched to the WAL journal mode so that the readers never block the writer nor the other readers,
+         * and a busy timeout is set so that a query waits for the write lock instead of failing with "database is locked".
+         * The explicit transactions take the write lock as soon as they begin (BEGIN IMMEDIATE), which avoids the deadlock
+         * which happens when two transactions try to upgrade their read lock at the same time.
          */
         sqlite = true;
+        BATR.getInstance().getLogger().config("Initialization of the SQLite connection pool in progress ...");
+        ds = new HikariDataSource();
+        ds.setPoolName("BATR-SQLite");
+        ds.setDriverClassName("org.sqlite.JDBC");
+        ds.setJdbcUrl("jdbc:sqlite:" + BATR.getInstance().getDataFolder().getAbsolutePath() + File.separator
+                + "bat_database.db");
+        ds.addDataSourceProperty("journal_mode", "WAL");
+        // With WAL, NORMAL only syncs at checkpoints: a power loss can lose the last commits but never corrupts the database
+        ds.addDataSourceProperty("synchronous", "NORMAL");
+        ds.addDataSourceProperty("busy_timeout", String.valueOf(SQLITE_BUSY_TIMEOUT));
+        ds.addDataSourceProperty("transaction_mode", "IMMEDIATE");
+        ds.addDataSourceProperty("temp_store", "MEMORY");
+        // Negative value means KiB, so 8 MiB of page cache per connection
+        ds.addDataSourceProperty("cache_size", "-8192");
+        ds.setMaximumPoolSize(SQLITE_POOL_SIZE);
+        ds.setMinimumIdle(SQLITE_POOL_SIZE);
+        // The connections are local, there is no reason to recycle them
+        ds.setMaxLifetime(0);
+        ds.setIdleTimeout(0);
+        ds.setConnectionTimeout(SQLITE_BUSY_TIMEOUT);
+        metrics = createMetrics();
+        openJournal();
+        queryExecutor = createQueryExecutor(ds);
         try {
-            SQLiteConn = DriverManager.getConnection("jdbc:sqlite:" + BATR.getInstance().getDataFolder().getAbsolutePath() + File.separator
-                    + "bat_database.db");
-            SQLiteConn.close();
+            final Connection conn = ds.getConnection();
+            conn.close();
         } catch (SQLException e) {
             BATR.getInstance().getLogger().severe("BATR encounters a problem during the initialization of the sqlite database connection.");
             if (e.getMessage() != null) {
@@ -120,6 +193,91 @@ public class DataSourceHandler {
         return "An error related to the database occurred. Please check the log.";
     }
 
+    /**
+     * Check if a column exists in a table, used to upgrade the tables created by a previous version
+     */
+    public static boolean columnExists(final Connection conn, final String table, final String column) throws SQLException {
+        ResultSet resultSet = null;
+        try {
+            resultSet = conn.getMetaData().getColumns(null, null, table, column);
+            return resultSet.next();
+        } finally {
+            close(resultSet);
+        }
+    }
+
+    /**
+     * Check if a table exists, i.e the table of a module which has never been enabled
+     */
+    public static boolean tableExists(final Connection conn, final String table) throws SQLException {
+        ResultSet resultSet = null;
+        try {
+            resultSet = conn.getMetaData().getTables(conn.getCatalog(), null, table, null);
+            return resultSet.next();
+        } finally {
+            close(resultSet);
+        }
+    }
+
+    /**
+     * Build the placeholders list of an IN (...) clause
+     *
+     * @param count | number of placeholders, at least 1
+     * @return "?, ?, ..."
+     */
+    public static String placeholders(final int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * Get the id generated by an insert statement executed with {@link Statement#RETURN_GENERATED_KEYS}
+     *
+     * @return the id or -1 if no id was generated
+     */
+    public static int getGeneratedId(final Statement statement) throws SQLException {
+        ResultSet generatedKeys = null;
+        try {
+            generatedKeys = statement.getGeneratedKeys();
+            return generatedKeys.next() ? generatedKeys.getInt(1) : -1;
+        } finally {
+            close(generatedKeys);
+        }
+    }
+
+    /**
+     * Execute an insert
+     *
+     * @return the generated id or -1 if no id was generated
+     * @throws SQLTransientConnectionException if no connection is available
+     */
+    public static int executeInsert(final String query, final Object... params) throws SQLException {
+        try (Connection conn = BATR.getConnection()) {
+            if (conn == null) {
+                throw new SQLTransientConnectionException("No connection to the database is available.");
+            }
+            return executeInsert(conn, query, params);
+        }
+    }
+
+    /**
+     * Execute an insert with a connection already acquired
+     *
+     * @return the generated id or -1 if no id was generated
+     */
+    public static int executeInsert(final Connection conn, final String query, final Object... params) throws SQLException {
+        PreparedStatement statement = null;
+        try {
+            statement = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
+            for (int i = 0; i < params.length; i++) {
+                DatabaseBackup.setValue(statement, i + 1, params[i]);
+            }
+            statement.executeUpdate();
+            return getGeneratedId(statement);
+        } finally {
+            close(statement);
+        }
+    }
+
     public static void close(final AutoCloseable... closableList) {
         for (final AutoCloseable closable : closableList) {
             if (closable != null) {
@@ -133,15 +291,12 @@ public class DataSourceHandler {
 
     public Connection getConnection() {
         try {
-            if (sqlite) {
-                // To avoid concurrency problem with SQLite, we will just use one connection. Cf : constructor above for SQLite
-                synchronized (SQLiteConn) {
-                    SQLiteConn = DriverManager.getConnection("jdbc:sqlite:" + BATR.getInstance().getDataFolder().getAbsolutePath() + File.separator
-                            + "bat_database.db");
-                    return SQLiteConn;
-                }
+            // Both for MySQL and SQLite, closing the connection gives it back to the pool
+            if (metrics == null) {
+                return ds.getConnection();
             }
-            return ds.getConnection();
+            final long acquireStart = System.nanoTime();
+            return metrics.track(ds.getConnection(), acquireStart);
         } catch (final SQLException e) {
             BATR.getInstance().getLogger().severe(
                     "BATR can't establish connection with the database. Please report this and include the following lines:");
@@ -155,109 +310,180 @@ public class DataSourceHandler {
         }
     }
 
-    public boolean getSQLite() {
-        return sqlite;
-    }
-
     /**
-     * Generate a backup of the BATR data in mysql database.
+     * Get a connection without waiting for the whole connection timeout of the pool, so that a write which can be
+     * journaled doesn't hold its caller when the database is down. <br>
+     * If the timeout is reached, the acquisition goes on in the background and the connection is given back as soon as
+     * it's obtained.
      *
-     * @param onComplete
-     * @throws RuntimeException if MySQL is not used or if the creation of the backup file failed
+     * @param timeout | time to wait for the connection in milliseconds
+     * @throws SQLTransientConnectionException if no connection was obtained in time
      */
-    public void generateMysqlBackup(final CallbackUtils.Callback<String> onComplete) throws RuntimeException {
-        ProxyServer.getInstance().getScheduler().runAsync(BATR.getInstance(), () -> {
+    public Connection getConnection(final long timeout) throws SQLException {
+        final long acquireStart = System.nanoTime();
+        final CompletableFuture<Connection> acquisition = CompletableFuture.supplyAsync(() -> {
             try {
-                Process testProcess = Runtime.getRuntime().exec("mysqldump --help");
-                new StreamPumper(testProcess.getErrorStream()).pump();
-                new StreamPumper(testProcess.getInputStream()).pump();
-                int returnValue = testProcess.waitFor();
-                if (returnValue != 0) {
-                    throw new Exception();
-                }
-            } catch (final Exception e) {
-                onComplete.done("The backup can't be achieved because mysqldump is nowhere to be found.", null);
-                return;
-            }
-            final File backupDirectory = new File(BATR.getInstance().getDataFolder().getAbsolutePath()
-                    + File.separator + "databaseBackups");
-            backupDirectory.mkdir();
-            File backupFile = new File(backupDirectory.getAbsolutePath() + File.separator + "backup" +
-                    new SimpleDateFormat("dd-MMM-yyyy_HH'h'mm").format(Calendar.getInstance().getTime()) + ".sql");
-            for (int i = 0; ; i++) {
-                if (!backupFile.exists()) {
-                    break;
-                } else {
-                    if (i == 0) {
-                        backupFile = new File(backupFile.getAbsolutePath().replace(".sql", "#" + i + ".sql"));
-                    } else {
-                        backupFile = new File(backupFile.getAbsolutePath().replaceAll("#\\d+\\.sql$", "#" + i + ".sql"));
-                    }
-                }
-            }
-            String backupCmd = "mysqldump -u {user} -p --add-drop-database -r {path} {database} {tables}";
-            final String tables = Joiner.on(' ').join(Arrays.asList(SQLQueries.Ban.table, SQLQueries.Mute.table,
-                    SQLQueries.Kick.table, SQLQueries.Comments.table, SQLQueries.Core.table));
-            String backupPath = backupFile.getAbsolutePath();
-            if (backupPath.contains(" ")) {
-                backupPath = "\"" + backupPath + "\"";
-            }
-            backupCmd = backupCmd.replace("{user}", username).replace("{database}", database)
-                    .replace("{path}", backupPath).replace("{tables}", tables);
-            if (password.equals("")) {
-                backupCmd = backupCmd.replace("-p", "");
-            } else {
-                backupCmd = backupCmd.replace("-p", "--password=" + password);
+                return ds.getConnection();
+            } catch (final SQLException e) {
+                throw new CompletionException(e);
             }
+        }, connectExecutor);
+        try {
+            final Connection conn = acquisition.get(timeout, TimeUnit.MILLISECONDS);
+            return (metrics == null) ? conn : metrics.track(conn, acquireStart);
+        } catch (final TimeoutException e) {
+            acquisition.thenAccept(DataSourceHandler::close);
+            throw new SQLTransientConnectionException("No connection to the database was obtained within " + timeout + " ms.");
+        } catch (final ExecutionException e) {
+            throw (e.getCause() instanceof SQLException) ? (SQLException) e.getCause() : new SQLException(e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection.", e);
+        }
+    }
+
+    /**
+     * Get a connection for a read-only query which tolerates a slight replication lag, i.e the lookup and history
+     * queries. The queries needing the latest data (writes, checks made on login) must use {@link #getConnection()}. <br>
+     * The connection is taken from the read replica if one is configured, otherwise or if it's unreachable from the primary database.
+     */
+    public Connection getReadConnection() {
+        if (replica != null) {
             try {
-                Process backupProcess = Runtime.getRuntime().exec(backupCmd);
-                final StreamPumper errorPumper = new StreamPumper(backupProcess.getErrorStream());
-                errorPumper.pump();
-                new StreamPumper(backupProcess.getInputStream()).pump();
-                int exitValue = backupProcess.waitFor();
-                if (exitValue == 0) {
-                    final String[] splittedPath = backupFile.getAbsolutePath().split((File.separator.equals("\\") ? "\\\\" : File.separator));
-                    final String fileName = splittedPath[splittedPath.length - 1];
-                    onComplete.done(format("The backup file (%s) has been successfully generated.", fileName), null);
-                } else {
-                    onComplete.done("An error happens during the creation of the mysql backup. Please check the logs", null);
-                    BATR.getInstance().getLogger().severe("An error happens during the creation of the mysql backup. Please report :");
-                    for (final String message : errorPumper.getLines()) {
-                        BATR.getInstance().getLogger().severe(message);
-                    }
+                if (metrics == null) {
+                    return replica.getConnection();
                 }
-            } catch (final Exception e) {
-                onComplete.done("An error happens during the creation of the mysql backup.", e);
-                e.printStackTrace();
+                final long acquireStart = System.nanoTime();
+                return metrics.track(replica.getConnection(), acquireStart);
+            } catch (final SQLException e) {
+                BATR.getInstance().getLogger().warning("The read replica is unreachable, the primary database is used instead: "
+                        + e.getMessage());
             }
-        });
+        }
+        return getConnection();
     }
 
-    public static class StreamPumper {
-        private final InputStreamReader reader;
-        private List<String> pumpedLines = null;
-
-        public StreamPumper(final InputStream is) {
-            reader = new InputStreamReader(is);
+    /**
+     * Open the journal of the sanctions written while the database is unreachable and start replaying it
+     */
+    private void openJournal() {
+        try {
+            journal = new WriteJournal(new File(BATR.getInstance().getDataFolder(), "journal.dat"));
+            journalTask = ProxyServer.getInstance().getScheduler().schedule(BATR.getInstance(), journal,
+                    WriteJournal.REPLAY_INTERVAL, WriteJournal.REPLAY_INTERVAL, TimeUnit.MILLISECONDS);
+        } catch (final IOException e) {
+            BATR.getInstance().getLogger().severe("The sanctions journal can't be opened, the sanctions will be lost if the database is unreachable:");
+            e.printStackTrace();
         }
+    }
 
-        /**
-         * Starts a new async task and pump the inputstream
-         */
-        public void pump() {
-            ProxyServer.getInstance().getScheduler().runAsync(BATR.getInstance(), () -> {
-                try {
-                    pumpedLines = CharStreams.readLines(reader);
-                    reader.close();
-                } catch (final IOException e) {
-                    BATR.getInstance().getLogger().severe("BATR encounter an error while reading the stream of subprocess. Please report this :");
-                    e.printStackTrace();
-                }
-            });
+    /**
+     * Get the journal of the sanctions written while the database is unreachable
+     *
+     * @return the journal or null if it couldn't be opened
+     */
+    public WriteJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Insert a sanction, which is journaled if the database is unreachable (cf {@link WriteJournal})
+     *
+     * @param journalQuery  | the idempotent version of the insert, replayed from the journal
+     * @param journalParams | parameters of the journal query
+     * @return the generated id, or a negative id if the sanction was journaled
+     */
+    public int insertSanction(final String query, final Object[] params, final String journalQuery,
+                              final Object[] journalParams) throws SQLException {
+        return (journal != null) ? journal.insert(query, params, journalQuery, journalParams) : executeInsert(query, params);
+    }
+
+    /**
+     * Update sanctions (i.e lift them), which is journaled behind the pending sanctions if the database is unreachable
+     * or if some journaled sanctions haven't been written yet (cf {@link WriteJournal#update})
+     */
+    public void updateSanction(final String query, final Object... params) throws SQLException {
+        if (journal != null) {
+            journal.update(query, params);
+        } else {
+            executeInsert(query, params);
         }
+    }
 
-        public List<String> getLines() {
-            return Objects.requireNonNullElseGet(pumpedLines, ArrayList::new);
+    /**
+     * Create the executor used to run independent read queries concurrently (i.e the queries of a lookup). It only uses
+     * half of the read pool, so that the concurrent queries of a lookup don't starve the checks made when a player joins. <br>
+     * Its queue is bounded, so that the lookups are rejected when the database can't keep up instead of piling up.
+     */
+    private static ExecutorService createQueryExecutor(final HikariDataSource readPool) {
+        final int threads = Math.max(2, readPool.getMaximumPoolSize() / 2);
+        final AtomicInteger threadId = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * QUERIES_QUEUED_PER_THREAD), runnable -> {
+            final Thread thread = new Thread(runnable, "BATR-Query-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public Executor getQueryExecutor() {
+        return queryExecutor;
+    }
+
+    private static QueryMetrics createMetrics() {
+        return BATR.getInstance().getConfiguration().get(Configuration.DATABASE_METRICS) ? new QueryMetrics() : null;
+    }
+
+    /**
+     * Get the metrics of the queries
+     *
+     * @return the metrics or null if they are disabled in the configuration
+     */
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the state of the connection pool (active, idle and total connections and threads waiting for a connection)
+     */
+    public HikariPoolMXBean getPoolStats() {
+        return ds.getHikariPoolMXBean();
+    }
+
+    /**
+     * Get the state of the read replica connection pool
+     *
+     * @return the state or null if no read replica is configured
+     */
+    public HikariPoolMXBean getReplicaPoolStats() {
+        return (replica != null) ? replica.getHikariPoolMXBean() : null;
+    }
+
+    /**
+     * Close the pooled connections, called when the plugin is disabled
+     */
+    public void close() {
+        if (queryExecutor != null) {
+            queryExecutor.shutdownNow();
+        }
+        connectExecutor.shutdownNow();
+        if (journalTask != null) {
+            journalTask.cancel();
         }
+        if (journal != null) {
+            journal.close();
+        }
+        if (ds != null && !ds.isClosed()) {
+            ds.close();
+        }
+        if (replica != null && !replica.isClosed()) {
+            replica.close();
+        }
+    }
+
+    public boolean getSQLite() {
+        return sqlite;
     }
-}
\ No newline at end of file
+}
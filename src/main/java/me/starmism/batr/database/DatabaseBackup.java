@@ -0,0 +1,449 @@
+package me.starmism.batr.database;
+
+import me.starmism.batr.BATR;
+import me.starmism.batr.modules.ModulesManager;
+import me.starmism.batr.utils.CallbackUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.lang.String.format;
+
+/**
+ * Backup and restore the BATR tables without any external tool, both for MySQL and SQLite. <br>
+ * The rows are read with a forward-only cursor and written in chunks to a gzip compressed file, so that the memory used
+ * doesn't depend on the size of the tables. A file contains, for each table, its columns followed by chunks of
+ * {@link #CHUNK_SIZE} rows, each value being prefixed by its type. <br>
+ * An incremental backup only contains the rows whose id is greater than the last id exported by the previous backup,
+ * plus the bans and mutes updated since then (i.e unbanned). The players table is always exported entirely, as it has no id.
+ * The history tables are only exported by the full backups: a row archived after the last full backup is restored
+ * in its main table, and archived again by the next run of the {@link ArchiveTask}.
+ * The last exported ids are saved in the {@value #STATE_FILE} file of the backups directory. <br>
+ * The rows are restored using batched REPLACE statements run in parallel on several pool connections,
+ * a full backup first clearing the tables and the incremental backups being restored after it in order.
+ */
+public class DatabaseBackup {
+    private static final int MAGIC = 0x42415452; // "BATR"
+    private static final int FORMAT_VERSION = 1;
+    private static final int CHUNK_SIZE = 1000;
+    private static final String EXTENSION = ".batr.gz";
+    private static final String STATE_FILE = "backup.state";
+    // Lookback applied to the "updated" columns, as a row may be committed after a more recent one
+    private static final long UPDATE_LOOKBACK = 5000;
+
+    private static final byte NULL = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte STRING = 3;
+    private static final byte TIMESTAMP = 4;
+    private static final byte BYTES = 5;
+    private static final byte BOOLEAN = 6;
+
+    private static final BackupTable[] TABLES = {
+            new BackupTable(SQLQueries.Ban.table, "ban_id", "ban_updated"),
+            new BackupTable(SQLQueries.Mute.table, "mute_id", "mute_updated"),
+            new BackupTable(SQLQueries.Kick.table, "kick_id", null),
+            new BackupTable(SQLQueries.Comments.table, "id", null),
+            new BackupTable(SQLQueries.Core.table, null, null)};
+    private static final BackupTable[] HISTORY_TABLES = {
+            new BackupTable(SQLQueries.Ban.historyTable, null, null),
+            new BackupTable(SQLQueries.Mute.historyTable, null, null),
+            new BackupTable(SQLQueries.Kick.historyTable, null, null)};
+
+    private final File backupDirectory;
+
+    public DatabaseBackup(final File dataFolder) {
+        backupDirectory = new File(dataFolder, "databaseBackups");
+    }
+
+    /**
+     * Write a backup of the BATR tables into a new file of the backups directory
+     *
+     * @param incremental | true to only export the rows added or updated since the previous backup
+     * @param onComplete  | called with the message to display
+     */
+    public void backup(final boolean incremental, final CallbackUtils.Callback<String> onComplete) {
+        final Properties state = new Properties();
+        final File stateFile = new File(backupDirectory, STATE_FILE);
+        if (incremental) {
+            if (!stateFile.exists()) {
+                onComplete.done("An incremental backup requires a previous backup. Please run a full backup first.", null);
+                return;
+            }
+            try (Reader reader = new FileReader(stateFile)) {
+                state.load(reader);
+            } catch (final IOException e) {
+                onComplete.done("The state of the previous backup can't be read.", e);
+                return;
+            }
+        }
+
+        backupDirectory.mkdirs();
+        final File backupFile = newBackupFile(incremental);
+        final long start = System.currentTimeMillis();
+        long rows = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(backupFile), 65536)));
+             Connection conn = BATR.getConnection()) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(DataSourceHandler.isSQLite() ? "sqlite" : "mysql");
+            out.writeBoolean(incremental);
+            out.writeLong(start);
+            for (final BackupTable table : TABLES) {
+                if (DataSourceHandler.tableExists(conn, table.name())) {
+                    rows += exportTable(conn, table, incremental, state, out);
+                }
+            }
+            if (!incremental) {
+                for (final BackupTable table : HISTORY_TABLES) {
+                    if (DataSourceHandler.tableExists(conn, table.name())) {
+                        rows += exportTable(conn, table, false, state, out);
+                    }
+                }
+            }
+            out.writeBoolean(false);
+        } catch (final IOException | SQLException e) {
+            backupFile.delete();
+            onComplete.done("An error happens during the creation of the backup. Please check the logs", e);
+            BATR.getInstance().getLogger().severe("An error happens during the creation of the backup:");
+            e.printStackTrace();
+            return;
+        }
+
+        // The state is only saved once the backup is complete, so that a failed backup is simply done again
+        try (Writer writer = new FileWriter(stateFile)) {
+            state.store(writer, "Last rows exported by the BATR backups, used by the incremental backups");
+        } catch (final IOException e) {
+            BATR.getInstance().getLogger().severe("The state of the backup can't be saved, the next backup must be a full backup:");
+            e.printStackTrace();
+        }
+        onComplete.done(format("The backup file (%s) has been successfully generated: %d rows in %d ms.",
+                backupFile.getName(), rows, System.currentTimeMillis() - start), null);
+    }
+
+    private long exportTable(final Connection conn, final BackupTable table, final boolean incremental,
+                             final Properties state, final DataOutputStream out) throws SQLException, IOException {
+        final String idKey = table.name() + ".id";
+        final String updatedKey = table.name() + ".updated";
+        String query = "SELECT * FROM `" + table.name() + "`";
+        if (incremental && table.idColumn() != null) {
+            query += " WHERE " + table.idColumn() + " > ?";
+            if (table.updatedColumn() != null) {
+                query += " OR " + table.updatedColumn() + " > ?";
+            }
+        }
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            // MySQL only streams the rows, instead of loading the whole result in memory, with this fetch size
+            statement.setFetchSize(DataSourceHandler.isSQLite() ? CHUNK_SIZE : Integer.MIN_VALUE);
+            if (incremental && table.idColumn() != null) {
+                statement.setLong(1, Long.parseLong(state.getProperty(idKey, "0")));
+                if (table.updatedColumn() != null) {
+                    final long since = Math.max(0, Long.parseLong(state.getProperty(updatedKey, "0")) - UPDATE_LOOKBACK);
+                    if (DataSourceHandler.isSQLite()) {
+                        statement.setLong(2, since);
+                    } else {
+                        statement.setTimestamp(2, new Timestamp(since));
+                    }
+                }
+            }
+            resultSet = statement.executeQuery();
+
+            final ResultSetMetaData metaData = resultSet.getMetaData();
+            final int columnCount = metaData.getColumnCount();
+            out.writeBoolean(true);
+            out.writeUTF(table.name());
+            out.writeInt(columnCount);
+            for (int i = 1; i <= columnCount; i++) {
+                out.writeUTF(metaData.getColumnName(i));
+            }
+            final int idIndex = (table.idColumn() != null) ? resultSet.findColumn(table.idColumn()) : -1;
+            final int updatedIndex = (table.updatedColumn() != null) ? resultSet.findColumn(table.updatedColumn()) : -1;
+            long lastId = Long.parseLong(state.getProperty(idKey, "0"));
+            long lastUpdated = Long.parseLong(state.getProperty(updatedKey, "0"));
+
+            // Each chunk is encoded in memory to write its row count first
+            final ByteArrayOutputStream chunkBuffer = new ByteArrayOutputStream();
+            final DataOutputStream chunk = new DataOutputStream(chunkBuffer);
+            int chunkRows = 0;
+            long rows = 0;
+            while (resultSet.next()) {
+                for (int i = 1; i <= columnCount; i++) {
+                    final Object value = resultSet.getObject(i);
+                    writeValue(chunk, value);
+                    if (i == idIndex && value instanceof Number) {
+                        lastId = Math.max(lastId, ((Number) value).longValue());
+                    } else if (i == updatedIndex && value != null) {
+                        lastUpdated = Math.max(lastUpdated, toMillis(value));
+                    }
+                }
+                rows++;
+                if (++chunkRows == CHUNK_SIZE) {
+                    writeChunk(out, chunkBuffer, chunkRows);
+                    chunkRows = 0;
+                }
+            }
+            if (chunkRows > 0) {
+                writeChunk(out, chunkBuffer, chunkRows);
+            }
+            out.writeInt(0);
+
+            if (idIndex != -1) {
+                state.setProperty(idKey, String.valueOf(lastId));
+            }
+            if (updatedIndex != -1) {
+                state.setProperty(updatedKey, String.valueOf(lastUpdated));
+            }
+            return rows;
+        } finally {
+            DataSourceHandler.close(statement, resultSet);
+        }
+    }
+
+    /**
+     * Restore a backup file of the backups directory
+     *
+     * @param fileName   | name of the file, i.e backup01-Jan-2021_12h00.batr.gz
+     * @param onComplete | called with the message to display
+     */
+    public void restore(final String fileName, final CallbackUtils.Callback<String> onComplete) {
+        final File backupFile = new File(backupDirectory, fileName);
+        if (!backupFile.isFile() || !backupDirectory.equals(backupFile.getParentFile())) {
+            onComplete.done(format("The backup file %s doesn't exist.", fileName), null);
+            return;
+        }
+
+        // SQLite allows a single writer at a time, so the chunks are only restored in parallel with MySQL
+        final int workers = DataSourceHandler.isSQLite() ? 1 : 4;
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        // Bound the number of decoded chunks waiting to be inserted
+        final Semaphore pendingChunks = new Semaphore(workers * 2);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final long start = System.currentTimeMillis();
+        long rows = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(backupFile), 65536)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("This file isn't a BATR backup or was made by another version of BATR.");
+            }
+            final String engine = in.readUTF();
+            if (!engine.equals(DataSourceHandler.isSQLite() ? "sqlite" : "mysql")) {
+                throw new IOException("This backup was made from a " + engine + " database and can only be restored into one."
+                        + " Use /bat migrateToMysql to move from sqlite to mysql.");
+            }
+            final boolean incremental = in.readBoolean();
+            in.readLong();
+
+            while (in.readBoolean() && failure.get() == null) {
+                final String table = in.readUTF();
+                final String[] columns = new String[in.readInt()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = in.readUTF();
+                }
+                if (!incremental) {
+                    clearTable(table);
+                }
+                final String query = "REPLACE INTO `" + table + "` (`" + String.join("`, `", columns) + "`) VALUES ("
+                        + DataSourceHandler.placeholders(columns.length) + ");";
+
+                int chunkRows;
+                while ((chunkRows = in.readInt()) > 0 && failure.get() == null) {
+                    final List<Object[]> chunk = new ArrayList<>(chunkRows);
+                    for (int i = 0; i < chunkRows; i++) {
+                        final Object[] row = new Object[columns.length];
+                        for (int j = 0; j < columns.length; j++) {
+                            row[j] = readValue(in);
+                        }
+                        chunk.add(row);
+                    }
+                    rows += chunkRows;
+                    pendingChunks.acquire();
+                    executor.execute(() -> {
+                        try {
+                            if (failure.get() == null) {
+                                insertChunk(query, chunk);
+                            }
+                        } catch (final SQLException e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            pendingChunks.release();
+                        }
+                    });
+                }
+            }
+        } catch (final IOException e) {
+            failure.compareAndSet(null, e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.HOURS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // The sanctions cached in memory don't match the rewritten tables anymore, even if the restoration failed halfway
+        final ModulesManager modules = BATR.getInstance().getModules();
+        if (modules.isLoaded("ban")) {
+            modules.getBanModule().reloadActiveBans();
+        }
+        if (modules.isLoaded("mute")) {
+            modules.getMuteModule().reloadMutes();
+        }
+
+        if (failure.get() != null) {
+            onComplete.done("An error happens during the restoration of the backup: " + failure.get().getMessage(), failure.get());
+            BATR.getInstance().getLogger().severe("An error happens during the restoration of the backup:");
+            failure.get().printStackTrace();
+            return;
+        }
+        onComplete.done(format("The backup file (%s) has been successfully restored: %d rows in %d ms.",
+                backupFile.getName(), rows, System.currentTimeMillis() - start), null);
+    }
+
+    private void clearTable(final String table) throws IOException {
+        Statement statement = null;
+        try (Connection conn = BATR.getConnection()) {
+            statement = conn.createStatement();
+            statement.executeUpdate("DELETE FROM `" + table + "`;");
+        } catch (final SQLException e) {
+            throw new IOException("The table " + table + " can't be cleared.", e);
+        } finally {
+            DataSourceHandler.close(statement);
+        }
+    }
+
+    private void insertChunk(final String query, final List<Object[]> chunk) throws SQLException {
+        PreparedStatement statement = null;
+        try (Connection conn = BATR.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                statement = conn.prepareStatement(query);
+                for (final Object[] row : chunk) {
+                    for (int i = 0; i < row.length; i++) {
+                        setValue(statement, i + 1, row[i]);
+                    }
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                conn.commit();
+            } catch (final SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } finally {
+            DataSourceHandler.close(statement);
+        }
+    }
+
+    private File newBackupFile(final boolean incremental) {
+        final String baseName = "backup" + new SimpleDateFormat("dd-MMM-yyyy_HH'h'mm").format(Calendar.getInstance().getTime())
+                + (incremental ? "-incremental" : "");
+        File backupFile = new File(backupDirectory, baseName + EXTENSION);
+        for (int i = 0; backupFile.exists(); i++) {
+            backupFile = new File(backupDirectory, baseName + "#" + i + EXTENSION);
+        }
+        return backupFile;
+    }
+
+    private static void writeChunk(final DataOutputStream out, final ByteArrayOutputStream chunkBuffer, final int rows)
+            throws IOException {
+        out.writeInt(rows);
+        chunkBuffer.writeTo(out);
+        chunkBuffer.reset();
+    }
+
+    static void writeValue(final DataOutputStream out, final Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            out.writeByte(LONG);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Float || value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof java.util.Date) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((java.util.Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else {
+            // writeUTF is limited to 64KB, so the strings are written as length prefixed UTF-8
+            final byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static Object readValue(final DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return in.readBoolean();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case TIMESTAMP:
+                return new Timestamp(in.readLong());
+            case BYTES:
+            case STRING:
+                final byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return (type == BYTES) ? bytes : new String(bytes, StandardCharsets.UTF_8);
+            default:
+                throw new IOException("Unknown value type " + type + ", the backup file is corrupted.");
+        }
+    }
+
+    static void setValue(final PreparedStatement statement, final int index, final Object value) throws SQLException {
+        if (value instanceof Timestamp) {
+            statement.setTimestamp(index, (Timestamp) value);
+        } else {
+            statement.setObject(index, value);
+        }
+    }
+
+    private static long toMillis(final Object value) {
+        if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).getTime();
+        }
+        return (value instanceof Number) ? ((Number) value).longValue() : 0;
+    }
+
+    /**
+     * @param idColumn      | auto incremented column used by the incremental backups, null if the table has none
+     * @param updatedColumn | column holding the last modification of a row, null if the table has none
+     */
+    private record BackupTable(String name, String idColumn, String updatedColumn) {
+    }
+}
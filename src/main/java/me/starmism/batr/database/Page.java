@@ -0,0 +1,134 @@
+package me.starmism.batr.database;
+
+import me.starmism.batr.BATR;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of a history read with a keyset pagination. <br>
+ * The rows are sorted by their date then their id, both descending, and a page starts right after the sort keys of
+ * the last row of the previous page (its cursor). The database then reads the page from the index, instead of
+ * reading and skipping all the rows of the previous pages. A page whose cursor isn't known (i.e a page number typed
+ * directly) is read with an offset; only its rows are transferred anyway. <br>
+ * The paginated queries contain a {@value #CURSOR} placeholder which is replaced by the cursor condition, and end with
+ * "LIMIT ? OFFSET ?". A query reading a table and its history table applies the condition and a limit to both of
+ * them before their union.
+ *
+ * @param entries    | the rows of the page
+ * @param nextCursor | the sort keys of the last row of the page, null if the page is empty
+ */
+public record Page<T>(List<T> entries, Object[] nextCursor) {
+    public static final String CURSOR = "{cursor}";
+
+    /**
+     * Read a page
+     *
+     * @param query     | the paginated query
+     * @param keys      | the sort keys of the query, i.e "ban_begin, ban_id"
+     * @param tables    | 2 if the query reads a table and its history table, 1 otherwise
+     * @param request   | where the page starts and its size
+     * @param reader    | create an entry from the current row
+     * @param condition | the parameters of the condition of the query
+     */
+    public static <T> Page<T> read(final String query, final String keys, final int tables, final Request request,
+                                   final RowReader<T> reader, final Object... condition) {
+        final List<T> entries = new ArrayList<>(request.limit());
+        final String[] keyColumns = keys.split(", ");
+        Object[] cursor = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try (Connection conn = BATR.getReadConnection()) {
+            statement = conn.prepareStatement(query.replace(CURSOR, (request.cursor() == null)
+                    ? ""
+                    : " AND (" + keys + ") < (" + DataSourceHandler.placeholders(keyColumns.length) + ")"));
+            int index = 1;
+            for (int table = 0; table < tables; table++) {
+                for (final Object param : condition) {
+                    statement.setObject(index++, param);
+                }
+                if (request.cursor() != null) {
+                    for (final Object key : request.cursor()) {
+                        statement.setObject(index++, key);
+                    }
+                }
+                if (tables > 1) {
+                    // Each table has to return enough rows for the page once the offset is skipped
+                    statement.setInt(index++, request.offset() + request.limit());
+                }
+            }
+            statement.setInt(index++, request.limit());
+            statement.setInt(index, request.offset());
+            resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+                entries.add(reader.read(resultSet));
+                cursor = new Object[keyColumns.length];
+                for (int i = 0; i < keyColumns.length; i++) {
+                    cursor[i] = resultSet.getObject(keyColumns[i]);
+                }
+            }
+        } catch (final SQLException e) {
+            DataSourceHandler.handleException(e);
+        } finally {
+            DataSourceHandler.close(statement, resultSet);
+        }
+        return new Page<>(entries, cursor);
+    }
+
+    /**
+     * Count the rows of a history
+     *
+     * @param query     | the count query
+     * @param tables    | 2 if the query counts the rows of a table and of its history table, 1 otherwise
+     * @param condition | the parameters of the condition of the query
+     */
+    public static int count(final String query, final int tables, final Object... condition) {
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try (Connection conn = BATR.getReadConnection()) {
+            statement = conn.prepareStatement(query);
+            int index = 1;
+            for (int table = 0; table < tables; table++) {
+                for (final Object param : condition) {
+                    statement.setObject(index++, param);
+                }
+            }
+            resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                return resultSet.getInt(1);
+            }
+        } catch (final SQLException e) {
+            DataSourceHandler.handleException(e);
+        } finally {
+            DataSourceHandler.close(statement, resultSet);
+        }
+        return 0;
+    }
+
+    /**
+     * Position and size of a requested page
+     *
+     * @param cursor | the cursor of the previous page, or null to use the offset
+     * @param offset | number of rows skipped, only used without cursor
+     * @param limit  | size of the page
+     */
+    public record Request(Object[] cursor, int offset, int limit) {
+        public static Request after(final Object[] cursor, final int limit) {
+            return new Request(cursor, 0, limit);
+        }
+
+        public static Request at(final int offset, final int limit) {
+            return new Request(null, offset, limit);
+        }
+    }
+
+    @FunctionalInterface
+    public interface RowReader<T> {
+        T read(ResultSet resultSet) throws SQLException;
+    }
+}
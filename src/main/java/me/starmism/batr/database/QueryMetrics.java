@@ -0,0 +1,184 @@
+package me.starmism.batr.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measure how long the connections take to be acquired from the pool and how long each call site holds them. <br>
+ * The call site is the first method outside of the database layer which asked for the connection (i.e Ban.isBan),
+ * it's found by walking the stack once per connection. The hold time of a connection is measured from its acquisition
+ * to its closure, so it covers all the queries executed with it and the processing of their results.
+ */
+public class QueryMetrics {
+    // Upper bounds (in ms, exclusive) of the buckets of the acquisition time histogram, the last bucket being unbounded
+    private static final long[] ACQUIRE_BUCKETS = {1, 5, 25, 100, 500, 2500};
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+
+    private final LongAdder[] acquireHistogram = new LongAdder[ACQUIRE_BUCKETS.length + 1];
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+    private final Map<String, CallSiteStats> callSites = new ConcurrentHashMap<>();
+
+    public QueryMetrics() {
+        for (int i = 0; i < acquireHistogram.length; i++) {
+            acquireHistogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record the acquisition of a connection and wrap it so that its hold time is recorded when it's closed
+     *
+     * @param acquireStart | the {@link System#nanoTime()} before the connection was requested
+     */
+    public Connection track(final Connection conn, final long acquireStart) {
+        final long acquired = System.nanoTime();
+        recordAcquire(acquired - acquireStart);
+        final CallSiteStats stats = callSites.computeIfAbsent(findCallSite(), CallSiteStats::new);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new TrackedConnection(conn, stats, acquired));
+    }
+
+    private void recordAcquire(final long nanos) {
+        final long millis = nanos / 1_000_000;
+        int bucket = 0;
+        while (bucket < ACQUIRE_BUCKETS.length && millis >= ACQUIRE_BUCKETS[bucket]) {
+            bucket++;
+        }
+        acquireHistogram[bucket].increment();
+        maxAcquireNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Get the number of acquisitions per bucket of the histogram, the labels being given by {@link #getAcquireBucketLabels()}
+     */
+    public long[] getAcquireHistogram() {
+        final long[] counts = new long[acquireHistogram.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = acquireHistogram[i].sum();
+        }
+        return counts;
+    }
+
+    public static String[] getAcquireBucketLabels() {
+        final String[] labels = new String[ACQUIRE_BUCKETS.length + 1];
+        for (int i = 0; i < ACQUIRE_BUCKETS.length; i++) {
+            labels[i] = "<" + ACQUIRE_BUCKETS[i] + "ms";
+        }
+        labels[ACQUIRE_BUCKETS.length] = ">=" + ACQUIRE_BUCKETS[ACQUIRE_BUCKETS.length - 1] + "ms";
+        return labels;
+    }
+
+    public double getMaxAcquireMillis() {
+        return maxAcquireNanos.get() / 1_000_000d;
+    }
+
+    /**
+     * Get the statistics of the call sites, sorted by total hold time (the most expensive first)
+     */
+    public List<CallSiteStats> getCallSites() {
+        final List<CallSiteStats> sites = new ArrayList<>(callSites.values());
+        sites.sort(Comparator.comparingLong(CallSiteStats::getTotalNanos).reversed());
+        return sites;
+    }
+
+    public void reset() {
+        for (final LongAdder bucket : acquireHistogram) {
+            bucket.reset();
+        }
+        maxAcquireNanos.set(0);
+        callSites.clear();
+    }
+
+    private static String findCallSite() {
+        final Optional<StackWalker.StackFrame> frame = STACK_WALKER.walk(frames -> frames
+                .filter(f -> !f.getClassName().startsWith("me.starmism.batr.database.")
+                        && !f.getClassName().equals("me.starmism.batr.BATR"))
+                .findFirst());
+        if (frame.isEmpty()) {
+            return "unknown";
+        }
+        String className = frame.get().getClassName();
+        className = className.substring(className.lastIndexOf('.') + 1);
+        String method = frame.get().getMethodName();
+        // Lambdas are named lambda$enclosingMethod$index
+        if (method.startsWith("lambda$")) {
+            final int end = method.indexOf('$', 7);
+            method = method.substring(7, (end == -1) ? method.length() : end);
+        }
+        return className + "." + method;
+    }
+
+    public static class CallSiteStats {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private CallSiteStats(final String name) {
+            this.name = name;
+        }
+
+        private void record(final long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public double getAverageMillis() {
+            final long calls = count.sum();
+            return (calls == 0) ? 0 : totalNanos.sum() / (calls * 1_000_000d);
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1_000_000d;
+        }
+    }
+
+    private static class TrackedConnection implements InvocationHandler {
+        private final Connection conn;
+        private final CallSiteStats stats;
+        private final long acquired;
+        private boolean closed = false;
+
+        private TrackedConnection(final Connection conn, final CallSiteStats stats, final long acquired) {
+            this.conn = conn;
+            this.stats = stats;
+            this.acquired = acquired;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if ("close".equals(method.getName()) && !closed) {
+                closed = true;
+                stats.record(System.nanoTime() - acquired);
+            }
+            try {
+                return method.invoke(conn, args);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
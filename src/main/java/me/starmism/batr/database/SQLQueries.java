@@ -6,6 +6,78 @@ package me.starmism.batr.database;
  * called "SQLite" which provides compatibility with SQLite.
  */
 public class SQLQueries {
+    // Current time in millis, as stored by the SQLite driver for the timestamps set from java
+    private static final String NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    // Same query on a table and on its history table (see ArchiveTask), the parameters of the condition are given twice
+    private static String withHistory(final String select, final String table, final String condition, final String order) {
+        return select + " FROM `" + table + "` WHERE " + condition + " UNION ALL "
+                + select + " FROM `" + table + "_history` WHERE " + condition + " ORDER BY " + order + ";";
+    }
+
+    // Ids of the rows of a table old enough to be moved to its history table (see ArchiveTask). The row holding the
+    // highest id always stays: before MySQL 8, InnoDB resets the auto increment to MAX(id) + 1 on restart and would give
+    // the ids of the archived rows again. A row whose id is already archived for another sanction is left in the table
+    // rather than overwriting it, while an identical archived copy (i.e after a restore) is skipped by the archive query
+    private static String archivable(final String table, final String id, final String condition,
+                                     final String nullSafeEquals, final String... identity) {
+        final String[] sameRow = new String[identity.length];
+        for (int i = 0; i < identity.length; i++) {
+            sameRow[i] = "archived." + identity[i] + " " + nullSafeEquals + " `" + table + "`." + identity[i];
+        }
+        return "SELECT " + id + " FROM `" + table + "` WHERE " + condition + " AND " + id + " < (SELECT MAX(" + id
+                + ") FROM `" + table + "`) AND NOT EXISTS (SELECT 1 FROM `" + table + "_history` AS archived WHERE archived."
+                + id + " = `" + table + "`." + id + " AND NOT (" + String.join(" AND ", sameRow) + ")) LIMIT ?;";
+    }
+
+    // Keyset paginated query (see Page), sorted by the keys descending. With the history, each table is sorted and
+    // limited before the union, so only the rows which may be part of the page are merged
+    private static String page(final String select, final String table, final String condition, final String keys,
+                               final boolean history) {
+        final String order = " ORDER BY " + keys.replace(",", " DESC,") + " DESC";
+        if (!history) {
+            return select + " FROM `" + table + "` WHERE (" + condition + ")" + Page.CURSOR + order + " LIMIT ? OFFSET ?;";
+        }
+        return "SELECT * FROM (" + select + " FROM `" + table + "` WHERE (" + condition + ")" + Page.CURSOR + order
+                + " LIMIT ?) AS live UNION ALL SELECT * FROM (" + select + " FROM `" + table + "_history` WHERE ("
+                + condition + ")" + Page.CURSOR + order + " LIMIT ?) AS archived" + order + " LIMIT ? OFFSET ?;";
+    }
+
+    private static String count(final String table, final String condition, final boolean history) {
+        final String count = "SELECT COUNT(*) FROM `" + table + "` WHERE " + condition;
+        return history
+                ? "SELECT (" + count + ") + (SELECT COUNT(*) FROM `" + table + "_history` WHERE " + condition + ");"
+                : count + ";";
+    }
+
+    public static class SchemaVersion {
+        public final static String table = "BAT_schema_version";
+        public final static String createTable = "CREATE TABLE IF NOT EXISTS `" + table + "` ("
+                + "`component` varchar(64) NOT NULL," + "`version` INTEGER NOT NULL,"
+                + "`migrated` timestamp DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP NOT NULL,"
+                + "PRIMARY KEY (`component`)" + ") ENGINE=InnoDB DEFAULT CHARSET=utf8;";
+        public static final String getVersion = "SELECT version FROM `" + table + "` WHERE component = ?;";
+        public static final String setVersion = "INSERT INTO `" + table + "` (component, version) VALUES (?, ?) "
+                + "ON DUPLICATE KEY UPDATE version = VALUES(version);";
+
+        public static class SQLite {
+            public final static String createTable = "CREATE TABLE IF NOT EXISTS `" + table + "` ("
+                    + "`component` varchar(64) PRIMARY KEY NOT NULL," + "`version` INTEGER NOT NULL,"
+                    + "`migrated` timestamp DEFAULT CURRENT_TIMESTAMP NOT NULL" + ");";
+            public static final String setVersion = "INSERT OR REPLACE INTO `" + table + "` (component, version) VALUES (?, ?);";
+        }
+
+        // Rows whose ip column may hold an IPv6 address, to rewrite them in their canonical form
+        public static String getIPv6Rows(final String table, final String key, final String column) {
+            return "SELECT `" + key + "`, `" + column + "` FROM `" + table + "` WHERE `" + column + "` LIKE '%:%';";
+        }
+
+        // Parameters : canonical ip, key, previous ip
+        public static String setIP(final String table, final String key, final String column) {
+            return "UPDATE `" + table + "` SET `" + column + "` = ? WHERE `" + key + "` = ? AND `" + column + "` = ?;";
+        }
+    }
+
     public static class Kick {
         public final static String table = "BAT_kick";
         public final static String createTable = "CREATE TABLE IF NOT EXISTS `" + table + "` ("
@@ -21,6 +93,41 @@ public class SQLQueries {
                 + "`" + " WHERE kick_staff = ? ORDER BY kick_date DESC;";
         public final static String kickPlayer = "INSERT INTO `" + table
                 + "`(UUID, kick_staff, kick_reason, kick_server, kick_date) VALUES (?, ?, ?, ?, NOW());";
+        // Use to replay a kick written in the journal during a database outage, it's only inserted if it isn't already
+        // Parameters : UUID, kick_staff, kick_reason, kick_server, kick_date
+        public final static String journalKick = "INSERT INTO `" + table + "`(UUID, kick_staff, kick_reason, kick_server, kick_date) "
+                + "SELECT * FROM (SELECT ? AS UUID, ? AS kick_staff, ? AS kick_reason, ? AS kick_server, ? AS kick_date) AS j "
+                + "WHERE NOT EXISTS (SELECT 1 FROM `" + table + "` k WHERE k.UUID = j.UUID AND k.kick_staff = j.kick_staff "
+                + "AND k.kick_server = j.kick_server AND k.kick_date = j.kick_date);";
+
+        // Schema version 1 : getKick sorts by date and getManagedKick filters on the staff
+        public final static String[] addIndexes = {
+                "ALTER TABLE `" + table + "` ADD INDEX `kick.uuid_date` (UUID, kick_date);",
+                "ALTER TABLE `" + table + "` ADD INDEX `kick.staff_index` (kick_staff, kick_date);"};
+
+        // History : the kicks older than the archive age are moved there. The columns are listed as their order
+        // depends on the version which created the table
+        public final static String historyTable = table + "_history";
+        private final static String columns = "kick_id, UUID, kick_staff, kick_reason, kick_server, kick_date";
+        public final static String createHistoryTable = "CREATE TABLE IF NOT EXISTS `" + historyTable + "` LIKE `" + table + "`;";
+        // Parameters : cutoff date, batch size
+        private final static String[] identity = {"UUID", "kick_staff", "kick_server", "kick_date"};
+        public final static String getArchivableKicks = archivable(table, "kick_id", "kick_date < ?", "<=>", identity);
+        // {ids} is replaced by the ids returned by getArchivableKicks
+        public final static String archiveKicks = "INSERT IGNORE INTO `" + historyTable + "` (" + columns + ") SELECT "
+                + columns + " FROM `" + table + "` WHERE kick_id IN ({ids});";
+        public final static String deleteKicks = "DELETE FROM `" + table + "` WHERE kick_id IN ({ids});";
+        public static final String getKickWithHistory = withHistory("SELECT kick_server, kick_reason, kick_staff, kick_date",
+                table, "UUID = ?", "kick_date DESC");
+        public static final String getManagedKickWithHistory = withHistory("SELECT kick_server, kick_reason, UUID, kick_date",
+                table, "kick_staff = ?", "kick_date DESC");
+
+        // Lookup pages, including the history
+        public static final String pageKeys = "kick_date, kick_id";
+        public static final String getKickPage = page("SELECT " + columns, table, "UUID = ?", pageKeys, true);
+        public static final String getManagedKickPage = page("SELECT " + columns, table, "kick_staff = ?", pageKeys, true);
+        public static final String countKicks = count(table, "UUID = ?", true);
+        public static final String countManagedKicks = count(table, "kick_staff = ?", true);
 
         public static class SQLite {
             public final static String[] createTable = {
@@ -31,10 +138,41 @@ public class SQLQueries {
                     "CREATE INDEX IF NOT EXISTS `kick.uuid_index` ON " + table + " (`UUID`);"};
             public final static String kickPlayer = "INSERT INTO `" + table
                     + "`(UUID, kick_staff, kick_reason, kick_server, kick_date) VALUES (?, ?, ?, ?, date());";
+            public final static String journalKick = "INSERT INTO `" + table + "`(UUID, kick_staff, kick_reason, kick_server, kick_date) "
+                    + "SELECT * FROM (SELECT ? AS UUID, ? AS kick_staff, ? AS kick_reason, ? AS kick_server, datetime(? / 1000, 'unixepoch') AS kick_date) AS j "
+                    + "WHERE NOT EXISTS (SELECT 1 FROM `" + table + "` k WHERE k.UUID = j.UUID AND k.kick_staff = j.kick_staff "
+                    + "AND k.kick_server = j.kick_server AND k.kick_date = j.kick_date);";
             public static final String getKick = "SELECT kick_server, kick_reason, kick_staff, strftime('%s',kick_date) FROM `" + table
                     + "`" + " WHERE UUID = ? ORDER BY kick_date;";
             public static final String getManagedKick = "SELECT kick_server, kick_reason, UUID, strftime('%s',kick_date) FROM `" + table
                     + "`" + " WHERE kick_staff = ? ORDER BY kick_date;";
+            public final static String[] addIndexes = {
+                    "CREATE INDEX IF NOT EXISTS `kick.uuid_date` ON " + table + " (`UUID`, `kick_date`);",
+                    "CREATE INDEX IF NOT EXISTS `kick.staff_index` ON " + table + " (`kick_staff`, `kick_date`);"};
+
+            // The ids of the history are the ones given by the main table
+            public final static String[] createHistoryTable = {
+                    "CREATE TABLE IF NOT EXISTS `" + historyTable + "` (" + "`kick_id` INTEGER PRIMARY KEY,"
+                            + "`UUID` varchar(100) NOT NULL," + "`kick_staff` varchar(30) NOT NULL,"
+                            + "`kick_reason` varchar(100) NULL," + "`kick_server` varchar(30) NOT NULL,"
+                            + "`kick_date` timestamp NOT NULL" + ");",
+                    "CREATE INDEX IF NOT EXISTS `kick_history.uuid_date` ON " + historyTable + " (`UUID`, `kick_date`);",
+                    "CREATE INDEX IF NOT EXISTS `kick_history.staff_index` ON " + historyTable + " (`kick_staff`, `kick_date`);"};
+            public final static String getArchivableKicks = archivable(table, "kick_id",
+                    "kick_date < datetime(? / 1000, 'unixepoch')", "IS", identity);
+            public final static String archiveKicks = "INSERT OR IGNORE INTO `" + historyTable + "` (" + columns + ") SELECT "
+                    + columns + " FROM `" + table + "` WHERE kick_id IN ({ids});";
+            // kick_date is selected too, as a compound query can only be sorted by the selected columns
+            public static final String getKickWithHistory = withHistory(
+                    "SELECT kick_server, kick_reason, kick_staff, kick_date, strftime('%s',kick_date)",
+                    table, "UUID = ?", "kick_date");
+            public static final String getManagedKickWithHistory = withHistory(
+                    "SELECT kick_server, kick_reason, UUID, kick_date, strftime('%s',kick_date)",
+                    table, "kick_staff = ?", "kick_date");
+            public static final String getKickPage = page("SELECT " + columns + ", strftime('%s',kick_date)",
+                    table, "UUID = ?", pageKeys, true);
+            public static final String getManagedKickPage = page("SELECT " + columns + ", strftime('%s',kick_date)",
+                    table, "kick_staff = ?", pageKeys, true);
         }
     }
 
@@ -42,7 +180,7 @@ public class SQLQueries {
         public final static String table = "BAT_ban";
         public final static String createTable = "CREATE TABLE IF NOT EXISTS `" + table + "` ("
                 + "`ban_id` INTEGER PRIMARY KEY AUTO_INCREMENT," + "`UUID` varchar(100) NULL,"
-                + "`ban_ip` varchar(50) NULL,"
+                + "`ban_ip` varchar(50) NULL," + "`ban_ip_prefix` smallint NULL,"
 
                 + "`ban_staff` varchar(30) NOT NULL," + "`ban_reason` varchar(100) NULL,"
                 + "`ban_server` varchar(30) NOT NULL," + "`ban_begin` timestamp DEFAULT CURRENT_TIMESTAMP NOT NULL,"
@@ -51,7 +189,9 @@ public class SQLQueries {
                 + "`ban_unbandate` timestamp NULL," + "`ban_unbanstaff` varchar(30) NULL,"
                 + "`ban_unbanreason` varchar(100) NULL,"
 
-                + "INDEX(UUID)," + "INDEX(ban_ip)" + ") ENGINE=InnoDB DEFAULT CHARSET=utf8 AUTO_INCREMENT=1;";
+                + "`ban_updated` timestamp(3) DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3) NOT NULL,"
+
+                + "INDEX(UUID)," + "INDEX(ban_ip)," + "INDEX(ban_updated)" + ") ENGINE=InnoDB DEFAULT CHARSET=utf8 AUTO_INCREMENT=1;";
 
         // Use to check if a player is ban on a ban_server
         // Parameter : player, player's ban_ip, (ban_server)
@@ -60,15 +200,30 @@ public class SQLQueries {
                 + "AND ban_server = ?;";
 
         public static final String isBanIP = "SELECT ban_id FROM `" + table
-                + "` WHERE ban_state = 1 AND ban_ip = ? AND UUID IS NULL;";
+                + "` WHERE ban_state = 1 AND ban_ip = ? AND ban_ip_prefix IS NULL AND UUID IS NULL;";
         public static final String isBanServerIP = "SELECT ban_id FROM `" + table
-                + "` WHERE ban_state = 1 AND ban_ip = ? AND ban_server = ? AND UUID IS NULL;";
+                + "` WHERE ban_state = 1 AND ban_ip = ? AND ban_server = ? AND ban_ip_prefix IS NULL AND UUID IS NULL;";
+
+        public static final String isBanRange = "SELECT ban_id FROM `" + table
+                + "` WHERE ban_state = 1 AND ban_ip = ? AND ban_ip_prefix = ? AND UUID IS NULL;";
+        public static final String isBanServerRange = "SELECT ban_id FROM `" + table
+                + "` WHERE ban_state = 1 AND ban_ip = ? AND ban_ip_prefix = ? AND ban_server = ? AND UUID IS NULL;";
 
         public static final String createBan = "INSERT INTO `" + table
                 + "`(UUID, ban_staff, ban_server, ban_end, ban_reason) VALUES (?, ?, ?, ?, ?);";
 
+        // ban_ip_prefix is the prefix length of a CIDR range ban (ban_ip being the network address), null for a single ip
         public static final String createBanIP = "INSERT INTO `" + table
-                + "`(ban_ip, ban_staff, ban_server, ban_end, ban_reason) VALUES (?, ?, ?, ?, ?);";
+                + "`(ban_ip, ban_ip_prefix, ban_staff, ban_server, ban_end, ban_reason) VALUES (?, ?, ?, ?, ?, ?);";
+
+        // Use to replay a ban written in the journal during a database outage, it's only inserted if it isn't already
+        // (same entity, staff, server and begin date). Parameters : UUID, ban_ip, ban_ip_prefix, ban_staff, ban_server, ban_begin, ban_end, ban_reason
+        public static final String journalBan = "INSERT INTO `" + table
+                + "`(UUID, ban_ip, ban_ip_prefix, ban_staff, ban_server, ban_begin, ban_end, ban_reason) "
+                + "SELECT * FROM (SELECT ? AS UUID, ? AS ban_ip, ? AS ban_ip_prefix, ? AS ban_staff, ? AS ban_server, "
+                + "? AS ban_begin, ? AS ban_end, ? AS ban_reason) AS j "
+                + "WHERE NOT EXISTS (SELECT 1 FROM `" + table + "` b WHERE (b.UUID = j.UUID OR b.ban_ip = j.ban_ip) "
+                + "AND b.ban_staff = j.ban_staff AND b.ban_server = j.ban_server AND b.ban_begin = j.ban_begin);";
 
         public static final String unBan = "UPDATE `" + table
                 + "` SET ban_state = 0, ban_unbanreason = ?, ban_unbanstaff = ?, ban_unbandate = NOW() "
@@ -79,10 +234,17 @@ public class SQLQueries {
 
         public static final String unBanIP = "UPDATE `" + table
                 + "` SET ban_state = 0, ban_unbanreason = ?, ban_unbanstaff = ?, ban_unbandate = NOW()  "
-                + "WHERE ban_ip = ? AND UUID IS NULL;";
+                + "WHERE ban_ip = ? AND ban_ip_prefix IS NULL AND UUID IS NULL;";
         public static final String unBanIPServer = "UPDATE `" + table
                 + "` SET ban_state = 0, ban_unbanreason = ?, ban_unbanstaff = ?, ban_unbandate = NOW()  "
-                + "WHERE ban_ip = ? AND ban_server = ? AND UUID IS NULL;";
+                + "WHERE ban_ip = ? AND ban_server = ? AND ban_ip_prefix IS NULL AND UUID IS NULL;";
+
+        public static final String unBanRange = "UPDATE `" + table
+                + "` SET ban_state = 0, ban_unbanreason = ?, ban_unbanstaff = ?, ban_unbandate = NOW()  "
+                + "WHERE ban_ip = ? AND ban_ip_prefix = ? AND UUID IS NULL AND ban_state = 1;";
+        public static final String unBanRangeServer = "UPDATE `" + table
+                + "` SET ban_state = 0, ban_unbanreason = ?, ban_unbanstaff = ?, ban_unbandate = NOW()  "
+                + "WHERE ban_ip = ? AND ban_ip_prefix = ? AND ban_server = ? AND UUID IS NULL AND ban_state = 1;";
 
         public static final String getBan = "SELECT * FROM `"
                 + table + "`" + " WHERE UUID = ? ORDER BY ban_state DESC, ban_end DESC;";
@@ -95,14 +257,78 @@ public class SQLQueries {
         public static final String getBanMessage = "SELECT ban_reason, ban_end, ban_staff, ban_begin FROM `"
                 + table + "` WHERE (UUID = ? OR ban_ip = ?) AND ban_state = 1 AND ban_server = ?;";
 
-        public static final String updateExpiredBan = "UPDATE `" + table + "` SET ban_state = 0 "
-                + "WHERE ban_state = 1 AND (ban_end != 0 AND ban_end < NOW());";
+        // {ids} is replaced by as many placeholders as there are expired bans
+        public static final String expireBans = "UPDATE `" + table + "` SET ban_state = 0 "
+                + "WHERE ban_state = 1 AND ban_id IN ({ids});";
+
+        // Use to load the in-memory index of the active bans
+        public static final String getActiveBans = "SELECT ban_id, UUID, ban_ip, ban_ip_prefix, ban_server, ban_reason, ban_staff, ban_begin, ban_end FROM `"
+                + table + "` WHERE ban_state = 1;";
+        // Use to resolve the active bans of several players at once, {uuids} and {ips} are replaced by placeholders
+        public static final String getActiveBansOf = "SELECT ban_id, UUID, ban_ip, ban_ip_prefix, ban_server, ban_reason, ban_staff, ban_begin, ban_end FROM `"
+                + table + "` WHERE ban_state = 1 AND (UUID IN ({uuids}) OR (UUID IS NULL AND ban_ip IN ({ips})));";
+
+        // Change tracking : ban_updated is set by the database on every modification, even those made from the WebInterface
+        public static final String addUpdatedColumn = "ALTER TABLE `" + table + "` ADD COLUMN "
+                + "`ban_updated` timestamp(3) DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3) NOT NULL, "
+                + "ADD INDEX(ban_updated);";
+        public static final String getLastUpdate = "SELECT MAX(ban_updated) FROM `" + table + "`;";
+
+        // Schema version 1 : the checks filter on the state and the server, the expiration on the state and the end,
+        // and getManagedBan on both staff columns (served by an index merge)
+        public final static String[] addIndexes = {
+                "ALTER TABLE `" + table + "` ADD INDEX `ban.uuid_state_server` (UUID, ban_state, ban_server);",
+                "ALTER TABLE `" + table + "` ADD INDEX `ban.ip_state_server` (ban_ip, ban_state, ban_server);",
+                "ALTER TABLE `" + table + "` ADD INDEX `ban.state_end` (ban_state, ban_end);",
+                "ALTER TABLE `" + table + "` ADD INDEX `ban.staff_index` (ban_staff);",
+                "ALTER TABLE `" + table + "` ADD INDEX `ban.unbanstaff_index` (ban_unbanstaff);"};
+
+        // History : the inactive bans older than the archive age are moved there
+        public final static String historyTable = table + "_history";
+        private final static String columns = "ban_id, UUID, ban_ip, ban_ip_prefix, ban_staff, ban_reason, ban_server, ban_begin, "
+                + "ban_end, ban_state, ban_unbandate, ban_unbanstaff, ban_unbanreason, ban_updated";
+        public final static String createHistoryTable = "CREATE TABLE IF NOT EXISTS `" + historyTable + "` LIKE `" + table + "`;";
+        // Parameters : cutoff date (x3), batch size
+        private final static String[] identity = {"UUID", "ban_ip", "ban_staff", "ban_server", "ban_begin"};
+        public final static String getArchivableBans = archivable(table, "ban_id", "ban_state = 0 AND ban_begin < ? "
+                + "AND (ban_end IS NULL OR ban_end < ?) AND (ban_unbandate IS NULL OR ban_unbandate < ?)", "<=>", identity);
+        public final static String archiveBans = "INSERT IGNORE INTO `" + historyTable + "` (" + columns + ") SELECT "
+                + columns + " FROM `" + table + "` WHERE ban_id IN ({ids});";
+        public final static String deleteBans = "DELETE FROM `" + table + "` WHERE ban_id IN ({ids});";
+        public static final String getBanWithHistory = withHistory("SELECT " + columns,
+                table, "UUID = ?", "ban_state DESC, ban_end DESC");
+        public static final String getBanIPWithHistory = withHistory("SELECT " + columns,
+                table, "ban_ip = ? AND UUID IS NULL", "ban_state DESC, ban_end DESC");
+        public static final String getManagedBanWithHistory = withHistory("SELECT " + columns,
+                table, "(ban_staff = ? OR ban_unbanstaff = ?)", "ban_state DESC, ban_end DESC");
+
+        // Lookup pages, including the history
+        public static final String pageKeys = "ban_begin, ban_id";
+        public static final String getBanPage = page("SELECT " + columns, table, "UUID = ?", pageKeys, true);
+        public static final String getBanIPPage = page("SELECT " + columns, table, "ban_ip = ? AND UUID IS NULL", pageKeys, true);
+        public static final String getManagedBanPage = page("SELECT " + columns, table,
+                "ban_staff = ? OR ban_unbanstaff = ?", pageKeys, true);
+        public static final String countBans = count(table, "UUID = ?", true);
+        public static final String countBansIP = count(table, "ban_ip = ? AND UUID IS NULL", true);
+        public static final String countManagedBans = count(table, "(ban_staff = ? OR ban_unbanstaff = ?)", true);
+
+        // CIDR range bans
+        public static final String addIPPrefixColumn = "ALTER TABLE `" + table + "` ADD COLUMN `ban_ip_prefix` smallint NULL;";
+        // Schema version 2 : the prefix was first a signed tinyint, which can't hold the IPv6 prefixes above /127.
+        // The history table is created beforehand so that it's widened too, as it copies the column type of the table
+        public static final String[] widenIPPrefix = {
+                "ALTER TABLE `" + table + "` MODIFY COLUMN `ban_ip_prefix` smallint NULL;",
+                createHistoryTable,
+                "ALTER TABLE `" + historyTable + "` MODIFY COLUMN `ban_ip_prefix` smallint NULL;"};
+        public static final String getChangedBans = "SELECT ban_id, UUID, ban_ip, ban_ip_prefix, ban_server, ban_reason, ban_staff, ban_begin, ban_end, ban_state, ban_updated FROM `"
+                + table + "` WHERE ban_updated > ?;";
 
         public static class SQLite {
             // Ban related
             public final static String[] createTable = {
                     "CREATE TABLE IF NOT EXISTS `" + table + "` (" + "`ban_id` INTEGER PRIMARY KEY AUTOINCREMENT,"
                             + "`UUID` varchar(100) NULL," + "`ban_ip` varchar(50) NULL,"
+                            + "`ban_ip_prefix` INTEGER NULL,"
 
                             + "`ban_staff` varchar(30) NOT NULL," + "`ban_reason` varchar(100) NULL,"
                             + "`ban_server` varchar(30) NOT NULL,"
@@ -110,7 +336,7 @@ public class SQLQueries {
                             + "`ban_state` bool NOT NULL default 1,"
 
                             + "`ban_unbandate` timestamp NULL," + "`ban_unbanstaff` varchar(30) NULL,"
-                            + "`ban_unbanreason` varchar(100) NULL" + ");",
+                            + "`ban_unbanreason` varchar(100) NULL," + "`ban_updated` INTEGER NULL" + ");",
                     "CREATE INDEX IF NOT EXISTS `ban.uuid_index` ON " + table + " (`UUID`);",
                     "CREATE INDEX IF NOT EXISTS `ban.ip_index` ON " + table + " (`ban_ip`);"};
 
@@ -119,10 +345,16 @@ public class SQLQueries {
                     + "WHERE UUID = ? AND ban_state = 1;";
             public static final String unBanIP = "UPDATE `" + table
                     + "` SET ban_state = 0, ban_unbanreason = ?, ban_unbanstaff = ?, ban_unbandate = datetime()  "
-                    + "WHERE ban_ip = ? AND UUID IS NULL;";
+                    + "WHERE ban_ip = ? AND ban_ip_prefix IS NULL AND UUID IS NULL;";
             public static final String unBanIPServer = "UPDATE `" + table
                     + "` SET ban_state = 0, ban_unbanreason = ?, ban_unbanstaff = ?, ban_unbandate = datetime()  "
-                    + "WHERE ban_ip = ? AND ban_server = ? AND UUID IS NULL;";
+                    + "WHERE ban_ip = ? AND ban_server = ? AND ban_ip_prefix IS NULL AND UUID IS NULL;";
+            public static final String unBanRange = "UPDATE `" + table
+                    + "` SET ban_state = 0, ban_unbanreason = ?, ban_unbanstaff = ?, ban_unbandate = datetime()  "
+                    + "WHERE ban_ip = ? AND ban_ip_prefix = ? AND UUID IS NULL AND ban_state = 1;";
+            public static final String unBanRangeServer = "UPDATE `" + table
+                    + "` SET ban_state = 0, ban_unbanreason = ?, ban_unbanstaff = ?, ban_unbandate = datetime()  "
+                    + "WHERE ban_ip = ? AND ban_ip_prefix = ? AND ban_server = ? AND UUID IS NULL AND ban_state = 1;";
             public static final String unBanServer = "UPDATE `" + table
                     + "` SET ban_state = 0, ban_unbanreason = ?, ban_unbanstaff = ?, ban_unbandate = datetime() "
                     + "WHERE UUID = ? AND ban_server = ? AND ban_state = 1;";
@@ -141,8 +373,76 @@ public class SQLQueries {
                     + "strftime('%s',ban_begin), strftime('%s',ban_end), strftime('%s',ban_unbandate) "
                     + "FROM `" + table + "`" + " WHERE ban_staff = ? OR ban_unbanstaff = ? ORDER BY ban_state DESC, ban_end DESC;";
 
-            public static final String updateExpiredBan = "UPDATE `" + table + "` SET ban_state = 0 "
-                    + "WHERE ban_state = 1 AND (ban_end != 0 AND (ban_end / 1000) < CAST(strftime('%s', 'now') as integer));";
+            public static final String getActiveBans = "SELECT ban_id, UUID, ban_ip, ban_ip_prefix, ban_server, ban_reason, ban_staff, strftime('%s',ban_begin), ban_end FROM `"
+                    + table + "` WHERE ban_state = 1;";
+            public static final String getActiveBansOf = "SELECT ban_id, UUID, ban_ip, ban_ip_prefix, ban_server, ban_reason, ban_staff, strftime('%s',ban_begin), ban_end FROM `"
+                    + table + "` WHERE ban_state = 1 AND (UUID IN ({uuids}) OR (UUID IS NULL AND ban_ip IN ({ips})));";
+
+            // SQLite doesn't support ON UPDATE, so ban_updated (in millis) is maintained by triggers
+            public static final String addUpdatedColumn = "ALTER TABLE `" + table + "` ADD COLUMN `ban_updated` INTEGER NULL;";
+            public static final String addIPPrefixColumn = "ALTER TABLE `" + table + "` ADD COLUMN `ban_ip_prefix` INTEGER NULL;";
+            // An INTEGER column already holds any prefix length
+            public static final String[] widenIPPrefix = {};
+            public final static String[] changeTracking = {
+                    "CREATE INDEX IF NOT EXISTS `ban.updated_index` ON " + table + " (`ban_updated`);",
+                    "CREATE TRIGGER IF NOT EXISTS `ban.updated_insert` AFTER INSERT ON `" + table + "` BEGIN "
+                            + "UPDATE `" + table + "` SET ban_updated = " + NOW_MILLIS + " WHERE ban_id = NEW.ban_id; END;",
+                    "CREATE TRIGGER IF NOT EXISTS `ban.updated_update` AFTER UPDATE OF ban_state, ban_server, ban_reason, ban_end ON `" + table + "` BEGIN "
+                            + "UPDATE `" + table + "` SET ban_updated = " + NOW_MILLIS + " WHERE ban_id = NEW.ban_id; END;"};
+            public static final String getChangedBans = "SELECT ban_id, UUID, ban_ip, ban_ip_prefix, ban_server, ban_reason, ban_staff, strftime('%s',ban_begin), ban_end, ban_state, ban_updated FROM `"
+                    + table + "` WHERE ban_updated > ?;";
+
+            // ban_begin is stored as text by CURRENT_TIMESTAMP, so the begin date given in millis is converted the same way
+            public static final String journalBan = "INSERT INTO `" + table
+                    + "`(UUID, ban_ip, ban_ip_prefix, ban_staff, ban_server, ban_begin, ban_end, ban_reason) "
+                    + "SELECT * FROM (SELECT ? AS UUID, ? AS ban_ip, ? AS ban_ip_prefix, ? AS ban_staff, ? AS ban_server, "
+                    + "datetime(? / 1000, 'unixepoch') AS ban_begin, ? AS ban_end, ? AS ban_reason) AS j "
+                    + "WHERE NOT EXISTS (SELECT 1 FROM `" + table + "` b WHERE (b.UUID = j.UUID OR b.ban_ip = j.ban_ip) "
+                    + "AND b.ban_staff = j.ban_staff AND b.ban_server = j.ban_server AND b.ban_begin = j.ban_begin);";
+
+            // The partial indexes only hold the active bans, which are a small part of the table. SQLite only uses them
+            // for the queries whose condition contains "ban_state = 1"
+            public final static String[] addIndexes = {
+                    "CREATE INDEX IF NOT EXISTS `ban.active_uuid` ON " + table + " (`UUID`, `ban_server`) WHERE ban_state = 1;",
+                    "CREATE INDEX IF NOT EXISTS `ban.active_ip` ON " + table + " (`ban_ip`, `ban_server`) WHERE ban_state = 1;",
+                    "CREATE INDEX IF NOT EXISTS `ban.active_end` ON " + table + " (`ban_end`) WHERE ban_state = 1;",
+                    "CREATE INDEX IF NOT EXISTS `ban.staff_index` ON " + table + " (`ban_staff`);",
+                    "CREATE INDEX IF NOT EXISTS `ban.unbanstaff_index` ON " + table + " (`ban_unbanstaff`);"};
+
+            public final static String[] createHistoryTable = {
+                    "CREATE TABLE IF NOT EXISTS `" + historyTable + "` (" + "`ban_id` INTEGER PRIMARY KEY,"
+                            + "`UUID` varchar(100) NULL," + "`ban_ip` varchar(50) NULL,"
+                            + "`ban_ip_prefix` INTEGER NULL,"
+
+                            + "`ban_staff` varchar(30) NOT NULL," + "`ban_reason` varchar(100) NULL,"
+                            + "`ban_server` varchar(30) NOT NULL,"
+                            + "`ban_begin` timestamp NOT NULL," + "`ban_end` timestamp NULL,"
+                            + "`ban_state` bool NOT NULL default 0,"
+
+                            + "`ban_unbandate` timestamp NULL," + "`ban_unbanstaff` varchar(30) NULL,"
+                            + "`ban_unbanreason` varchar(100) NULL," + "`ban_updated` INTEGER NULL" + ");",
+                    "CREATE INDEX IF NOT EXISTS `ban_history.uuid_index` ON " + historyTable + " (`UUID`);",
+                    "CREATE INDEX IF NOT EXISTS `ban_history.ip_index` ON " + historyTable + " (`ban_ip`);",
+                    "CREATE INDEX IF NOT EXISTS `ban_history.staff_index` ON " + historyTable + " (`ban_staff`);",
+                    "CREATE INDEX IF NOT EXISTS `ban_history.unbanstaff_index` ON " + historyTable + " (`ban_unbanstaff`);"};
+            // ban_end is stored in millis, while ban_begin and ban_unbandate are stored as text
+            public final static String getArchivableBans = archivable(table, "ban_id", "ban_state = 0 "
+                    + "AND ban_begin < datetime(? / 1000, 'unixepoch') AND (ban_end IS NULL OR ban_end < ?) "
+                    + "AND (ban_unbandate IS NULL OR ban_unbandate < datetime(? / 1000, 'unixepoch'))", "IS", identity);
+            public final static String archiveBans = "INSERT OR IGNORE INTO `" + historyTable + "` (" + columns + ") SELECT "
+                    + columns + " FROM `" + table + "` WHERE ban_id IN ({ids});";
+            private final static String selectWithDates = "SELECT " + columns + ", "
+                    + "strftime('%s',ban_begin), strftime('%s',ban_end), strftime('%s',ban_unbandate)";
+            public static final String getBanWithHistory = withHistory(selectWithDates,
+                    table, "UUID = ?", "ban_state DESC, ban_end DESC");
+            public static final String getBanIPWithHistory = withHistory(selectWithDates,
+                    table, "ban_ip = ? AND UUID IS NULL", "ban_state DESC, ban_end DESC");
+            public static final String getManagedBanWithHistory = withHistory(selectWithDates,
+                    table, "(ban_staff = ? OR ban_unbanstaff = ?)", "ban_state DESC, ban_end DESC");
+            public static final String getBanPage = page(selectWithDates, table, "UUID = ?", pageKeys, true);
+            public static final String getBanIPPage = page(selectWithDates, table, "ban_ip = ? AND UUID IS NULL", pageKeys, true);
+            public static final String getManagedBanPage = page(selectWithDates, table,
+                    "ban_staff = ? OR ban_unbanstaff = ?", pageKeys, true);
         }
     }
 
@@ -159,7 +459,9 @@ public class SQLQueries {
                 + "`mute_unmutedate` timestamp NULL," + "`mute_unmutestaff` varchar(30) NULL,"
                 + "`mute_unmutereason` varchar(100) NULL,"
 
-                + "INDEX(UUID)," + "INDEX(mute_ip)" + ") ENGINE=InnoDB DEFAULT CHARSET=utf8 AUTO_INCREMENT=1;";
+                + "`mute_updated` timestamp(3) DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3) NOT NULL,"
+
+                + "INDEX(UUID)," + "INDEX(mute_ip)," + "INDEX(mute_updated)" + ") ENGINE=InnoDB DEFAULT CHARSET=utf8 AUTO_INCREMENT=1;";
 
         public static final String isMute = "SELECT mute_id FROM `" + table + "` WHERE mute_state = 1 AND UUID = ?;";
         public static final String isMuteServer = "SELECT mute_id FROM `" + table
@@ -176,6 +478,15 @@ public class SQLQueries {
         public static final String createMuteIP = "INSERT INTO `" + table
                 + "`(mute_ip, mute_staff, mute_server, mute_end, mute_reason) VALUES (?, ?, ?, ?, ?);";
 
+        // Use to replay a mute written in the journal during a database outage, it's only inserted if it isn't already
+        // (same entity, staff, server and begin date). Parameters : UUID, mute_ip, mute_staff, mute_server, mute_begin, mute_end, mute_reason
+        public static final String journalMute = "INSERT INTO `" + table
+                + "`(UUID, mute_ip, mute_staff, mute_server, mute_begin, mute_end, mute_reason) "
+                + "SELECT * FROM (SELECT ? AS UUID, ? AS mute_ip, ? AS mute_staff, ? AS mute_server, "
+                + "? AS mute_begin, ? AS mute_end, ? AS mute_reason) AS j "
+                + "WHERE NOT EXISTS (SELECT 1 FROM `" + table + "` m WHERE (m.UUID = j.UUID OR m.mute_ip = j.mute_ip) "
+                + "AND m.mute_staff = j.mute_staff AND m.mute_server = j.mute_server AND m.mute_begin = j.mute_begin);";
+
         public static final String unMute = "UPDATE `" + table
                 + "` SET mute_state = 0, mute_unmutereason = ?, mute_unmutestaff = ?, mute_unmutedate = NOW() "
                 + "WHERE UUID = ? AND mute_state = 1;";
@@ -201,8 +512,64 @@ public class SQLQueries {
         public static final String getMuteMessage = "SELECT mute_reason, mute_end, mute_staff, mute_begin FROM `"
                 + table + "` WHERE (UUID = ? OR mute_ip = ?) AND mute_state = 1 AND mute_server = ?;";
 
-        public static final String updateExpiredMute = "UPDATE `" + table + "` SET mute_state = 0 "
-                + "WHERE mute_state = 1 AND (mute_end != 0 AND mute_end < NOW());";
+        // {ids} is replaced by as many placeholders as there are expired mutes
+        public static final String expireMutes = "UPDATE `" + table + "` SET mute_state = 0 "
+                + "WHERE mute_state = 1 AND mute_id IN ({ids});";
+
+        // Use to load the mute data of a player (parameters : UUID, ip)
+        public static final String getActiveMutes = "SELECT mute_id, UUID, mute_ip, mute_server, mute_reason, mute_staff, mute_begin, mute_end FROM `"
+                + table + "` WHERE (UUID = ? OR mute_ip = ?) AND mute_state = 1;";
+        // Use to load the mute data of several players at once, {uuids} and {ips} are replaced by placeholders
+        public static final String getActiveMutesOf = "SELECT mute_id, UUID, mute_ip, mute_server, mute_reason, mute_staff, mute_begin, mute_end FROM `"
+                + table + "` WHERE (UUID IN ({uuids}) OR mute_ip IN ({ips})) AND mute_state = 1;";
+        // Use to schedule the expiration of the temporary mutes
+        public static final String getTempMutes = "SELECT mute_id, mute_end FROM `"
+                + table + "` WHERE mute_state = 1 AND mute_end IS NOT NULL;";
+
+        // Change tracking : mute_updated is set by the database on every modification, even those made from the WebInterface
+        public static final String addUpdatedColumn = "ALTER TABLE `" + table + "` ADD COLUMN "
+                + "`mute_updated` timestamp(3) DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3) NOT NULL, "
+                + "ADD INDEX(mute_updated);";
+        public static final String getLastUpdate = "SELECT MAX(mute_updated) FROM `" + table + "`;";
+
+        // Schema version 1 : same access paths as the bans
+        public final static String[] addIndexes = {
+                "ALTER TABLE `" + table + "` ADD INDEX `mute.uuid_state_server` (UUID, mute_state, mute_server);",
+                "ALTER TABLE `" + table + "` ADD INDEX `mute.ip_state_server` (mute_ip, mute_state, mute_server);",
+                "ALTER TABLE `" + table + "` ADD INDEX `mute.state_end` (mute_state, mute_end);",
+                "ALTER TABLE `" + table + "` ADD INDEX `mute.staff_index` (mute_staff);",
+                "ALTER TABLE `" + table + "` ADD INDEX `mute.unmutestaff_index` (mute_unmutestaff);"};
+
+        // History : the inactive mutes older than the archive age are moved there
+        public final static String historyTable = table + "_history";
+        private final static String columns = "mute_id, UUID, mute_ip, mute_staff, mute_reason, mute_server, mute_begin, "
+                + "mute_end, mute_state, mute_unmutedate, mute_unmutestaff, mute_unmutereason, mute_updated";
+        public final static String createHistoryTable = "CREATE TABLE IF NOT EXISTS `" + historyTable + "` LIKE `" + table + "`;";
+        // Parameters : cutoff date (x3), batch size
+        private final static String[] identity = {"UUID", "mute_ip", "mute_staff", "mute_server", "mute_begin"};
+        public final static String getArchivableMutes = archivable(table, "mute_id", "mute_state = 0 AND mute_begin < ? "
+                + "AND (mute_end IS NULL OR mute_end < ?) AND (mute_unmutedate IS NULL OR mute_unmutedate < ?)", "<=>", identity);
+        public final static String archiveMutes = "INSERT IGNORE INTO `" + historyTable + "` (" + columns + ") SELECT "
+                + columns + " FROM `" + table + "` WHERE mute_id IN ({ids});";
+        public final static String deleteMutes = "DELETE FROM `" + table + "` WHERE mute_id IN ({ids});";
+        public static final String getMuteWithHistory = withHistory("SELECT " + columns,
+                table, "UUID = ?", "mute_state DESC, mute_end DESC");
+        public static final String getMuteIPWithHistory = withHistory("SELECT " + columns,
+                table, "mute_ip = ? AND UUID IS NULL", "mute_state DESC, mute_end DESC");
+        public static final String getManagedMuteWithHistory = withHistory("SELECT " + columns,
+                table, "(mute_staff = ? OR mute_unmutestaff = ?)", "mute_state DESC, mute_end DESC");
+
+        // Lookup pages, including the history
+        public static final String pageKeys = "mute_begin, mute_id";
+        public static final String getMutePage = page("SELECT " + columns, table, "UUID = ?", pageKeys, true);
+        public static final String getMuteIPPage = page("SELECT " + columns, table, "mute_ip = ? AND UUID IS NULL", pageKeys, true);
+        public static final String getManagedMutePage = page("SELECT " + columns, table,
+                "mute_staff = ? OR mute_unmutestaff = ?", pageKeys, true);
+        public static final String countMutes = count(table, "UUID = ?", true);
+        public static final String countMutesIP = count(table, "mute_ip = ? AND UUID IS NULL", true);
+        public static final String countManagedMutes = count(table, "(mute_staff = ? OR mute_unmutestaff = ?)", true);
+        public static final String getChangedMutes = "SELECT mute_id, UUID, mute_ip, mute_server, mute_reason, mute_staff, mute_begin, mute_end, mute_state, mute_updated FROM `"
+                + table + "` WHERE mute_updated > ?;";
 
         public static class SQLite {
             public final static String[] createTable = {
@@ -215,7 +582,7 @@ public class SQLQueries {
                             + "`mute_end` timestamp NULL," + "`mute_state` bool NOT NULL default 1,"
 
                             + "`mute_unmutedate` timestamp NULL," + "`mute_unmutestaff` varchar(30) NULL,"
-                            + "`mute_unmutereason` varchar(100) NULL" + ");",
+                            + "`mute_unmutereason` varchar(100) NULL," + "`mute_updated` INTEGER NULL" + ");",
                     "CREATE INDEX IF NOT EXISTS `mute.uuid_index` ON " + table + " (`UUID`);",
                     "CREATE INDEX IF NOT EXISTS `mute.ip_index` ON " + table + " (`mute_ip`);"};
 
@@ -250,8 +617,68 @@ public class SQLQueries {
             public static final String getMuteMessage = "SELECT mute_reason, mute_staff, strftime('%s',mute_begin), mute_end FROM `"
                     + table + "` WHERE (UUID = ? OR mute_ip = ?) AND mute_state = 1 AND mute_server = ?;";
 
-            public static final String updateExpiredMute = "UPDATE `" + table + "` SET mute_state = 0 "
-                    + "WHERE mute_state = 1 AND mute_end != 0 AND (mute_end / 1000) < CAST(strftime('%s', 'now') as integer);";
+            public static final String getActiveMutes = "SELECT mute_id, UUID, mute_ip, mute_server, mute_reason, mute_staff, strftime('%s',mute_begin), mute_end FROM `"
+                    + table + "` WHERE (UUID = ? OR mute_ip = ?) AND mute_state = 1;";
+            public static final String getActiveMutesOf = "SELECT mute_id, UUID, mute_ip, mute_server, mute_reason, mute_staff, strftime('%s',mute_begin), mute_end FROM `"
+                    + table + "` WHERE (UUID IN ({uuids}) OR mute_ip IN ({ips})) AND mute_state = 1;";
+
+            // SQLite doesn't support ON UPDATE, so mute_updated (in millis) is maintained by triggers
+            public static final String addUpdatedColumn = "ALTER TABLE `" + table + "` ADD COLUMN `mute_updated` INTEGER NULL;";
+            public final static String[] changeTracking = {
+                    "CREATE INDEX IF NOT EXISTS `mute.updated_index` ON " + table + " (`mute_updated`);",
+                    "CREATE TRIGGER IF NOT EXISTS `mute.updated_insert` AFTER INSERT ON `" + table + "` BEGIN "
+                            + "UPDATE `" + table + "` SET mute_updated = " + NOW_MILLIS + " WHERE mute_id = NEW.mute_id; END;",
+                    "CREATE TRIGGER IF NOT EXISTS `mute.updated_update` AFTER UPDATE OF mute_state, mute_server, mute_reason, mute_end ON `" + table + "` BEGIN "
+                            + "UPDATE `" + table + "` SET mute_updated = " + NOW_MILLIS + " WHERE mute_id = NEW.mute_id; END;"};
+            public static final String getChangedMutes = "SELECT mute_id, UUID, mute_ip, mute_server, mute_reason, mute_staff, strftime('%s',mute_begin), mute_end, mute_state, mute_updated FROM `"
+                    + table + "` WHERE mute_updated > ?;";
+
+            public static final String journalMute = "INSERT INTO `" + table
+                    + "`(UUID, mute_ip, mute_staff, mute_server, mute_begin, mute_end, mute_reason) "
+                    + "SELECT * FROM (SELECT ? AS UUID, ? AS mute_ip, ? AS mute_staff, ? AS mute_server, "
+                    + "datetime(? / 1000, 'unixepoch') AS mute_begin, ? AS mute_end, ? AS mute_reason) AS j "
+                    + "WHERE NOT EXISTS (SELECT 1 FROM `" + table + "` m WHERE (m.UUID = j.UUID OR m.mute_ip = j.mute_ip) "
+                    + "AND m.mute_staff = j.mute_staff AND m.mute_server = j.mute_server AND m.mute_begin = j.mute_begin);";
+
+            public final static String[] addIndexes = {
+                    "CREATE INDEX IF NOT EXISTS `mute.active_uuid` ON " + table + " (`UUID`, `mute_server`) WHERE mute_state = 1;",
+                    "CREATE INDEX IF NOT EXISTS `mute.active_ip` ON " + table + " (`mute_ip`, `mute_server`) WHERE mute_state = 1;",
+                    "CREATE INDEX IF NOT EXISTS `mute.active_end` ON " + table + " (`mute_end`) WHERE mute_state = 1;",
+                    "CREATE INDEX IF NOT EXISTS `mute.staff_index` ON " + table + " (`mute_staff`);",
+                    "CREATE INDEX IF NOT EXISTS `mute.unmutestaff_index` ON " + table + " (`mute_unmutestaff`);"};
+
+            public final static String[] createHistoryTable = {
+                    "CREATE TABLE IF NOT EXISTS `" + historyTable + "` (" + "`mute_id` INTEGER PRIMARY KEY,"
+                            + "`UUID` varchar(100) NULL," + "`mute_ip` varchar(50) NULL,"
+
+                            + "`mute_staff` varchar(30) NOT NULL," + "`mute_reason` varchar(100) NULL,"
+                            + "`mute_server` varchar(30) NOT NULL,"
+                            + "`mute_begin` timestamp NOT NULL," + "`mute_end` timestamp NULL,"
+                            + "`mute_state` bool NOT NULL default 0,"
+
+                            + "`mute_unmutedate` timestamp NULL," + "`mute_unmutestaff` varchar(30) NULL,"
+                            + "`mute_unmutereason` varchar(100) NULL," + "`mute_updated` INTEGER NULL" + ");",
+                    "CREATE INDEX IF NOT EXISTS `mute_history.uuid_index` ON " + historyTable + " (`UUID`);",
+                    "CREATE INDEX IF NOT EXISTS `mute_history.ip_index` ON " + historyTable + " (`mute_ip`);",
+                    "CREATE INDEX IF NOT EXISTS `mute_history.staff_index` ON " + historyTable + " (`mute_staff`);",
+                    "CREATE INDEX IF NOT EXISTS `mute_history.unmutestaff_index` ON " + historyTable + " (`mute_unmutestaff`);"};
+            public final static String getArchivableMutes = archivable(table, "mute_id", "mute_state = 0 "
+                    + "AND mute_begin < datetime(? / 1000, 'unixepoch') AND (mute_end IS NULL OR mute_end < ?) "
+                    + "AND (mute_unmutedate IS NULL OR mute_unmutedate < datetime(? / 1000, 'unixepoch'))", "IS", identity);
+            public final static String archiveMutes = "INSERT OR IGNORE INTO `" + historyTable + "` (" + columns + ") SELECT "
+                    + columns + " FROM `" + table + "` WHERE mute_id IN ({ids});";
+            private final static String selectWithDates = "SELECT " + columns + ", "
+                    + "strftime('%s',mute_begin), strftime('%s',mute_end), strftime('%s',mute_unmutedate)";
+            public static final String getMuteWithHistory = withHistory(selectWithDates,
+                    table, "UUID = ?", "mute_state DESC, mute_end DESC");
+            public static final String getMuteIPWithHistory = withHistory(selectWithDates,
+                    table, "mute_ip = ? AND UUID IS NULL", "mute_state DESC, mute_end DESC");
+            public static final String getManagedMuteWithHistory = withHistory(selectWithDates,
+                    table, "(mute_staff = ? OR mute_unmutestaff = ?)", "mute_state DESC, mute_end DESC");
+            public static final String getMutePage = page(selectWithDates, table, "UUID = ?", pageKeys, true);
+            public static final String getMuteIPPage = page(selectWithDates, table, "mute_ip = ? AND UUID IS NULL", pageKeys, true);
+            public static final String getManagedMutePage = page(selectWithDates, table,
+                    "mute_staff = ? OR mute_unmutestaff = ?", pageKeys, true);
         }
     }
 
@@ -286,6 +713,19 @@ public class SQLQueries {
         public static final String simpleTriggerCheck = "SELECT COUNT(*) FROM `" + table + "` WHERE entity = ?;";
         public static final String patternTriggerCheck = "SELECT COUNT(*) FROM `" + table + "` WHERE entity = ? && note LIKE ?;";
 
+        // Lookup pages
+        public static final String pageKeys = "date, id";
+        public static final String getEntriesPage = page("SELECT id, note, type, staff, date, entity", table,
+                "entity = ?", pageKeys, false);
+        public static final String getManagedEntriesPage = page("SELECT id, note, type, staff, date, entity", table,
+                "staff = ?", pageKeys, false);
+        public static final String countEntries = count(table, "entity = ?", false);
+        public static final String countManagedEntries = count(table, "staff = ?", false);
+
+        // Schema version 1 : getManagedEntries filters on the staff and sorts by date
+        public static final String[] addIndexes = {
+                "ALTER TABLE `" + table + "` ADD INDEX `comments.staff_index` (staff, date);"};
+
         public static class SQLite {
             public static final String[] createTable = {
                     "CREATE TABLE IF NOT EXISTS `" + table + "` ("
@@ -302,6 +742,12 @@ public class SQLQueries {
                     + "WHERE entity = ? ORDER BY date DESC;";
             public static final String getManagedEntries = "SELECT id, note, type, strftime('%s',date), entity FROM `" + table + "` "
                     + "WHERE staff = ? ORDER BY date DESC;";
+            public static final String getEntriesPage = page("SELECT id, note, type, staff, date, entity, strftime('%s',date)",
+                    table, "entity = ?", pageKeys, false);
+            public static final String getManagedEntriesPage = page("SELECT id, note, type, staff, date, entity, strftime('%s',date)",
+                    table, "staff = ?", pageKeys, false);
+            public static final String[] addIndexes = {
+                    "CREATE INDEX IF NOT EXISTS `comments.staff_index` ON " + table + " (`staff`, `date`);"};
         }
     }
 
@@ -317,6 +763,8 @@ public class SQLQueries {
                 + " VALUES (?, ?, NOW(), ?) ON DUPLICATE KEY UPDATE lastip = ?, lastlogin = NOW(), BAT_player = ?;";
 
         public static final String getPlayerName = "SELECT BAT_player FROM `" + table + "` WHERE UUID = ?;";
+        // Use to resolve the names of several players at once, {uuids} is replaced by placeholders
+        public static final String getPlayerNames = "SELECT UUID, BAT_player FROM `" + table + "` WHERE UUID IN ({uuids});";
 
         public static final String getIP = "SELECT lastip FROM `" + table + "` WHERE UUID = ?;";
 
@@ -327,6 +775,10 @@ public class SQLQueries {
 
         public static final String getIpUsers = "SELECT BAT_player FROM `" + table + "` WHERE lastip = ?";
 
+        // Schema version 1 : getIpUsers filters on the last ip
+        public static final String[] addIndexes = {
+                "ALTER TABLE `" + table + "` ADD INDEX `core.lastip_index` (lastip);"};
+
         public static class SQLite {
             public static final String[] createTable = {
                     "CREATE TABLE IF NOT EXISTS `" + table + "` (" + "`BAT_player` varchar(30) NOT NULL,"
@@ -339,6 +791,8 @@ public class SQLQueries {
                     + " VALUES (?, ?, (SELECT firstlogin FROM `" + table + "` WHERE UUID = ?), DATETIME(), ?);";
             public static final String getPlayerData = "SELECT strftime('%s',firstlogin), strftime('%s',lastlogin), lastip FROM `"
                     + table + "` WHERE UUID = ?;";
+            public static final String[] addIndexes = {
+                    "CREATE INDEX IF NOT EXISTS `core.lastip_index` ON " + table + " (`lastip`);"};
         }
     }
 }
\ No newline at end of file
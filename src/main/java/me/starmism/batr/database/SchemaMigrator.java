@@ -0,0 +1,141 @@
+package me.starmism.batr.database;
+
+import me.starmism.batr.BATR;
+import me.starmism.batr.utils.IPCodec;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Apply the versioned migrations of the tables, after they have been created by their module. <br>
+ * The version reached by each table is stored in BAT_schema_version, so a migration is only executed once even if the
+ * module is disabled and enabled again later. A migration is made of steps for both dialects; the steps have to be safe
+ * to execute again, because MySQL can't roll back a schema change and a migration interrupted halfway is retried. <br>
+ * If a step fails, the table stays at its previous version and the migration is retried at the next start.
+ */
+public class SchemaMigrator {
+    // MySQL error code of "Duplicate key name", raised when an index added by a previous attempt already exists
+    private static final int MYSQL_DUPLICATE_KEY_NAME = 1061;
+
+    /**
+     * Migrate a table to its last version
+     *
+     * @param conn       | a connection which will be used for all the migrations
+     * @param table      | the table migrated, used as the key of its version
+     * @param migrations | the migrations of the table, by ascending version
+     */
+    public static void migrate(final Connection conn, final String table, final Migration... migrations) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.executeUpdate(DataSourceHandler.isSQLite()
+                    ? SQLQueries.SchemaVersion.SQLite.createTable
+                    : SQLQueries.SchemaVersion.createTable);
+        }
+
+        int version = getVersion(conn, table);
+        for (final Migration migration : migrations) {
+            if (migration.version() <= version) {
+                continue;
+            }
+            try (Statement statement = conn.createStatement()) {
+                for (final String step : DataSourceHandler.isSQLite() ? migration.sqlite() : migration.mysql()) {
+                    try {
+                        statement.executeUpdate(step);
+                    } catch (final SQLException e) {
+                        if (DataSourceHandler.isSQLite() || e.getErrorCode() != MYSQL_DUPLICATE_KEY_NAME) {
+                            throw e;
+                        }
+                    }
+                }
+                if (migration.rewrite() != null) {
+                    migration.rewrite().apply(conn);
+                }
+            } catch (final SQLException e) {
+                BATR.getInstance().getLogger().severe("The migration of " + table + " to version " + migration.version()
+                        + " (" + migration.description() + ") failed, it will be retried at the next start:");
+                DataSourceHandler.handleException(e);
+                return;
+            }
+            setVersion(conn, table, migration.version());
+            version = migration.version();
+            BATR.getInstance().getLogger().info(table + " migrated to version " + version + ": " + migration.description());
+        }
+    }
+
+    private static int getVersion(final Connection conn, final String table) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(SQLQueries.SchemaVersion.getVersion)) {
+            statement.setString(1, table);
+            final ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getInt("version") : 0;
+        }
+    }
+
+    private static void setVersion(final Connection conn, final String table, final int version) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(DataSourceHandler.isSQLite()
+                ? SQLQueries.SchemaVersion.SQLite.setVersion
+                : SQLQueries.SchemaVersion.setVersion)) {
+            statement.setString(1, table);
+            statement.setInt(2, version);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Rewrite the ip columns holding IPv6 addresses in their canonical form (cf {@link IPCodec#canonicalize}), which
+     * can't be computed in SQL. The rows written before are in the uncompressed form of InetAddress.getHostAddress and
+     * wouldn't match the lookups anymore. Missing tables are skipped, i.e a history table not created yet.
+     *
+     * @param key     | a column identifying a row
+     * @param columns | pairs of a table and its ip column
+     */
+    public static Rewrite canonicalizeIPs(final String key, final String... columns) {
+        return conn -> {
+            for (int i = 0; i < columns.length; i += 2) {
+                final String table = columns[i];
+                final String column = columns[i + 1];
+                if (!DataSourceHandler.tableExists(conn, table)) {
+                    continue;
+                }
+                try (Statement select = conn.createStatement();
+                     PreparedStatement update = conn.prepareStatement(SQLQueries.SchemaVersion.setIP(table, key, column))) {
+                    final ResultSet resultSet = select.executeQuery(SQLQueries.SchemaVersion.getIPv6Rows(table, key, column));
+                    while (resultSet.next()) {
+                        final String ip = resultSet.getString(column);
+                        final String canonical = IPCodec.canonicalize(ip);
+                        if (canonical != null && !canonical.equals(ip)) {
+                            update.setString(1, canonical);
+                            update.setObject(2, resultSet.getObject(key));
+                            update.setString(3, ip);
+                            update.addBatch();
+                        }
+                    }
+                    update.executeBatch();
+                }
+            }
+        };
+    }
+
+    /**
+     * A schema change of a table
+     *
+     * @param version     | the version reached once applied, starting at 1
+     * @param description | shown in the logs
+     * @param mysql       | the steps executed on MySQL
+     * @param sqlite      | the steps executed on SQLite
+     * @param rewrite     | a rewrite of the rows executed after the steps, null if there is none
+     */
+    public record Migration(int version, String description, String[] mysql, String[] sqlite, Rewrite rewrite) {
+        public Migration(final int version, final String description, final String[] mysql, final String[] sqlite) {
+            this(version, description, mysql, sqlite, null);
+        }
+    }
+
+    /**
+     * A rewrite of the rows which can't be expressed in SQL, it has to be safe to execute again as the steps
+     */
+    public interface Rewrite {
+        void apply(Connection conn) throws SQLException;
+    }
+}
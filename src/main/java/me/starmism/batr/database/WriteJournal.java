@@ -0,0 +1,261 @@
+package me.starmism.batr.database;
+
+import me.starmism.batr.BATR;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local append-only journal of the sanctions written while the database is unreachable. <br>
+ * The journal is a memory-mapped file, so an appended write survives a crash of the proxy as soon as it's acknowledged.
+ * A write is journaled with an idempotent version of its query (an insert which does nothing if the row already exists),
+ * so that it can be replayed again if the proxy stops between its execution and the journal update. <br>
+ * This task replays the journaled writes in order once the database is reachable again. As long as some writes are pending,
+ * the new ones are journaled too, both to keep their order and to avoid waiting for the connection timeout each time. <br>
+ * The file starts with a header holding the offset of the next write to replay and the end of the journal. It's
+ * compacted once everything has been replayed.
+ */
+public class WriteJournal implements Runnable {
+    public static final long REPLAY_INTERVAL = 1000;
+    private static final int MAGIC = 0x4241544A; // "BATJ"
+    private static final int HEADER_SIZE = 12;
+    private static final int REPLAYED_OFFSET = 4;
+    private static final int END_OFFSET = 8;
+    private static final int INITIAL_CAPACITY = 1 << 20;
+    // SQLite result code of "database is locked"
+    private static final int SQLITE_BUSY = 5;
+    // Time in ms a direct write waits for a connection before being journaled
+    private static final long CONNECTION_TIMEOUT = 1000;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    // Ids given to the journaled rows until they are written in the database, negative so that they can't collide with real ids
+    private final AtomicInteger pendingIds = new AtomicInteger();
+    private boolean outage = false;
+
+    public WriteJournal(final File file) throws IOException {
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_CAPACITY, channel.size()));
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(REPLAYED_OFFSET, HEADER_SIZE);
+            buffer.putInt(END_OFFSET, HEADER_SIZE);
+        } else if (isBacklogged()) {
+            BATR.getInstance().getLogger().warning("Some sanctions couldn't be written in the database before the last shutdown,"
+                    + " they will be written as soon as the database is reachable.");
+        }
+    }
+
+    /**
+     * Check if some journaled writes haven't been replayed yet
+     */
+    public synchronized boolean isBacklogged() {
+        return buffer.getInt(REPLAYED_OFFSET) != buffer.getInt(END_OFFSET);
+    }
+
+    /**
+     * Get a new id for a journaled row, used in memory until the row is written in the database
+     *
+     * @return a negative id
+     */
+    public int nextPendingId() {
+        return -pendingIds.incrementAndGet();
+    }
+
+    /**
+     * Append a write to the journal
+     *
+     * @param query  | an idempotent query
+     * @param params | parameters of the query
+     */
+    public synchronized void append(final String query, final Object... params) throws IOException {
+        final ByteArrayOutputStream entryBuffer = new ByteArrayOutputStream(256);
+        final DataOutputStream entry = new DataOutputStream(entryBuffer);
+        entry.writeUTF(query);
+        entry.writeInt(params.length);
+        for (final Object param : params) {
+            DatabaseBackup.writeValue(entry, param);
+        }
+
+        final int end = buffer.getInt(END_OFFSET);
+        final int required = end + 4 + entryBuffer.size();
+        if (required > buffer.capacity()) {
+            int capacity = buffer.capacity();
+            while (capacity < required) {
+                capacity *= 2;
+            }
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        buffer.putInt(end, entryBuffer.size());
+        buffer.put(end + 4, entryBuffer.toByteArray());
+        // The end is moved last, so that a partially written entry is ignored
+        buffer.putInt(END_OFFSET, required);
+    }
+
+    /**
+     * Execute a write directly, or journal it if the database is unreachable or if previous writes are still pending
+     *
+     * @param query        | the query executed directly
+     * @param params       | parameters of the direct query
+     * @param journalQuery | the idempotent version of the query, executed from the journal
+     * @param journalParams | parameters of the journal query
+     * @return the id generated by the direct query, or a negative pending id if the write was journaled
+     * @throws SQLException if the direct query failed for another reason than an outage, or if the journal can't be written
+     */
+    public int insert(final String query, final Object[] params, final String journalQuery, final Object[] journalParams)
+            throws SQLException {
+        if (!isBacklogged()) {
+            try {
+                return executeDirect(query, params);
+            } catch (final SQLException e) {
+                if (!isOutage(e)) {
+                    throw e;
+                }
+            }
+        }
+
+        journal(journalQuery, journalParams);
+        return nextPendingId();
+    }
+
+    /**
+     * Execute an update of the sanctions directly, or journal it like {@link #insert} does. <br>
+     * While some inserts are pending, an update such as an unban wouldn't find their rows yet, so it's journaled behind
+     * them to be replayed in the same order.
+     *
+     * @param query  | an update which can be executed several times with the same result
+     * @param params | parameters of the query
+     * @throws SQLException if the query failed for another reason than an outage, or if the journal can't be written
+     */
+    public void update(final String query, final Object[] params) throws SQLException {
+        if (!isBacklogged()) {
+            try {
+                executeDirect(query, params);
+                return;
+            } catch (final SQLException e) {
+                if (!isOutage(e)) {
+                    throw e;
+                }
+            }
+        }
+        journal(query, params);
+    }
+
+    /**
+     * Execute a write directly, failing fast if no connection can be obtained rather than after the connection timeout
+     * of the pool, as the write can be journaled instead
+     */
+    private static int executeDirect(final String query, final Object[] params) throws SQLException {
+        try (Connection conn = BATR.getInstance().getDsHandler().getConnection(CONNECTION_TIMEOUT)) {
+            return DataSourceHandler.executeInsert(conn, query, params);
+        }
+    }
+
+    private void journal(final String query, final Object[] params) throws SQLException {
+        try {
+            append(query, params);
+        } catch (final IOException e) {
+            throw new SQLException("The database is unreachable and the write can't be journaled.", e);
+        }
+        synchronized (this) {
+            if (!outage) {
+                outage = true;
+                BATR.getInstance().getLogger().warning("The database is unreachable, the sanctions are journaled and will be"
+                        + " written as soon as it's reachable again.");
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (isBacklogged()) {
+                // The OS writes the mapped pages to the disk by itself, this only bounds what a power loss could lose
+                buffer.force();
+            }
+        }
+        while (true) {
+            final int offset;
+            final byte[] entry;
+            synchronized (this) {
+                offset = buffer.getInt(REPLAYED_OFFSET);
+                final int end = buffer.getInt(END_OFFSET);
+                if (offset == end) {
+                    if (end != HEADER_SIZE) {
+                        // Everything has been replayed, the journal can be reused from its beginning
+                        buffer.putInt(REPLAYED_OFFSET, HEADER_SIZE);
+                        buffer.putInt(END_OFFSET, HEADER_SIZE);
+                    }
+                    if (outage) {
+                        outage = false;
+                        BATR.getInstance().getLogger().info("All the journaled sanctions have been written in the database.");
+                    }
+                    return;
+                }
+                entry = new byte[buffer.getInt(offset)];
+                buffer.get(offset + 4, entry);
+            }
+
+            try {
+                replay(entry);
+            } catch (final SQLException e) {
+                if (isOutage(e)) {
+                    // Try again during the next run
+                    return;
+                }
+                BATR.getInstance().getLogger().severe("A journaled sanction can't be written in the database and is skipped:");
+                DataSourceHandler.handleException(e);
+            } catch (final IOException e) {
+                BATR.getInstance().getLogger().severe("The journal is corrupted, the remaining journaled sanctions are skipped.");
+                e.printStackTrace();
+                synchronized (this) {
+                    buffer.putInt(REPLAYED_OFFSET, buffer.getInt(END_OFFSET));
+                }
+                return;
+            }
+            synchronized (this) {
+                buffer.putInt(REPLAYED_OFFSET, offset + 4 + entry.length);
+            }
+        }
+    }
+
+    private void replay(final byte[] entry) throws SQLException, IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+        final String query = in.readUTF();
+        final Object[] params = new Object[in.readInt()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = DatabaseBackup.readValue(in);
+        }
+        DataSourceHandler.executeInsert(query, params);
+    }
+
+    /**
+     * Check if an exception is caused by the database being unreachable or overloaded, rather than by the query itself
+     */
+    private static boolean isOutage(final SQLException e) {
+        return e instanceof SQLTransientException || e instanceof SQLRecoverableException
+                || e.getCause() instanceof SQLRecoverableException
+                || (DataSourceHandler.isSQLite() && e.getErrorCode() == SQLITE_BUSY);
+    }
+
+    /**
+     * Flush the journal to the disk and close it, called when the plugin is disabled
+     */
+    public synchronized void close() {
+        buffer.force();
+        DataSourceHandler.close(channel);
+    }
+}
@@ -0,0 +1,395 @@
+package me.starmism.batr.modules.ban;
+
+import me.starmism.batr.BATR;
+import me.starmism.batr.database.ChangeWatermark;
+import me.starmism.batr.database.DataSourceHandler;
+import me.starmism.batr.database.SQLQueries;
+import me.starmism.batr.modules.IModule;
+import me.starmism.batr.utils.ExpirationQueue;
+import me.starmism.batr.utils.IPCodec;
+import me.starmism.batr.utils.IPRadixTrie;
+import me.starmism.batr.utils.IPRange;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory copy of every active ban (ban_state = 1) of the ban table.<br>
+ * Player bans are indexed by UUID and ip bans by ip, each key holding the bans of the servers it is banned from.
+ * This way the login and server connection checks don't need any database query.<br>
+ * The CIDR range bans are indexed by their range (i.e 192.168.0.0/24) and are also stored in a {@link IPRadixTrie},
+ * so finding the ranges containing an ip takes at most 128 steps whatever the number of range bans.<br>
+ * The temporary bans are also scheduled in an {@link ExpirationQueue} so the expiration task only handles the
+ * bans which are actually due.
+ */
+public class ActiveBanIndex {
+    private volatile Map<Integer, ActiveBan> bansById = new ConcurrentHashMap<>();
+    private volatile Map<String, Map<Integer, ActiveBan>> uuidBans = new ConcurrentHashMap<>();
+    private volatile Map<String, Map<Integer, ActiveBan>> ipBans = new ConcurrentHashMap<>();
+    private volatile IPRadixTrie<Map<Integer, ActiveBan>> rangeBans = new IPRadixTrie<>();
+    private final ExpirationQueue expirationQueue = new ExpirationQueue();
+    private final ChangeWatermark watermark = new ChangeWatermark("ban_updated");
+    // Bans journaled during a database outage, indexed under a negative id until their row is replayed and polled
+    private final Map<Integer, ActiveBan> pendingBans = new ConcurrentHashMap<>();
+    // Expired bans whose row couldn't be disabled, polled again once their retry date is passed
+    private final Map<Integer, ActiveBan> failedExpirations = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    /**
+     * (Re)load the whole index from the database
+     *
+     * @return true if the index was successfully loaded
+     */
+    public synchronized boolean load() {
+        final Map<Integer, ActiveBan> newBansById = new ConcurrentHashMap<>();
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try (Connection conn = BATR.getConnection()) {
+            // Read the watermark first, so that a ban modified during the load will be fetched again by the next poll
+            watermark.init(conn, SQLQueries.Ban.getLastUpdate);
+            statement = conn.createStatement();
+            resultSet = statement.executeQuery(DataSourceHandler.isSQLite()
+                    ? SQLQueries.Ban.SQLite.getActiveBans
+                    : SQLQueries.Ban.getActiveBans);
+            while (resultSet.next()) {
+                final ActiveBan ban = readActiveBan(resultSet);
+                if (ban.uuid() != null || ban.ip() != null) {
+                    newBansById.put(ban.id(), ban);
+                }
+            }
+            // The journaled bans aren't in the table yet
+            for (final ActiveBan ban : pendingBans.values()) {
+                newBansById.put(ban.id(), ban);
+            }
+        } catch (final SQLException e) {
+            DataSourceHandler.handleException(e);
+            return false;
+        } finally {
+            DataSourceHandler.close(statement, resultSet);
+        }
+
+        final Map<String, Map<Integer, ActiveBan>> newUUIDBans = new ConcurrentHashMap<>();
+        final Map<String, Map<Integer, ActiveBan>> newIPBans = new ConcurrentHashMap<>();
+        final IPRadixTrie<Map<Integer, ActiveBan>> newRangeBans = new IPRadixTrie<>();
+        // The bans whose expiration failed are still active in the table, so they're scheduled again by the load
+        expirationQueue.clear();
+        failedExpirations.clear();
+        for (final ActiveBan ban : newBansById.values()) {
+            put(newUUIDBans, newIPBans, newRangeBans, ban);
+        }
+        bansById = newBansById;
+        uuidBans = newUUIDBans;
+        ipBans = newIPBans;
+        rangeBans = newRangeBans;
+        loaded = true;
+        return true;
+    }
+
+    /**
+     * Apply the modifications of the ban table made since the last poll, that is to say the bans added or lifted
+     * from the WebInterface or from another proxy. Only the rows whose ban_updated is after the watermark are queried.
+     *
+     * @return the bans which weren't known before and must be applied to the online players,
+     * or null if the changes couldn't be fetched
+     */
+    public synchronized List<ActiveBan> applyChanges() {
+        if (!loaded) {
+            return null;
+        }
+        final List<ActiveBan> newBans = new ArrayList<>();
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try (Connection conn = BATR.getConnection()) {
+            statement = conn.prepareStatement(DataSourceHandler.isSQLite()
+                    ? SQLQueries.Ban.SQLite.getChangedBans
+                    : SQLQueries.Ban.getChangedBans);
+            watermark.setParameter(statement, 1);
+            resultSet = statement.executeQuery();
+            final long now = System.currentTimeMillis();
+            while (resultSet.next()) {
+                watermark.update(resultSet);
+                final ActiveBan ban = readActiveBan(resultSet);
+                dropPending(ban);
+                if (!resultSet.getBoolean("ban_state")) {
+                    removeById(ban.id());
+                } else if (ban.uuid() != null || ban.ip() != null) {
+                    final ActiveBan previous = bansById.get(ban.id());
+                    // Already applied during a previous poll
+                    if (ban.equals(previous)) {
+                        continue;
+                    }
+                    if (previous != null) {
+                        removeById(ban.id());
+                    }
+                    bansById.put(ban.id(), ban);
+                    put(uuidBans, ipBans, rangeBans, ban);
+                    if (previous == null && !ban.isExpired(now)) {
+                        newBans.add(ban);
+                    }
+                }
+            }
+        } catch (final SQLException e) {
+            DataSourceHandler.handleException(e);
+            return null;
+        } finally {
+            DataSourceHandler.close(statement, resultSet);
+        }
+        return newBans;
+    }
+
+    /**
+     * Check if the index has been loaded and can therefore be trusted
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public synchronized void clear() {
+        loaded = false;
+        bansById = new ConcurrentHashMap<>();
+        uuidBans = new ConcurrentHashMap<>();
+        ipBans = new ConcurrentHashMap<>();
+        rangeBans = new IPRadixTrie<>();
+        expirationQueue.clear();
+        failedExpirations.clear();
+    }
+
+    public synchronized void add(final ActiveBan ban) {
+        if (ban.uuid() == null && ban.ip() == null) {
+            return;
+        }
+        if (ban.id() < 0) {
+            pendingBans.put(ban.id(), ban);
+        }
+        bansById.put(ban.id(), ban);
+        put(uuidBans, ipBans, rangeBans, ban);
+    }
+
+    /**
+     * Remove the bans of a player
+     *
+     * @param uuid   | UUID of the player without dashes
+     * @param server | if equals to (any), remove the bans of all servers
+     */
+    public synchronized void removeUUID(final String uuid, final String server) {
+        remove(uuidBans, uuid, server);
+    }
+
+    /**
+     * Remove the bans of an ip or of a CIDR range
+     *
+     * @param ip     | an ip or a normalized CIDR range (i.e 192.168.0.0/24)
+     * @param server | if equals to (any), remove the bans of all servers
+     */
+    public synchronized void removeIP(final String ip, final String server) {
+        remove(ipBans, ip, server);
+        removeFromTrie(ip);
+    }
+
+    /**
+     * Remove from the index the temporary bans whose expiration date is passed
+     *
+     * @param now | current timestamp in millis
+     * @return the expired bans, which still have to be disabled in the database
+     */
+    public synchronized List<ActiveBan> pollExpired(final long now) {
+        final List<ActiveBan> expiredBans = new ArrayList<>();
+        for (final int id : expirationQueue.pollExpired(now)) {
+            final ActiveBan failedBan = failedExpirations.remove(id);
+            if (failedBan != null) {
+                expiredBans.add(failedBan);
+                continue;
+            }
+            // The ban may have been lifted or prolonged since it was scheduled
+            final ActiveBan ban = bansById.get(id);
+            if (ban != null && ban.isExpired(now)) {
+                removeById(id);
+                // A journaled ban can't be disabled by its id, its row is expired once it has been replayed and polled
+                if (id > 0) {
+                    expiredBans.add(ban);
+                }
+            }
+        }
+        return expiredBans;
+    }
+
+    /**
+     * Poll again expired bans whose row couldn't be disabled in the database. They stay out of the index meanwhile.
+     *
+     * @param retryDate | timestamp in millis of the next attempt
+     */
+    public synchronized void retryExpiration(final List<ActiveBan> bans, final long retryDate) {
+        for (final ActiveBan ban : bans) {
+            failedExpirations.put(ban.id(), ban);
+            expirationQueue.schedule(ban.id(), retryDate);
+        }
+    }
+
+    /**
+     * Get the active ban of a player on a server
+     *
+     * @param uuid   | UUID of the player without dashes
+     * @param server | if equals to (any), return the first active ban found
+     * @return the active ban or null if the player isn't banned from this server
+     */
+    public ActiveBan getUUIDBan(final String uuid, final String server) {
+        return get(uuidBans, uuid, server);
+    }
+
+    /**
+     * Get the active ban of an ip on a server, either a ban of this exact ip or of a range containing it
+     *
+     * @param ip     | an ip or a normalized CIDR range (i.e 192.168.0.0/24), in which case only the bans of this
+     *               exact range are returned
+     * @param server | if equals to (any), return the first active ban found
+     * @return the active ban or null if the ip isn't banned from this server
+     */
+    public ActiveBan getIPBan(final String ip, final String server) {
+        final ActiveBan ban = get(ipBans, ip, server);
+        final byte[] address = (ban == null) ? IPCodec.parse(ip) : null;
+        if (address == null) {
+            return ban;
+        }
+        final long now = System.currentTimeMillis();
+        return rangeBans.findFirst(address, bans -> find(bans, server, now));
+    }
+
+    public int size() {
+        return bansById.size();
+    }
+
+    static ActiveBan readActiveBan(final ResultSet resultSet) throws SQLException {
+        final Timestamp begin;
+        final Timestamp end;
+        if (DataSourceHandler.isSQLite()) {
+            begin = new Timestamp(resultSet.getLong("strftime('%s',ban_begin)") * 1000);
+            final String endStr = resultSet.getString("ban_end");
+            // A ban_end equals to 0 was used to mark permanent bans
+            end = (endStr == null || Long.parseLong(endStr) == 0) ? null : new Timestamp(Long.parseLong(endStr));
+        } else {
+            begin = resultSet.getTimestamp("ban_begin");
+            end = resultSet.getTimestamp("ban_end");
+        }
+        final String reason = resultSet.getString("ban_reason");
+        // A range ban is identified by its CIDR notation, i.e 192.168.0.0/24
+        final int prefix = resultSet.getInt("ban_ip_prefix");
+        final boolean noPrefix = resultSet.wasNull();
+        // The rows written before the canonical form was used may hold an uncompressed IPv6 address
+        final String address = (resultSet.getString("ban_ip") != null) ? IPCodec.normalize(resultSet.getString("ban_ip")) : null;
+        final String ip = (noPrefix || address == null) ? address : address + "/" + prefix;
+        return new ActiveBan(resultSet.getInt("ban_id"), resultSet.getString("UUID"), ip,
+                resultSet.getString("ban_server"), (reason != null) ? reason : IModule.NO_REASON,
+                resultSet.getString("ban_staff"), begin, end);
+    }
+
+    private void put(final Map<String, Map<Integer, ActiveBan>> uuidIndex,
+                     final Map<String, Map<Integer, ActiveBan>> ipIndex,
+                     final IPRadixTrie<Map<Integer, ActiveBan>> rangeIndex, final ActiveBan ban) {
+        if (ban.uuid() != null) {
+            uuidIndex.computeIfAbsent(ban.uuid(), k -> new ConcurrentHashMap<>()).put(ban.id(), ban);
+        } else {
+            final Map<Integer, ActiveBan> bans = ipIndex.computeIfAbsent(ban.ip(), k -> new ConcurrentHashMap<>());
+            bans.put(ban.id(), ban);
+            // The range bans share their map with the tree, so removing them from ipBans also removes them from the tree
+            final IPRange range = IPRange.parse(ban.ip());
+            if (range != null) {
+                rangeIndex.put(range.getNetwork(), range.getBits(), bans);
+            }
+        }
+        if (ban.end() != null) {
+            expirationQueue.schedule(ban.id(), ban.end().getTime());
+        }
+    }
+
+    private void remove(final Map<String, Map<Integer, ActiveBan>> index, final String key, final String server) {
+        index.computeIfPresent(key, (k, bans) -> {
+            bans.values().removeIf(ban -> {
+                if (IModule.ANY_SERVER.equals(server) || ban.server().equalsIgnoreCase(server)) {
+                    bansById.remove(ban.id());
+                    // A lifted journaled ban mustn't be indexed again by a reload before its row is replayed
+                    pendingBans.remove(ban.id());
+                    return true;
+                }
+                return false;
+            });
+            return bans.isEmpty() ? null : bans;
+        });
+    }
+
+    /**
+     * Remove the placeholder of a journaled ban once its row has been replayed. The real id of the row wasn't known
+     * when the ban was indexed, so the row is identified by its entity, its server and its begin date (cf Ban.ban).
+     *
+     * @param ban | a ban read from the table
+     */
+    private void dropPending(final ActiveBan ban) {
+        if (pendingBans.isEmpty()) {
+            return;
+        }
+        pendingBans.values().removeIf(pending -> {
+            if (Objects.equals(pending.uuid(), ban.uuid()) && Objects.equals(pending.ip(), ban.ip())
+                    && pending.server().equalsIgnoreCase(ban.server()) && pending.begin().getTime() == ban.begin().getTime()) {
+                removeById(pending.id());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private ActiveBan removeById(final int id) {
+        final ActiveBan ban = bansById.remove(id);
+        if (ban != null) {
+            (ban.uuid() != null ? uuidBans : ipBans).computeIfPresent(ban.uuid() != null ? ban.uuid() : ban.ip(), (k, bans) -> {
+                bans.remove(id);
+                return bans.isEmpty() ? null : bans;
+            });
+            if (ban.uuid() == null) {
+                removeFromTrie(ban.ip());
+            }
+        }
+        return ban;
+    }
+
+    /**
+     * Detach the map of a range from the tree once it doesn't hold any ban anymore
+     */
+    private void removeFromTrie(final String key) {
+        final IPRange range = IPRange.parse(key);
+        if (range != null && !ipBans.containsKey(key)) {
+            rangeBans.remove(range.getNetwork(), range.getBits());
+        }
+    }
+
+    private static ActiveBan get(final Map<String, Map<Integer, ActiveBan>> index, final String key,
+                                 final String server) {
+        final Map<Integer, ActiveBan> bans = index.get(key);
+        return (bans != null) ? find(bans, server, System.currentTimeMillis()) : null;
+    }
+
+    private static ActiveBan find(final Map<Integer, ActiveBan> bans, final String server, final long now) {
+        for (final ActiveBan ban : bans.values()) {
+            if (!ban.isExpired(now) && (IModule.ANY_SERVER.equals(server) || ban.server().equalsIgnoreCase(server))) {
+                return ban;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * An active ban as stored in the index
+     *
+     * @param uuid | null if it's an ip ban
+     * @param ip   | null if it's a player ban, in CIDR notation if it's a range ban
+     * @param end  | null if it's a permanent ban
+     */
+    public record ActiveBan(int id, String uuid, String ip, String server, String reason, String staff,
+                            Timestamp begin, Timestamp end) {
+        public boolean isExpired(final long now) {
+            return end != null && end.getTime() <= now;
+        }
+    }
+}
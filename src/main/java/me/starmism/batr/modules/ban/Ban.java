@@ -1,16 +1,27 @@
 package me.starmism.batr.modules.ban;
 
-import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.imaginarycode.minecraft.redisbungee.RedisBungee;
 import me.mattstudios.config.SettingsManager;
 import me.starmism.batr.BATR;
+import me.starmism.batr.database.ArchiveTask;
 import me.starmism.batr.database.DataSourceHandler;
+import me.starmism.batr.database.Page;
 import me.starmism.batr.database.SQLQueries;
+import me.starmism.batr.database.SchemaMigrator;
+import me.starmism.batr.database.SchemaMigrator.Migration;
 import me.starmism.batr.i18n.I18n;
 import me.starmism.batr.modules.BATCommand;
 import me.starmism.batr.modules.IModule;
+import me.starmism.batr.modules.ban.ActiveBanIndex.ActiveBan;
 import me.starmism.batr.modules.core.Core;
+import me.starmism.batr.modules.core.PlayerKey;
+import me.starmism.batr.modules.core.PlayerSession;
 import me.starmism.batr.utils.FormatUtilsKt;
+import me.starmism.batr.utils.IPCodec;
+import me.starmism.batr.utils.IPRange;
+import me.starmism.batr.utils.SingleFlight;
 import me.starmism.batr.utils.UUIDNotFoundException;
 import me.starmism.batr.utils.UtilsKt;
 import net.md_5.bungee.api.ProxyServer;
@@ -28,10 +39,22 @@ import java.nio.file.Path;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 public class Ban implements IModule, Listener {
+    // Maximum number of players resolved by a single bulk query
+    private static final int MAX_PLAYERS_PER_QUERY = 250;
 	private final SettingsManager config;
+    private final ActiveBanIndex activeBanIndex = new ActiveBanIndex();
     private ScheduledTask task;
+    private ScheduledTask syncTask;
+    private ScheduledTask archiveTask;
+    // Used when the active bans index isn't loaded, to protect the database during login storms
+    private final SingleFlight<String, BanLookup> banLookups = new SingleFlight<>();
+    private final Cache<String, Boolean> notBannedCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(5, TimeUnit.SECONDS).maximumSize(10000).build();
+    private final AtomicLong banGeneration = new AtomicLong();
     private BanCommand commandHandler;
     private I18n i18n;
 
@@ -78,46 +101,228 @@ public class Ban implements IModule, Listener {
             } else {
                 statement.executeUpdate(SQLQueries.Ban.createTable);
             }
+            // Add the change tracking column to the tables created by a previous version
+            if (!DataSourceHandler.columnExists(conn, SQLQueries.Ban.table, "ban_updated")) {
+                statement.executeUpdate(DataSourceHandler.isSQLite()
+                        ? SQLQueries.Ban.SQLite.addUpdatedColumn
+                        : SQLQueries.Ban.addUpdatedColumn);
+            }
+            if (!DataSourceHandler.columnExists(conn, SQLQueries.Ban.table, "ban_ip_prefix")) {
+                statement.executeUpdate(DataSourceHandler.isSQLite()
+                        ? SQLQueries.Ban.SQLite.addIPPrefixColumn
+                        : SQLQueries.Ban.addIPPrefixColumn);
+            }
+            if (DataSourceHandler.isSQLite()) {
+                for (final String query : SQLQueries.Ban.SQLite.changeTracking) {
+                    statement.executeUpdate(query);
+                }
+            }
+            SchemaMigrator.migrate(conn, SQLQueries.Ban.table,
+                    new Migration(1, "Composite and staff indexes", SQLQueries.Ban.addIndexes, SQLQueries.Ban.SQLite.addIndexes),
+                    new Migration(2, "IPv6 prefix lengths up to /128", SQLQueries.Ban.widenIPPrefix, SQLQueries.Ban.SQLite.widenIPPrefix),
+                    new Migration(3, "Canonical IPv6 addresses", new String[0], new String[0], SchemaMigrator.canonicalizeIPs("ban_id",
+                            SQLQueries.Ban.table, "ban_ip", SQLQueries.Ban.historyTable, "ban_ip")));
+            if (DataSourceHandler.isSQLite()) {
+                for (final String query : SQLQueries.Ban.SQLite.createHistoryTable) {
+                    statement.executeUpdate(query);
+                }
+            } else {
+                statement.executeUpdate(SQLQueries.Ban.createHistoryTable);
+            }
             statement.close();
         } catch (final SQLException e) {
             DataSourceHandler.handleException(e);
         }
 
+        // Load the active bans in memory, so the login and server connection checks don't need to query the database
+        if (activeBanIndex.load()) {
+            BATR.getInstance().getLogger().config(activeBanIndex.size() + " active bans loaded in memory.");
+        } else {
+            BATR.getInstance().getLogger().severe("The active bans couldn't be loaded in memory. The ban checks will query the database.");
+        }
+
         // Register commands
         commandHandler = new BanCommand(this);
         commandHandler.loadCmds();
 
-        // Launch tempban task
+        // Launch tempban task, which only handles the bans due so it can run every second
         final BanExpirationTask banExpirationTask = new BanExpirationTask(this);
-        task = ProxyServer.getInstance().getScheduler().schedule(BATR.getInstance(), banExpirationTask, 0, 10, TimeUnit.SECONDS);
+        task = ProxyServer.getInstance().getScheduler().schedule(BATR.getInstance(), banExpirationTask, 1, 1, TimeUnit.SECONDS);
+        // Launch the task fetching the bans made from the WebInterface or from another proxy
+        final BanSyncTask banSyncTask = new BanSyncTask(this);
+        syncTask = ProxyServer.getInstance().getScheduler().schedule(BATR.getInstance(), banSyncTask, 10, 10, TimeUnit.SECONDS);
+        // Move the old inactive bans to the history table, if enabled
+        archiveTask = ArchiveTask.schedule(new ArchiveTask(SQLQueries.Ban.table, DataSourceHandler.isSQLite()
+                ? SQLQueries.Ban.SQLite.getArchivableBans
+                : SQLQueries.Ban.getArchivableBans, 3, DataSourceHandler.isSQLite()
+                ? SQLQueries.Ban.SQLite.archiveBans
+                : SQLQueries.Ban.archiveBans, SQLQueries.Ban.deleteBans));
 
         // Check if the online players are banned (if the module has been reloaded)
-        for (final ProxiedPlayer player : ProxyServer.getInstance().getPlayers()) {
+        kickBannedPlayers();
+
+        return true;
+    }
+
+    @Override
+    public boolean unload() {
+        task.cancel();
+        syncTask.cancel();
+        if (archiveTask != null) {
+            archiveTask.cancel();
+        }
+        activeBanIndex.clear();
+        return true;
+    }
+
+    /**
+     * Reload the active bans once the ban table has been rewritten, i.e by the restoration of a backup, and kick the
+     * online players banned by the restored bans
+     */
+    public void reloadActiveBans() {
+        banGeneration.incrementAndGet();
+        notBannedCache.invalidateAll();
+        if (!activeBanIndex.load()) {
+            BATR.getInstance().getLogger().severe("The active bans couldn't be reloaded in memory. The ban checks will query the database.");
+            activeBanIndex.clear();
+        }
+        kickBannedPlayers();
+    }
+
+    /**
+     * Kick the online players from the servers they are banned from
+     */
+    private void kickBannedPlayers() {
+        // Without the index, their bans are fetched with a few bulk queries instead of querying each player
+        final Collection<ProxiedPlayer> players = ProxyServer.getInstance().getPlayers();
+        final Map<PlayerKey, List<ActiveBan>> onlineBans = activeBanIndex.isLoaded()
+                ? Collections.emptyMap()
+                : getActiveBans(players.stream().map(PlayerKey::of).collect(Collectors.toList()));
+        for (final ProxiedPlayer player : players) {
             final List<String> serversToCheck = player.getServer() != null
                     ? Arrays.asList(player.getServer().getInfo().getName(), GLOBAL_SERVER)
                     : Collections.singletonList(GLOBAL_SERVER);
+            final List<ActiveBan> playerBans = onlineBans.getOrDefault(PlayerKey.of(player), Collections.emptyList());
             for (final String server : serversToCheck) {
-                if (isBan(player, server)) {
-                    if (server.equals(player.getPendingConnection().getListener().getDefaultServer()) || server.equals(GLOBAL_SERVER)) {
-                        player.disconnect(getBanMessage(player.getPendingConnection(), server));
-                        continue;
+                final boolean banned = activeBanIndex.isLoaded()
+                        ? isBan(player, server)
+                        : playerBans.stream().anyMatch(ban -> ban.server().equalsIgnoreCase(server));
+                if (banned) {
+                    kickFromServer(player, server);
+                }
+            }
+        }
+    }
+
+    public ActiveBanIndex getActiveBanIndex() {
+        return activeBanIndex;
+    }
+
+    /**
+     * Get the active bans of several players at once, using chunked queries on their UUID and their ip<br>
+     * <b>Should be run async to optimize performance</b>
+     *
+     * @param players
+     * @return the active bans (player bans and ip bans) of each player, the players without any ban being omitted
+     */
+    public Map<PlayerKey, List<ActiveBan>> getActiveBans(final Collection<PlayerKey> players) {
+        final Map<PlayerKey, List<ActiveBan>> bans = new HashMap<>();
+        final List<PlayerKey> keys = new ArrayList<>(players);
+        for (int i = 0; i < keys.size(); i += MAX_PLAYERS_PER_QUERY) {
+            final Map<String, List<PlayerKey>> keysByUUID = new HashMap<>();
+            final Map<String, List<PlayerKey>> keysByIP = new HashMap<>();
+            for (final PlayerKey key : keys.subList(i, Math.min(i + MAX_PLAYERS_PER_QUERY, keys.size()))) {
+                keysByUUID.computeIfAbsent(key.uuid(), k -> new ArrayList<>()).add(key);
+                keysByIP.computeIfAbsent(key.ip(), k -> new ArrayList<>()).add(key);
+            }
+
+            PreparedStatement statement = null;
+            ResultSet resultSet = null;
+            try (Connection conn = BATR.getConnection()) {
+                statement = conn.prepareStatement((DataSourceHandler.isSQLite()
+                        ? SQLQueries.Ban.SQLite.getActiveBansOf
+                        : SQLQueries.Ban.getActiveBansOf)
+                        .replace("{uuids}", DataSourceHandler.placeholders(keysByUUID.size()))
+                        .replace("{ips}", DataSourceHandler.placeholders(keysByIP.size())));
+                int index = 1;
+                for (final String uuid : keysByUUID.keySet()) {
+                    statement.setString(index++, uuid);
+                }
+                for (final String ip : keysByIP.keySet()) {
+                    statement.setString(index++, ip);
+                }
+                resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    final ActiveBan ban = ActiveBanIndex.readActiveBan(resultSet);
+                    final List<PlayerKey> concernedKeys = (ban.uuid() != null)
+                            ? keysByUUID.get(ban.uuid())
+                            : keysByIP.get(ban.ip());
+                    if (concernedKeys != null) {
+                        for (final PlayerKey key : concernedKeys) {
+                            bans.computeIfAbsent(key, k -> new ArrayList<>()).add(ban);
+                        }
                     }
-                    player.sendMessage(getBanMessage(player.getPendingConnection(), server));
-                    player.connect(ProxyServer.getInstance().getServerInfo(player.getPendingConnection().getListener().getDefaultServer()));
                 }
+            } catch (final SQLException e) {
+                DataSourceHandler.handleException(e);
+            } finally {
+                DataSourceHandler.close(statement, resultSet);
             }
         }
+        return bans;
+    }
 
-        return true;
+    /**
+     * Apply a ban which wasn't made through this proxy (i.e from the WebInterface) to the online players it concerns
+     *
+     * @param activeBan
+     */
+    public void enforceBan(final ActiveBan activeBan) {
+        final String server = activeBan.server();
+        if (activeBan.uuid() != null) {
+            final ProxiedPlayer player = ProxyServer.getInstance().getPlayer(Core.getUUIDfromString(activeBan.uuid()));
+            if (player != null && isOnServer(player, server)) {
+                kickFromServer(player, server);
+            }
+            return;
+        }
+        // Only a new ip ban requires to look through the online players
+        final IPRange range = IPRange.parse(activeBan.ip());
+        for (final ProxiedPlayer player : ProxyServer.getInstance().getPlayers()) {
+            final String playerIP = Core.getSession(player).getIP();
+            final boolean concerned = (range != null) ? range.contains(playerIP) : activeBan.ip().equals(playerIP);
+            if (concerned && isOnServer(player, server)) {
+                kickFromServer(player, server);
+            }
+        }
     }
 
-    @Override
-    public boolean unload() {
-        task.cancel();
-        return true;
+    private static boolean isOnServer(final ProxiedPlayer player, final String server) {
+        return GLOBAL_SERVER.equals(server)
+                || (player.getServer() != null && player.getServer().getInfo().getName().equalsIgnoreCase(server));
+    }
+
+    /**
+     * Kick a player from a server he's banned from: if it's his default server or a global ban he's disconnected,
+     * otherwise he's sent back to his default server
+     */
+    private void kickFromServer(final ProxiedPlayer player, final String server) {
+        if (server.equals(player.getPendingConnection().getListener().getDefaultServer()) || server.equals(GLOBAL_SERVER)) {
+            player.disconnect(getBanMessage(player.getPendingConnection(), server));
+            return;
+        }
+        player.sendMessage(getBanMessage(player.getPendingConnection(), server));
+        player.connect(ProxyServer.getInstance().getServerInfo(player.getPendingConnection().getListener().getDefaultServer()));
     }
 
     public BaseComponent[] getBanMessage(final PendingConnection pConn, final String server) {
+        if (activeBanIndex.isLoaded()) {
+            final BaseComponent[] banMessage = getIndexedBanMessage(pConn, server);
+            if (banMessage != null) {
+                return banMessage;
+            }
+        }
+
         String reason = "";
         Timestamp expiration = null;
         Timestamp begin = null;
@@ -130,14 +335,8 @@ public class Ban implements IModule, Listener {
                     ? SQLQueries.Ban.SQLite.getBanMessage
                     : SQLQueries.Ban.getBanMessage);
             try {
-                final UUID pUUID;
-                if (pConn.getUniqueId() != null) {
-                    pUUID = pConn.getUniqueId();
-                } else {
-                    pUUID = java.util.UUID.nameUUIDFromBytes(("OfflinePlayer:" + pConn.getName()).getBytes(Charsets.UTF_8));
-                }
-                statement.setString(1, pUUID.toString().replace("-", ""));
-                statement.setString(2, pConn.getAddress().getAddress().getHostAddress());
+                statement.setString(1, Core.getConnectionUUID(pConn));
+                statement.setString(2, IPCodec.format(pConn.getAddress().getAddress()));
                 statement.setString(3, server);
             } catch (final UUIDNotFoundException e) {
                 BATR.getInstance().getLogger().severe("Error during retrieving of the UUID of " + pConn.getName() + ". Please report this error :");
@@ -164,6 +363,28 @@ public class Ban implements IModule, Listener {
         } finally {
             DataSourceHandler.close(statement, resultSet);
         }
+        return formatBanMessage(reason, begin, expiration, staff);
+    }
+
+    /**
+     * Get the ban message of a connection using the in-memory index
+     *
+     * @param pConn
+     * @param server
+     * @return the ban message or null if neither the player nor his ip are banned from this server
+     */
+    private BaseComponent[] getIndexedBanMessage(final PendingConnection pConn, final String server) {
+        ActiveBan ban = activeBanIndex.getUUIDBan(Core.getConnectionUUID(pConn), server);
+        if (ban == null) {
+            ban = activeBanIndex.getIPBan(IPCodec.format(pConn.getAddress().getAddress()), server);
+        }
+        if (ban == null) {
+            return null;
+        }
+        return formatBanMessage(ban.reason(), ban.begin(), ban.end(), ban.staff());
+    }
+
+    private BaseComponent[] formatBanMessage(final String reason, final Timestamp begin, final Timestamp expiration, final String staff) {
         if (expiration != null) {
             return TextComponent.fromLegacyText(i18n.format("isBannedTemp",
                     new String[]{reason, (expiration.getTime() < System.currentTimeMillis()) ? "a few moments" : FormatUtilsKt.getDuration(expiration.getTime()),
@@ -181,6 +402,11 @@ public class Ban implements IModule, Listener {
      * @return true if name or ip is banned
      */
     public boolean isBan(final ProxiedPlayer player, final String server) {
+        if (activeBanIndex.isLoaded()) {
+            final PlayerSession session = Core.getSession(player);
+            return activeBanIndex.getUUIDBan(session.getUUID(), server) != null
+                    || activeBanIndex.getIPBan(session.getIP(), server) != null;
+        }
         final String ip = Core.getPlayerIP(player.getName());
 		return isBan(player.getName(), server) || isBan(ip, server);
 	}
@@ -188,28 +414,101 @@ public class Ban implements IModule, Listener {
     /**
      * Check if this entity (player or ip) is banned
      *
-     * @param bannedEntity | can be an ip or a player name
+     * @param bannedEntity | can be an ip, a CIDR range or a player name
      * @param server       | if server equals to (any) check if the player is ban on a
      *                     server
      * @return
      */
     public boolean isBan(final String bannedEntity, final String server) {
+        final IPRange range = IPRange.parse(bannedEntity);
+        if (range != null) {
+            return isRangeBan(range, server);
+        }
+        if (activeBanIndex.isLoaded()) {
+            return (UtilsKt.validIP(bannedEntity))
+                    ? activeBanIndex.getIPBan(bannedEntity, server) != null
+                    : activeBanIndex.getUUIDBan(Core.getUUID(bannedEntity), server) != null;
+        }
+
+        return UtilsKt.validIP(bannedEntity)
+                ? lookupBan(true, bannedEntity, server)
+                : lookupBan(false, Core.getUUID(bannedEntity), server);
+    }
+
+    /**
+     * Check if this exact CIDR range is banned (the ranges containing it aren't checked)
+     */
+    private boolean isRangeBan(final IPRange range, final String server) {
+        if (activeBanIndex.isLoaded()) {
+            return activeBanIndex.getIPBan(range.toString(), server) != null;
+        }
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try (Connection conn = BATR.getConnection()) {
+            statement = conn.prepareStatement((ANY_SERVER.equals(server)) ? SQLQueries.Ban.isBanRange
+                    : SQLQueries.Ban.isBanServerRange);
+            statement.setString(1, range.getNetworkAddress());
+            statement.setInt(2, range.getPrefix());
+            if (!ANY_SERVER.equals(server)) {
+                statement.setString(3, server);
+            }
+            resultSet = statement.executeQuery();
+            return resultSet.next();
+        } catch (final SQLException e) {
+            DataSourceHandler.handleException(e);
+        } finally {
+            DataSourceHandler.close(statement, resultSet);
+        }
+        return false;
+    }
+
+    /**
+     * Check in the database if an ip or a UUID is banned, used when the active bans index isn't loaded. <br>
+     * The concurrent lookups of a same entity (i.e during a bot attack) share a single query,
+     * and the "not banned" results are cached for a few seconds.
+     *
+     * @param isIP   | true if the key is an ip, false if it's a UUID
+     * @param key    | ip or UUID without dashes
+     * @param server
+     */
+    private boolean lookupBan(final boolean isIP, final String key, final String server) {
+        final String cacheKey = server + "|" + key;
+        if (notBannedCache.getIfPresent(cacheKey) != null) {
+            return false;
+        }
+        // The generation is read by the query itself, as a caller may join a query started before a ban
+        final BanLookup lookup = banLookups.execute(cacheKey,
+                () -> new BanLookup(banGeneration.get(), queryBan(isIP, key, server)));
+        // Don't cache the result if a ban has been made since the query started
+        if (!lookup.banned() && lookup.generation() == banGeneration.get()) {
+            notBannedCache.put(cacheKey, Boolean.TRUE);
+        }
+        return lookup.banned();
+    }
+
+    /**
+     * Result of a ban lookup in the database
+     *
+     * @param generation | value of the ban generation when the query started
+     */
+    private record BanLookup(long generation, boolean banned) {
+    }
+
+    private boolean queryBan(final boolean isIP, final String key, final String server) {
         PreparedStatement statement = null;
         ResultSet resultSet = null;
         try (Connection conn = BATR.getConnection()) {
             // If this is an ip which may be banned
-            if (UtilsKt.validIP(bannedEntity)) {
+            if (isIP) {
 				statement = conn.prepareStatement((ANY_SERVER.equals(server)) ? SQLQueries.Ban.isBanIP
                         : SQLQueries.Ban.isBanServerIP);
-                statement.setString(1, bannedEntity);
 			}
             // If this is a player which may be banned
             else {
-				final String uuid = Core.getUUID(bannedEntity);
                 statement = conn.prepareStatement((ANY_SERVER.equals(server)) ? SQLQueries.Ban.isBan
                         : SQLQueries.Ban.isBanServer);
-                statement.setString(1, uuid);
 			}
+            statement.setString(1, key);
 			if (!ANY_SERVER.equals(server)) {
 				statement.setString(2, server);
 			}
@@ -231,7 +530,7 @@ public class Ban implements IModule, Listener {
     /**
      * Ban this entity (player or ip) <br>
      *
-     * @param bannedEntity        | can be an ip or a player name
+     * @param bannedEntity        | can be an ip, a CIDR range (i.e 192.168.0.0/24) or a player name
      * @param server              ; set to "(global)", to global ban
      * @param staff
      * @param expirationTimestamp ; set to 0 for ban def
@@ -240,28 +539,41 @@ public class Ban implements IModule, Listener {
      */
     public String ban(final String bannedEntity, final String server, final String staff,
                       final long expirationTimestamp, final String reason) {
-        try (Connection conn = BATR.getConnection()) {
-            // If the bannedEntity is an ip
-            if (UtilsKt.validIP(bannedEntity)) {
-
-				final PreparedStatement statement = conn.prepareStatement(SQLQueries.Ban.createBanIP);
-                statement.setString(1, bannedEntity);
-                statement.setString(2, staff);
-                statement.setString(3, server);
-                statement.setTimestamp(4, (expirationTimestamp > 0) ? new Timestamp(expirationTimestamp) : null);
-                statement.setString(5, (NO_REASON.equals(reason)) ? null : reason);
-                statement.executeUpdate();
-                statement.close();
+        banGeneration.incrementAndGet();
+        notBannedCache.invalidateAll();
+        try {
+            final IPRange range = IPRange.parse(bannedEntity);
+            final Timestamp end = (expirationTimestamp > 0) ? new Timestamp(expirationTimestamp) : null;
+            final String dbReason = (NO_REASON.equals(reason)) ? null : reason;
+            // Truncated to the second as MySQL does, so that a journaled ban is identified by its begin date when it's replayed
+            final Timestamp begin = new Timestamp(System.currentTimeMillis() / 1000 * 1000);
+            // If the bannedEntity is an ip or a range of ips
+            if (UtilsKt.validIP(bannedEntity) || range != null) {
+                // A range is stored as its network address and its prefix length
+                final String ip = (range != null) ? range.toString() : bannedEntity;
+
+                final String address = (range != null) ? range.getNetworkAddress() : bannedEntity;
+                final Integer prefix = (range != null) ? range.getPrefix() : null;
+                final int id = BATR.getInstance().getDsHandler().insertSanction(
+                        SQLQueries.Ban.createBanIP, new Object[]{address, prefix, staff, server, end, dbReason},
+                        DataSourceHandler.isSQLite() ? SQLQueries.Ban.SQLite.journalBan : SQLQueries.Ban.journalBan,
+                        new Object[]{null, address, prefix, staff, server, begin, end, dbReason});
+                activeBanIndex.add(new ActiveBan(id, null, ip, server, reason, staff, begin, end));
 
                 for (final ProxiedPlayer player : ProxyServer.getInstance().getPlayers()) {
-                    if (UtilsKt.getPlayerIP(player).equals(bannedEntity) && (GLOBAL_SERVER.equals(server) || server.equalsIgnoreCase(player.getServer().getInfo().getName()))) {
+                    final String playerIP = UtilsKt.getPlayerIP(player);
+                    final boolean concerned = (range != null) ? range.contains(playerIP) : playerIP.equals(bannedEntity);
+                    if (concerned && (GLOBAL_SERVER.equals(server) || server.equalsIgnoreCase(player.getServer().getInfo().getName()))) {
                         BATR.kick(player, i18n.format("wasBannedNotif", new String[]{reason}));
                     }
                 }
 
                 if (BATR.getInstance().getRedis().isRedisEnabled()) {
                     for (final UUID pUUID : RedisBungee.getApi().getPlayersOnline()) {
-                        if (RedisBungee.getApi().getPlayerIp(pUUID).toString().equals(bannedEntity) && (GLOBAL_SERVER.equals(server) || server.equalsIgnoreCase(RedisBungee.getApi().getServerFor(pUUID).getName()))) {
+                        final boolean concerned = (range != null)
+                                ? range.contains(IPCodec.format(RedisBungee.getApi().getPlayerIp(pUUID)))
+                                : IPCodec.format(RedisBungee.getApi().getPlayerIp(pUUID)).equals(bannedEntity);
+                        if (concerned && (GLOBAL_SERVER.equals(server) || server.equalsIgnoreCase(RedisBungee.getApi().getServerFor(pUUID).getName()))) {
                             BATR.getInstance().getRedis().sendGKickPlayer(pUUID, i18n.format("wasBannedNotif", new String[]{reason}));
                         }
                     }
@@ -273,14 +585,11 @@ public class Ban implements IModule, Listener {
             else {
                 final String sUUID = Core.getUUID(bannedEntity);
                 final ProxiedPlayer player = UtilsKt.getPlayer(bannedEntity);
-                final PreparedStatement statement = conn.prepareStatement(SQLQueries.Ban.createBan);
-                statement.setString(1, sUUID);
-                statement.setString(2, staff);
-                statement.setString(3, server);
-                statement.setTimestamp(4, (expirationTimestamp > 0) ? new Timestamp(expirationTimestamp) : null);
-                statement.setString(5, (NO_REASON.equals(reason)) ? null : reason);
-                statement.executeUpdate();
-                statement.close();
+                final int id = BATR.getInstance().getDsHandler().insertSanction(
+                        SQLQueries.Ban.createBan, new Object[]{sUUID, staff, server, end, dbReason},
+                        DataSourceHandler.isSQLite() ? SQLQueries.Ban.SQLite.journalBan : SQLQueries.Ban.journalBan,
+                        new Object[]{sUUID, null, null, staff, server, begin, end, dbReason});
+                activeBanIndex.add(new ActiveBan(id, sUUID, null, server, reason, staff, begin, end));
 
                 // Kick player if he's online and on the server where he's
                 // banned
@@ -325,7 +634,7 @@ public class Ban implements IModule, Listener {
     public String banRedisIP(final UUID pUUID, final String server, final String staff,
                              final long expirationTimestamp, final String reason) {
         if (BATR.getInstance().getRedis().isRedisEnabled() && RedisBungee.getApi().isPlayerOnline(pUUID)) {
-            ban(RedisBungee.getApi().getPlayerIp(pUUID).getHostAddress(), server, staff, expirationTimestamp, reason);
+            ban(IPCodec.format(RedisBungee.getApi().getPlayerIp(pUUID)), server, staff, expirationTimestamp, reason);
             return i18n.format("banBroadcast", new String[]{RedisBungee.getApi().getNameFromUuid(pUUID) + "'s IP", staff, server, reason});
         } else {
             return null;
@@ -334,35 +643,42 @@ public class Ban implements IModule, Listener {
     }
 
     /**
-     * Unban an entity (player or ip)
+     * Unban an entity (player, ip or CIDR range)
      *
-     * @param bannedEntity | can be an ip or a player name
+     * @param bannedEntity | can be an ip, a CIDR range or a player name
      * @param server       | if equals to (any), unban from all servers | if equals to
      *                     (global), remove global ban
      * @param staff
      * @param reason
      */
     public String unBan(final String bannedEntity, final String server, final String staff, final String reason) {
-        PreparedStatement statement = null;
-        try (Connection conn = BATR.getConnection()) {
+        // The unban is journaled behind the bans still waiting in the journal, so that their replay can't restore them
+        final DataSourceHandler dsHandler = BATR.getInstance().getDsHandler();
+        try {
+            final IPRange range = IPRange.parse(bannedEntity);
+            // If the bannedEntity is a range of ips, only the ban of this exact range is lifted
+            if (range != null) {
+                if (ANY_SERVER.equals(server)) {
+                    dsHandler.updateSanction((DataSourceHandler.isSQLite()) ? SQLQueries.Ban.SQLite.unBanRange
+                            : SQLQueries.Ban.unBanRange, reason, staff, range.getNetworkAddress(), range.getPrefix());
+                } else {
+                    dsHandler.updateSanction((DataSourceHandler.isSQLite()) ? SQLQueries.Ban.SQLite.unBanRangeServer
+                            : SQLQueries.Ban.unBanRangeServer, reason, staff, range.getNetworkAddress(), range.getPrefix(), server);
+                }
+                activeBanIndex.removeIP(range.toString(), server);
+
+                return i18n.format("unbanBroadcast", new String[]{range.toString(), staff, server, reason});
+            }
             // If the bannedEntity is an ip
-            if (UtilsKt.validIP(bannedEntity)) {
+            else if (UtilsKt.validIP(bannedEntity)) {
                 if (ANY_SERVER.equals(server)) {
-                    statement = (DataSourceHandler.isSQLite()) ? conn.prepareStatement(SQLQueries.Ban.SQLite.unBanIP)
-                            : conn.prepareStatement(SQLQueries.Ban.unBanIP);
-                    statement.setString(1, reason);
-                    statement.setString(2, staff);
-                    statement.setString(3, bannedEntity);
+                    dsHandler.updateSanction((DataSourceHandler.isSQLite()) ? SQLQueries.Ban.SQLite.unBanIP
+                            : SQLQueries.Ban.unBanIP, reason, staff, bannedEntity);
                 } else {
-                    statement = (DataSourceHandler.isSQLite()) ? conn
-                            .prepareStatement(SQLQueries.Ban.SQLite.unBanIPServer) : conn
-                            .prepareStatement(SQLQueries.Ban.unBanIPServer);
-                    statement.setString(1, reason);
-                    statement.setString(2, staff);
-                    statement.setString(3, bannedEntity);
-                    statement.setString(4, server);
+                    dsHandler.updateSanction((DataSourceHandler.isSQLite()) ? SQLQueries.Ban.SQLite.unBanIPServer
+                            : SQLQueries.Ban.unBanIPServer, reason, staff, bannedEntity, server);
                 }
-                statement.executeUpdate();
+                activeBanIndex.removeIP(bannedEntity, server);
 
                 return i18n.format("unbanBroadcast", new String[]{bannedEntity, staff, server, reason});
             }
@@ -371,28 +687,18 @@ public class Ban implements IModule, Listener {
             else {
                 final String UUID = Core.getUUID(bannedEntity);
                 if (ANY_SERVER.equals(server)) {
-                    statement = (DataSourceHandler.isSQLite()) ? conn.prepareStatement(SQLQueries.Ban.SQLite.unBan)
-                            : conn.prepareStatement(SQLQueries.Ban.unBan);
-                    statement.setString(1, reason);
-                    statement.setString(2, staff);
-                    statement.setString(3, UUID);
+                    dsHandler.updateSanction((DataSourceHandler.isSQLite()) ? SQLQueries.Ban.SQLite.unBan
+                            : SQLQueries.Ban.unBan, reason, staff, UUID);
                 } else {
-                    statement = (DataSourceHandler.isSQLite()) ? conn
-                            .prepareStatement(SQLQueries.Ban.SQLite.unBanServer) : conn
-                            .prepareStatement(SQLQueries.Ban.unBanServer);
-                    statement.setString(1, reason);
-                    statement.setString(2, staff);
-                    statement.setString(3, UUID);
-                    statement.setString(4, server);
+                    dsHandler.updateSanction((DataSourceHandler.isSQLite()) ? SQLQueries.Ban.SQLite.unBanServer
+                            : SQLQueries.Ban.unBanServer, reason, staff, UUID, server);
                 }
-                statement.executeUpdate();
+                activeBanIndex.removeUUID(UUID, server);
 
                 return i18n.format("unbanBroadcast", new String[]{bannedEntity, staff, server, reason});
             }
         } catch (final SQLException e) {
             return DataSourceHandler.handleException(e);
-        } finally {
-            DataSourceHandler.close(statement);
         }
 
     }
@@ -407,7 +713,7 @@ public class Ban implements IModule, Listener {
      * @param reason | optional
      */
     public String unBanIP(final String entity, final String server, final String staff, final String reason) {
-        if (UtilsKt.validIP(entity)) {
+        if (UtilsKt.validIP(entity) || IPRange.isRange(entity)) {
             return unBan(entity, server, staff, reason);
         } else {
             unBan(Core.getPlayerIP(entity), server, staff, reason);
@@ -420,27 +726,46 @@ public class Ban implements IModule, Listener {
      * <b>Should be runned async to optimize performance</b>
      *
      * @param entity
+     * @param fullHistory | also read the bans moved to the history table
      * @return List of BanEntry of the player
      */
-    public List<BanEntry> getBanData(final String entity) {
+    public List<BanEntry> getBanData(final String entity, final boolean fullHistory) {
         final List<BanEntry> banList = new ArrayList<>();
         PreparedStatement statement = null;
         ResultSet resultSet = null;
-        try (Connection conn = BATR.getConnection()) {
+        try (Connection conn = BATR.getReadConnection()) {
             // If the entity is an ip
+            final String param;
             if (UtilsKt.validIP(entity)) {
-                statement = conn.prepareStatement((DataSourceHandler.isSQLite())
-                        ? SQLQueries.Ban.SQLite.getBanIP
-                        : SQLQueries.Ban.getBanIP);
-                statement.setString(1, entity);
+                if (fullHistory) {
+                    statement = conn.prepareStatement((DataSourceHandler.isSQLite())
+                            ? SQLQueries.Ban.SQLite.getBanIPWithHistory
+                            : SQLQueries.Ban.getBanIPWithHistory);
+                } else {
+                    statement = conn.prepareStatement((DataSourceHandler.isSQLite())
+                            ? SQLQueries.Ban.SQLite.getBanIP
+                            : SQLQueries.Ban.getBanIP);
+                }
+                param = entity;
 			}
             // Otherwise if it's a player
             else {
-                statement = conn.prepareStatement((DataSourceHandler.isSQLite())
-                        ? SQLQueries.Ban.SQLite.getBan
-                        : SQLQueries.Ban.getBan);
-                statement.setString(1, Core.getUUID(entity));
+                if (fullHistory) {
+                    statement = conn.prepareStatement((DataSourceHandler.isSQLite())
+                            ? SQLQueries.Ban.SQLite.getBanWithHistory
+                            : SQLQueries.Ban.getBanWithHistory);
+                } else {
+                    statement = conn.prepareStatement((DataSourceHandler.isSQLite())
+                            ? SQLQueries.Ban.SQLite.getBan
+                            : SQLQueries.Ban.getBan);
+                }
+                param = Core.getUUID(entity);
 			}
+            // The history query repeats the condition for the archived bans
+            statement.setString(1, param);
+            if (fullHistory) {
+                statement.setString(2, param);
+            }
 			resultSet = statement.executeQuery();
 
 			while (resultSet.next()) {
@@ -483,14 +808,22 @@ public class Ban implements IModule, Listener {
         return banList;
     }
 
-    public List<BanEntry> getManagedBan(final String staff) {
+    public List<BanEntry> getManagedBan(final String staff, final boolean fullHistory) {
         final List<BanEntry> banList = new ArrayList<>();
         PreparedStatement statement = null;
         ResultSet resultSet = null;
-        try (Connection conn = BATR.getConnection()) {
-            statement = conn.prepareStatement((DataSourceHandler.isSQLite())
-                    ? SQLQueries.Ban.SQLite.getManagedBan
-                    : SQLQueries.Ban.getManagedBan);
+        try (Connection conn = BATR.getReadConnection()) {
+            if (fullHistory) {
+                statement = conn.prepareStatement((DataSourceHandler.isSQLite())
+                        ? SQLQueries.Ban.SQLite.getManagedBanWithHistory
+                        : SQLQueries.Ban.getManagedBanWithHistory);
+                statement.setString(3, staff);
+                statement.setString(4, staff);
+            } else {
+                statement = conn.prepareStatement((DataSourceHandler.isSQLite())
+                        ? SQLQueries.Ban.SQLite.getManagedBan
+                        : SQLQueries.Ban.getManagedBan);
+            }
             statement.setString(1, staff);
             statement.setString(2, staff);
             resultSet = statement.executeQuery();
@@ -518,13 +851,10 @@ public class Ban implements IModule, Listener {
                 if (reason == null) {
                     reason = NO_REASON;
                 }
-                String entity = (resultSet.getString("ban_ip") != null)
+                // The names of the players are resolved all at once after reading the rows
+                final String entity = (resultSet.getString("ban_ip") != null)
                         ? resultSet.getString("ban_ip")
-                        : Core.getPlayerName(resultSet.getString("UUID"));
-                // If the UUID search failed
-                if (entity == null) {
-                    entity = "UUID:" + resultSet.getString("UUID");
-                }
+                        : "UUID:" + resultSet.getString("UUID");
                 final boolean active = (resultSet.getBoolean("ban_state"));
                 String unbanReason = resultSet.getString("ban_unbanreason");
                 if (unbanReason == null) {
@@ -538,9 +868,80 @@ public class Ban implements IModule, Listener {
         } finally {
             DataSourceHandler.close(statement, resultSet);
         }
+        Core.resolvePlayerNames(banList, BanEntry::entity, BanEntry::withEntity);
         return banList;
     }
 
+    /**
+     * Count the bans of an entity, or the bans managed by a staff, including the archived ones
+     *
+     * @param entity
+     * @param staffLookup | count the bans and unbans made by the entity instead of its own bans
+     */
+    public int countBans(final String entity, final boolean staffLookup) {
+        if (staffLookup) {
+            return Page.count(SQLQueries.Ban.countManagedBans, 2, entity, entity);
+        }
+        return UtilsKt.validIP(entity)
+                ? Page.count(SQLQueries.Ban.countBansIP, 2, entity)
+                : Page.count(SQLQueries.Ban.countBans, 2, Core.getUUID(entity));
+    }
+
+    /**
+     * Get a page of the bans of an entity, or of the bans managed by a staff, the latest first <br>
+     * <b>Should be runned async to optimize performance</b>
+     *
+     * @param entity
+     * @param staffLookup | read the bans and unbans made by the entity instead of its own bans
+     * @param request     | the position and size of the page
+     */
+    public Page<BanEntry> getBanPage(final String entity, final boolean staffLookup, final Page.Request request) {
+        final boolean sqlite = DataSourceHandler.isSQLite();
+        final Page<BanEntry> page;
+        if (staffLookup) {
+            page = Page.read(sqlite ? SQLQueries.Ban.SQLite.getManagedBanPage : SQLQueries.Ban.getManagedBanPage,
+                    SQLQueries.Ban.pageKeys, 2, request, resultSet -> readBanEntry(resultSet,
+                            // The names of the players are resolved all at once after reading the rows
+                            (resultSet.getString("ban_ip") != null)
+                                    ? resultSet.getString("ban_ip")
+                                    : "UUID:" + resultSet.getString("UUID"), entity),
+                    entity, entity);
+            Core.resolvePlayerNames(page.entries(), BanEntry::entity, BanEntry::withEntity);
+        } else if (UtilsKt.validIP(entity)) {
+            page = Page.read(sqlite ? SQLQueries.Ban.SQLite.getBanIPPage : SQLQueries.Ban.getBanIPPage,
+                    SQLQueries.Ban.pageKeys, 2, request,
+                    resultSet -> readBanEntry(resultSet, entity, resultSet.getString("ban_staff")), entity);
+        } else {
+            page = Page.read(sqlite ? SQLQueries.Ban.SQLite.getBanPage : SQLQueries.Ban.getBanPage,
+                    SQLQueries.Ban.pageKeys, 2, request,
+                    resultSet -> readBanEntry(resultSet, entity, resultSet.getString("ban_staff")), Core.getUUID(entity));
+        }
+        return page;
+    }
+
+    private static BanEntry readBanEntry(final ResultSet resultSet, final String entity, final String staff)
+            throws SQLException {
+        final Timestamp beginDate;
+        final Timestamp endDate;
+        final Timestamp unbanDate;
+        if (DataSourceHandler.isSQLite()) {
+            beginDate = new Timestamp(resultSet.getLong("strftime('%s',ban_begin)") * 1000);
+            String endStr = resultSet.getString("ban_end");
+            endDate = (endStr == null) ? null : new Timestamp(Long.parseLong(endStr));
+            long unbanLong = resultSet.getLong("strftime('%s',ban_unbandate)") * 1000;
+            unbanDate = (unbanLong == 0) ? null : new Timestamp(unbanLong);
+        } else {
+            beginDate = resultSet.getTimestamp("ban_begin");
+            endDate = resultSet.getTimestamp("ban_end");
+            unbanDate = resultSet.getTimestamp("ban_unbandate");
+        }
+        final String reason = resultSet.getString("ban_reason");
+        final String unbanReason = resultSet.getString("ban_unbanreason");
+        return new BanEntry(entity, resultSet.getString("ban_server"), (reason == null) ? NO_REASON : reason, staff,
+                beginDate, endDate, unbanDate, (unbanReason == null) ? NO_REASON : unbanReason,
+                resultSet.getString("ban_unbanstaff"), resultSet.getBoolean("ban_state"));
+    }
+
     @EventHandler
     public void onServerConnect(final ServerConnectEvent e) {
         final ProxiedPlayer player = e.getPlayer();
@@ -571,37 +972,22 @@ public class Ban implements IModule, Listener {
 
     @EventHandler
     public void onPlayerLogin(final LoginEvent ev) {
+        // The active bans are cached, so there is no need to hold the login to query the database
+        if (activeBanIndex.isLoaded()) {
+            final BaseComponent[] bM = getIndexedBanMessage(ev.getConnection(), GLOBAL_SERVER);
+            if (bM != null) {
+                ev.setCancelReason(TextComponent.toLegacyText(bM));
+                ev.setCancelled(true);
+            }
+            return;
+        }
+
         ev.registerIntent(BATR.getInstance());
         BATR.getInstance().getProxy().getScheduler().runAsync(BATR.getInstance(), () -> {
-			boolean isBanPlayer = false;
-
-			PreparedStatement statement = null;
-			ResultSet resultSet = null;
-			UUID uuid;
-			try (Connection conn = BATR.getConnection()) {
-				statement = conn.prepareStatement("SELECT ban_id FROM `BAT_ban` WHERE ban_state = 1 AND UUID = ? AND ban_server = '" + GLOBAL_SERVER + "';");
-				// If this is an online mode server, the uuid will be already set
-				if (ev.getConnection().getUniqueId() != null) {
-					uuid = ev.getConnection().getUniqueId();
-				}
-				// Otherwise it's an offline mode server, so we're gonna generate the UUID using player name (hashing)
-				else {
-					uuid = UUID.nameUUIDFromBytes(("OfflinePlayer:" + ev.getConnection().getName()).getBytes(Charsets.UTF_8));
-				}
-				statement.setString(1, uuid.toString().replaceAll("-", ""));
-
-				resultSet = statement.executeQuery();
-				if (resultSet.next()) {
-					isBanPlayer = true;
-				}
-			} catch (SQLException e) {
-				DataSourceHandler.handleException(e);
-			} finally {
-				DataSourceHandler.close(statement, resultSet);
-			}
-
-			if ((isBanPlayer) || (isBan(ev.getConnection().getAddress().getAddress().getHostAddress(), GLOBAL_SERVER))) {
-				BaseComponent[] bM = getBanMessage(ev.getConnection(), GLOBAL_SERVER);
+			final PendingConnection pConn = ev.getConnection();
+			if (lookupBan(false, Core.getConnectionUUID(pConn), GLOBAL_SERVER)
+					|| lookupBan(true, IPCodec.format(pConn.getAddress().getAddress()), GLOBAL_SERVER)) {
+				BaseComponent[] bM = getBanMessage(pConn, GLOBAL_SERVER);
 				ev.setCancelReason(TextComponent.toLegacyText(bM));
 				ev.setCancelled(true);
 			}
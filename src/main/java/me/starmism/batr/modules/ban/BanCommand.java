@@ -13,6 +13,8 @@ import me.starmism.batr.modules.core.Core;
 import me.starmism.batr.modules.core.PermissionManager;
 import me.starmism.batr.modules.core.PermissionManager.Action;
 import me.starmism.batr.utils.FormatUtilsKt;
+import me.starmism.batr.utils.IPCodec;
+import me.starmism.batr.utils.IPRange;
 import me.starmism.batr.utils.UtilsKt;
 import net.md_5.bungee.api.CommandSender;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
@@ -54,7 +56,7 @@ public class BanCommand extends CommandHandler {
 	@RunAsync
 	public static class BanIPCmd extends BATCommand {
 		public BanIPCmd() {
-			super("banip", "<player/ip> [server] [reason]",
+			super("banip", "<player/ip/range> [server] [reason]",
 					"Ban player on an IP basis on the specified server permanently or until unbanned. ", Action.BANIP
 							.getPermission());
 		}
@@ -86,7 +88,7 @@ public class BanCommand extends CommandHandler {
 	@RunAsync
 	public static class GBanIPCmd extends BATCommand {
 		public GBanIPCmd() {
-			super("gbanip", "<player/ip> [reason]",
+			super("gbanip", "<player/ip/range> [reason]",
 					"Ban player on an IP basis on all servers (the whole network) permanently or until unbanned.",
 					Action.BANIP.getPermission() + ".global");
 		}
@@ -100,7 +102,7 @@ public class BanCommand extends CommandHandler {
 
 	public static void handleBanCommand(final BATCommand command, final boolean global, final boolean ipBan,
 			final CommandSender sender, final String[] args, final boolean confirmedCmd) {
-		String target = args[0];
+		String target = IPCodec.normalize(args[0]);
 		String server = IModule.GLOBAL_SERVER;
 		final String staff = sender.getName();
 		String reason = IModule.NO_REASON;
@@ -139,8 +141,8 @@ public class BanCommand extends CommandHandler {
 				i18n.format("noReasonInCommand"));
                 
 
-		// Check if the target isn't an ip and the player is offline
-		if (!UtilsKt.validIP(target) && player == null && pUUID == null) {
+		// Check if the target isn't an ip nor a range of ips and the player is offline
+		if (!UtilsKt.validIP(target) && !IPRange.isRange(target) && player == null && pUUID == null) {
 			ip = Core.getPlayerIP(target);
 			if (ipBan) {
 				checkArgument(!"0.0.0.0".equals(ip), i18n.format("ipUnknownPlayer"));
@@ -198,7 +200,7 @@ public class BanCommand extends CommandHandler {
 	@RunAsync
 	public static class TempBanIPCmd extends BATCommand {
 		public TempBanIPCmd() {
-			super("tempbanip", "<player/ip> <duration> [server] [reason]",
+			super("tempbanip", "<player/ip/range> <duration> [server] [reason]",
 					"Temporarily ban the player on IP basis on the specified server for duration.", Action.TEMPBANIP
 							.getPermission());
 		}
@@ -228,7 +230,7 @@ public class BanCommand extends CommandHandler {
 	@RunAsync
 	public static class GTempBanIPCmd extends BATCommand {
 		public GTempBanIPCmd() {
-			super("gtempbanip", "<player/ip> <duration> [reason]",
+			super("gtempbanip", "<player/ip/range> <duration> [reason]",
 					"Temporarily ban the player on IP basis on all servers (the whole network) for duration.",
 					Action.TEMPBANIP.getPermission() + ".global");
 		}
@@ -242,7 +244,7 @@ public class BanCommand extends CommandHandler {
 
 	public static void handleTempBanCommand(final BATCommand command, final boolean global, final boolean ipBan,
 			final CommandSender sender, final String[] args, final boolean confirmedCmd) {
-		String target = args[0];
+		String target = IPCodec.normalize(args[0]);
 		final long expirationTimestamp = UtilsKt.parseDuration(args[1]);
 		String server = IModule.GLOBAL_SERVER;
 		final String staff = sender.getName();
@@ -280,8 +282,8 @@ public class BanCommand extends CommandHandler {
                 !reason.equalsIgnoreCase(IModule.NO_REASON) ||
 						!BATR.getInstance().getConfiguration().get(Configuration.MUST_GIVE_REASON), i18n.format("noReasonInCommand"));
                 
-		// Check if the target isn't an ip and the player is offline
-		if (!UtilsKt.validIP(target) && player == null && pUUID == null) {
+		// Check if the target isn't an ip nor a range of ips and the player is offline
+		if (!UtilsKt.validIP(target) && !IPRange.isRange(target) && player == null && pUUID == null) {
 			ip = Core.getPlayerIP(target);
 			if (ipBan) {
 				checkArgument(!"0.0.0.0".equals(ip), i18n.format("ipUnknownPlayer"));
@@ -336,7 +338,7 @@ public class BanCommand extends CommandHandler {
 	@RunAsync
 	public static class UnbanIPCmd extends BATCommand {
 		public UnbanIPCmd() {
-			super("unbanip", "<player/ip> [server] [reason]", "Unban IP from the specified server", Action.UNBANIP
+			super("unbanip", "<player/ip/range> [server] [reason]", "Unban IP from the specified server", Action.UNBANIP
 					.getPermission(), "pardonip");
 		}
 
@@ -365,7 +367,7 @@ public class BanCommand extends CommandHandler {
 	@RunAsync
 	public static class GUnbanIPCmd extends BATCommand {
 		public GUnbanIPCmd() {
-			super("gunbanip", "<player/ip> [reason]",
+			super("gunbanip", "<player/ip/range> [reason]",
 					"Unban the player on an IP basis from all servers (the whole network).", Action.UNBANIP
 							.getPermission() + ".global", "gpardonip");
 		}
@@ -379,7 +381,7 @@ public class BanCommand extends CommandHandler {
 
 	public static void handlePardonCommand(final BATCommand command, final boolean global, final boolean ipUnban,
 			final CommandSender sender, final String[] args, final boolean confirmedCmd) {
-		String target = args[0];
+		String target = IPCodec.normalize(args[0]);
 		String server = IModule.ANY_SERVER;
 		final String staff = sender.getName();
 		String reason = IModule.NO_REASON;
@@ -409,8 +411,8 @@ public class BanCommand extends CommandHandler {
                 i18n.format("noReasonInCommand"));
                 
 
-		// Check if the target isn't an ip and the player is offline
-		if (!UtilsKt.validIP(target) && ipUnban) {
+		// Check if the target isn't an ip nor a range of ips and the player is offline
+		if (!UtilsKt.validIP(target) && !IPRange.isRange(target) && ipUnban) {
 			ip = Core.getPlayerIP(target);
 			checkArgument(!"0.0.0.0".equals(ip), i18n.format("ipUnknownPlayer"));
 		}
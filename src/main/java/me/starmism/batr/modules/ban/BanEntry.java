@@ -6,4 +6,7 @@ public record BanEntry(String entity, String server, String reason,
 					   String staff, Timestamp beginDate, Timestamp endDate,
 					   Timestamp unbanDate, String unbanReason, String unbanStaff,
 					   boolean active) {
+	public BanEntry withEntity(final String entity) {
+		return new BanEntry(entity, server, reason, staff, beginDate, endDate, unbanDate, unbanReason, unbanStaff, active);
+	}
 }
\ No newline at end of file
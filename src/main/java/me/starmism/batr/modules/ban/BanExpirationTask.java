@@ -3,57 +3,48 @@ package me.starmism.batr.modules.ban;
 import me.starmism.batr.BATR;
 import me.starmism.batr.database.DataSourceHandler;
 import me.starmism.batr.database.SQLQueries;
-import me.starmism.batr.modules.IModule;
-import net.md_5.bungee.api.ProxyServer;
-import net.md_5.bungee.api.connection.ProxiedPlayer;
+import me.starmism.batr.modules.ban.ActiveBanIndex.ActiveBan;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
- * This task handle the tempban's state update.
+ * This task handle the tempban's state update.<br>
+ * Only the bans which are due, taken from the expiration queue of the active bans index, are updated, using their id.
  */
 public record BanExpirationTask(Ban ban) implements Runnable {
+	// Maximum number of ids put in a single IN (...) clause
+	private static final int MAX_IDS_PER_QUERY = 500;
+	// Delay before the expiration of a chunk whose update failed is attempted again
+	private static final long RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
 
 	@Override
 	public void run() {
-		Statement statement = null;
-		try (Connection conn = BATR.getConnection()) {
-			statement = conn.createStatement();
-			if (DataSourceHandler.isSQLite()) {
-				statement.executeUpdate(SQLQueries.Ban.SQLite.updateExpiredBan);
-			} else {
-				statement.executeUpdate(SQLQueries.Ban.updateExpiredBan);
-			}
-			statement.close();
-		} catch (final SQLException e) {
-			DataSourceHandler.handleException(e);
-		} finally {
-			DataSourceHandler.close(statement);
+		final List<ActiveBan> expiredBans = ban.getActiveBanIndex().pollExpired(System.currentTimeMillis());
+		if (expiredBans.isEmpty()) {
+			return;
 		}
 
-		// Check if the online players are banned (if modifications have been made from the WebInterface)
-		for (final ProxiedPlayer player : ProxyServer.getInstance().getPlayers()) {
-			final List<String> serversToCheck;
-			if (player.getServer() != null) {
-				serversToCheck = Arrays.asList(player.getServer().getInfo().getName(), IModule.GLOBAL_SERVER);
-			} else {
-				serversToCheck = Collections.singletonList(IModule.GLOBAL_SERVER);
-			}
-			for (final String server : serversToCheck) {
-				if (ban.isBan(player, server)) {
-					if (server.equals(player.getPendingConnection().getListener().getDefaultServer()) || server.equals(IModule.GLOBAL_SERVER)) {
-						player.disconnect(ban.getBanMessage(player.getPendingConnection(), server));
-						continue;
-					}
-					player.sendMessage(ban.getBanMessage(player.getPendingConnection(), server));
-					player.connect(ProxyServer.getInstance().getServerInfo(player.getPendingConnection().getListener().getDefaultServer()));
+		for (int i = 0; i < expiredBans.size(); i += MAX_IDS_PER_QUERY) {
+			final List<ActiveBan> chunk = expiredBans.subList(i, Math.min(i + MAX_IDS_PER_QUERY, expiredBans.size()));
+			PreparedStatement statement = null;
+			try (Connection conn = BATR.getConnection()) {
+				statement = conn.prepareStatement(SQLQueries.Ban.expireBans
+						.replace("{ids}", DataSourceHandler.placeholders(chunk.size())));
+				for (int j = 0; j < chunk.size(); j++) {
+					statement.setInt(j + 1, chunk.get(j).id());
 				}
+				statement.executeUpdate();
+			} catch (final SQLException e) {
+				// The bans are still active in the database, so their expiration is attempted again a bit later
+				DataSourceHandler.handleException(e);
+				ban.getActiveBanIndex().retryExpiration(chunk, System.currentTimeMillis() + RETRY_DELAY);
+			} finally {
+				DataSourceHandler.close(statement);
 			}
 		}
 	}
-}
\ No newline at end of file
+}
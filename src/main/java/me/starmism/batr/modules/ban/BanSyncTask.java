@@ -0,0 +1,24 @@
+package me.starmism.batr.modules.ban;
+
+import me.starmism.batr.modules.ban.ActiveBanIndex.ActiveBan;
+
+import java.util.List;
+
+/**
+ * This task applies to the active bans index the modifications made from the WebInterface or from another proxy,
+ * using a single query on the rows updated since its last run, and applies the new bans to the online players
+ * they concern.
+ */
+public record BanSyncTask(Ban ban) implements Runnable {
+
+	@Override
+	public void run() {
+		final List<ActiveBan> newBans = ban.getActiveBanIndex().applyChanges();
+		if (newBans == null) {
+			return;
+		}
+		for (final ActiveBan activeBan : newBans) {
+			ban.enforceBan(activeBan);
+		}
+	}
+}
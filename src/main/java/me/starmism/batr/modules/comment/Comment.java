@@ -4,7 +4,10 @@ import com.google.common.collect.Lists;
 import me.mattstudios.config.SettingsManager;
 import me.starmism.batr.BATR;
 import me.starmism.batr.database.DataSourceHandler;
+import me.starmism.batr.database.Page;
 import me.starmism.batr.database.SQLQueries;
+import me.starmism.batr.database.SchemaMigrator;
+import me.starmism.batr.database.SchemaMigrator.Migration;
 import me.starmism.batr.i18n.I18n;
 import me.starmism.batr.modules.BATCommand;
 import me.starmism.batr.modules.IModule;
@@ -65,6 +68,8 @@ public class Comment implements IModule {
             } else {
                 statement.executeUpdate(SQLQueries.Comments.createTable);
             }
+            SchemaMigrator.migrate(conn, SQLQueries.Comments.table,
+                    new Migration(1, "Staff index", SQLQueries.Comments.addIndexes, SQLQueries.Comments.SQLite.addIndexes));
             statement.close();
         } catch (final SQLException e) {
             DataSourceHandler.handleException(e);
@@ -94,7 +99,7 @@ public class Comment implements IModule {
         List<CommentEntry> notes = Lists.newArrayList();
         PreparedStatement statement = null;
         ResultSet resultSet = null;
-        try (Connection conn = BATR.getConnection()) {
+        try (Connection conn = BATR.getReadConnection()) {
             statement = conn.prepareStatement(DataSourceHandler.isSQLite()
                     ? SQLQueries.Comments.SQLite.getEntries
                     : SQLQueries.Comments.getEntries);
@@ -127,7 +132,7 @@ public class Comment implements IModule {
         List<CommentEntry> notes = Lists.newArrayList();
         PreparedStatement statement = null;
         ResultSet resultSet = null;
-        try (Connection conn = BATR.getConnection()) {
+        try (Connection conn = BATR.getReadConnection()) {
             statement = conn.prepareStatement(DataSourceHandler.isSQLite()
                     ? SQLQueries.Comments.SQLite.getManagedEntries
                     : SQLQueries.Comments.getManagedEntries);
@@ -141,10 +146,10 @@ public class Comment implements IModule {
                 } else {
                     date = resultSet.getTimestamp("date").getTime();
                 }
-                String entity = Core.getPlayerName(resultSet.getString("entity"));
-                if (entity == null) {
-                    entity = "UUID:" + resultSet.getString("entity");
-                }
+                // The names of the players are resolved all at once after reading the rows
+                final String entity = UtilsKt.validIP(resultSet.getString("entity"))
+                        ? resultSet.getString("entity")
+                        : "UUID:" + resultSet.getString("entity");
                 notes.add(new CommentEntry(resultSet.getInt("id"), entity, resultSet.getString("note"),
                         staff, CommentEntry.Type.valueOf(resultSet.getString("type")),
                         date));
@@ -154,9 +159,60 @@ public class Comment implements IModule {
         } finally {
             DataSourceHandler.close(statement, resultSet);
         }
+        Core.resolvePlayerNames(notes, CommentEntry::getEntity, CommentEntry::withEntity);
         return notes;
     }
 
+    /**
+     * Count the notes relative to an entity, or written by a staff
+     *
+     * @param entity      | can be an ip or a player name
+     * @param staffLookup | count the notes written by the entity instead of the notes relative to it
+     */
+    public int countComments(final String entity, final boolean staffLookup) {
+        if (staffLookup) {
+            return Page.count(SQLQueries.Comments.countManagedEntries, 1, entity);
+        }
+        return Page.count(SQLQueries.Comments.countEntries, 1, UtilsKt.validIP(entity) ? entity : Core.getUUID(entity));
+    }
+
+    /**
+     * Get a page of the notes relative to an entity, or written by a staff, the latest first
+     *
+     * @param entity      | can be an ip or a player name
+     * @param staffLookup | read the notes written by the entity instead of the notes relative to it
+     * @param request     | the position and size of the page
+     */
+    public Page<CommentEntry> getCommentPage(final String entity, final boolean staffLookup, final Page.Request request) {
+        final boolean sqlite = DataSourceHandler.isSQLite();
+        if (!staffLookup) {
+            return Page.read(sqlite ? SQLQueries.Comments.SQLite.getEntriesPage : SQLQueries.Comments.getEntriesPage,
+                    SQLQueries.Comments.pageKeys, 1, request,
+                    resultSet -> readComment(resultSet, entity, resultSet.getString("staff")),
+                    UtilsKt.validIP(entity) ? entity : Core.getUUID(entity));
+        }
+        final Page<CommentEntry> page = Page.read(sqlite
+                        ? SQLQueries.Comments.SQLite.getManagedEntriesPage
+                        : SQLQueries.Comments.getManagedEntriesPage,
+                SQLQueries.Comments.pageKeys, 1, request,
+                // The names of the players are resolved all at once after reading the rows
+                resultSet -> readComment(resultSet, UtilsKt.validIP(resultSet.getString("entity"))
+                        ? resultSet.getString("entity")
+                        : "UUID:" + resultSet.getString("entity"), entity),
+                entity);
+        Core.resolvePlayerNames(page.entries(), CommentEntry::getEntity, CommentEntry::withEntity);
+        return page;
+    }
+
+    private static CommentEntry readComment(final ResultSet resultSet, final String entity, final String staff)
+            throws SQLException {
+        final long date = DataSourceHandler.isSQLite()
+                ? resultSet.getLong("strftime('%s',date)") * 1000
+                : resultSet.getTimestamp("date").getTime();
+        return new CommentEntry(resultSet.getInt("id"), entity, resultSet.getString("note"), staff,
+                CommentEntry.Type.valueOf(resultSet.getString("type")), date);
+    }
+
     public void insertComment(final String entity, final String comment, final Type type, final String author) {
         PreparedStatement statement = null;
         try (Connection conn = BATR.getConnection()) {
@@ -49,6 +49,10 @@ public class CommentEntry {
 	public String getFormattedDate(){
 		return Core.defaultDF.format(localTime.getTime());
 	}
+
+	public CommentEntry withEntity(final String entity) {
+		return new CommentEntry(id, entity, content, author, type, localTime.getTimeInMillis());
+	}
 	
 	public enum Type{
 		NOTE,
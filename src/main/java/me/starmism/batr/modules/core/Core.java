@@ -1,87 +1,50 @@
 package me.starmism.batr.modules.core;
 
-import com.google.common.base.Charsets;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.imaginarycode.minecraft.redisbungee.RedisBungee;
 import me.mattstudios.config.SettingsManager;
 import me.starmism.batr.BATR;
 import me.starmism.batr.Configuration;
 import me.starmism.batr.database.DataSourceHandler;
 import me.starmism.batr.database.SQLQueries;
+import me.starmism.batr.database.SchemaMigrator;
+import me.starmism.batr.database.SchemaMigrator.Migration;
 import me.starmism.batr.modules.BATCommand;
 import me.starmism.batr.modules.IModule;
 import me.starmism.batr.utils.EnhancedDateFormat;
-import me.starmism.batr.utils.MojangAPIProviderKt;
+import me.starmism.batr.utils.IPCodec;
+import me.starmism.batr.utils.UUIDCodec;
 import me.starmism.batr.utils.UUIDNotFoundException;
 import me.starmism.batr.utils.UtilsKt;
 import net.md_5.bungee.api.CommandSender;
 import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.PendingConnection;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 import net.md_5.bungee.api.event.PlayerDisconnectEvent;
 import net.md_5.bungee.api.event.PostLoginEvent;
+import net.md_5.bungee.api.event.ServerConnectedEvent;
 import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
 import net.md_5.bungee.event.EventHandler;
+import net.md_5.bungee.event.EventPriority;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public class Core implements IModule, Listener {
 	private List<BATCommand> cmds;
     public static EnhancedDateFormat defaultDF = new EnhancedDateFormat(false);
-    private static final LoadingCache<String, String> uuidCache = CacheBuilder.newBuilder()
-            .maximumSize(10000)
-            .expireAfterAccess(30, TimeUnit.MINUTES)
-            .build(
-                    new CacheLoader<>() {
-                        public String load(final String pName) throws UUIDNotFoundException {
-                            final ProxiedPlayer player = ProxyServer.getInstance().getPlayer(pName);
-                            if (player != null) {
-                                // Note: if it's an offline server, the UUID will be generated using
-                                // this
-                                // function java.util.UUID.nameUUIDFromBytes, however it's an
-                                // premium or cracked account
-                                // Online server : bungee handle great the UUID
-                                return player.getUniqueId().toString().replaceAll("-", "");
-                            }
-
-                            PreparedStatement statement = null;
-                            ResultSet resultSet = null;
-                            String UUID = "";
-                            // Try to get the UUID from the BATR db
-                            try (Connection conn = BATR.getConnection()) {
-                                statement = conn.prepareStatement(SQLQueries.Core.getUUID);
-                                statement.setString(1, pName);
-                                resultSet = statement.executeQuery();
-                                if (resultSet.next()) {
-                                    UUID = resultSet.getString("UUID");
-                                }
-                            } catch (final SQLException e) {
-                                DataSourceHandler.handleException(e);
-                            } finally {
-                                DataSourceHandler.close(statement, resultSet);
-                            }
-
-                            // If online server, retrieve the UUID from the mojang server
-                            if (UUID.isEmpty() && ProxyServer.getInstance().getConfig().isOnlineMode()) {
-                                UUID = MojangAPIProviderKt.getUUID(pName);
-                                if (UUID == null) {
-                                    throw new UUIDNotFoundException(pName);
-                                }
-                            }
-                            // If offline server, generate the UUID
-                            else if (UUID.isEmpty()) {
-                                UUID = java.util.UUID.nameUUIDFromBytes(("OfflinePlayer:" + pName).getBytes(Charsets.UTF_8)).toString().replaceAll("-", "");
-                            }
-
-                            return UUID;
-                        }
-                    });
+    private static final IdentityCache identityCache = new IdentityCache();
+    private static final Map<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+    private final PlayerUpdateQueue playerUpdateQueue = new PlayerUpdateQueue();
+    private ScheduledTask playerUpdateTask;
 
     /**
      * Get the UUID of the specified player
@@ -92,10 +55,10 @@ public class Core implements IModule, Listener {
      */
     public static String getUUID(final String pName) {
         try {
-            return uuidCache.get(pName);
+            return identityCache.getUUID(pName);
         } catch (final Exception e) {
             try {
-                return getUUIDfromString(pName).toString().replaceAll("-", "");
+                return UUIDCodec.toCompact(getUUIDfromString(pName));
             } catch (IllegalArgumentException exception) {
                 if (e.getCause() instanceof UUIDNotFoundException) {
                     throw (UUIDNotFoundException) e.getCause();
@@ -112,9 +75,26 @@ public class Core implements IModule, Listener {
      * @return UUID
      */
     public static UUID getUUIDfromString(final String strUUID) {
-        final String dashesUUID = strUUID.replaceFirst(
-                "([0-9a-fA-F]{8})([0-9a-fA-F]{4})([0-9a-fA-F]{4})([0-9a-fA-F]{4})([0-9a-fA-F]+)", "$1-$2-$3-$4-$5");
-        return UUID.fromString(dashesUUID);
+        return UUIDCodec.parse(strUUID);
+    }
+
+    /**
+     * Get the UUID (without dashes) of a connection. On an offline mode server, the UUID is generated using the player name
+     *
+     * @param pConn
+     * @return String which is the UUID
+     */
+    public static String getConnectionUUID(final PendingConnection pConn) {
+        return UUIDCodec.toCompact(getConnectionUniqueId(pConn));
+    }
+
+    /**
+     * Get the UUID of a connection. On an offline mode server, the UUID is generated using the player name
+     *
+     * @param pConn
+     */
+    public static UUID getConnectionUniqueId(final PendingConnection pConn) {
+        return (pConn.getUniqueId() != null) ? pConn.getUniqueId() : UUIDCodec.offlinePlayer(pConn.getName());
     }
 
     /**
@@ -124,21 +104,71 @@ public class Core implements IModule, Listener {
      * @return player name with this UUID or "unknowName"
      */
     public static String getPlayerName(final String UUID) {
-        PreparedStatement statement = null;
-        ResultSet resultSet = null;
-        try (Connection conn = BATR.getConnection()) {
-            statement = conn.prepareStatement(SQLQueries.Core.getPlayerName);
-            statement.setString(1, UUID);
-            resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                return resultSet.getString("BAT_player");
+        return identityCache.getName(UUID);
+    }
+
+    /**
+     * Get the names of several players at once, i.e to display the result rows of a lookup
+     *
+     * @param UUIDs
+     * @return the name of each UUID, the unknown UUIDs being omitted
+     */
+    public static Map<String, String> getPlayerNames(final Collection<String> UUIDs) {
+        return identityCache.getNames(UUIDs);
+    }
+
+    /**
+     * Replace the "UUID:" placeholders used as entity by the entries of a lookup with the name of the players,
+     * resolved with a few bulk queries instead of one query per entry. The placeholder is kept if the UUID is unknown.
+     *
+     * @param entries    | entries of the lookup, replaced in place
+     * @param entity     | get the entity of an entry
+     * @param withEntity | create a copy of an entry with another entity
+     */
+    public static <T> void resolvePlayerNames(final List<T> entries, final Function<T, String> entity,
+                                              final BiFunction<T, String, T> withEntity) {
+        final List<String> UUIDs = new ArrayList<>();
+        for (final T entry : entries) {
+            if (entity.apply(entry).startsWith("UUID:")) {
+                UUIDs.add(entity.apply(entry).substring(5));
             }
-        } catch (final SQLException e) {
-            DataSourceHandler.handleException(e);
-        } finally {
-            DataSourceHandler.close(statement, resultSet);
         }
-        return null;
+        if (UUIDs.isEmpty()) {
+            return;
+        }
+        final Map<String, String> names = getPlayerNames(UUIDs);
+        entries.replaceAll(entry -> {
+            final String pName = entity.apply(entry).startsWith("UUID:") ? names.get(entity.apply(entry).substring(5)) : null;
+            return (pName != null) ? withEntity.apply(entry, pName) : entry;
+        });
+    }
+
+    /**
+     * Get the session of an online player. It's created when the player joins, or on demand for the players
+     * who were already online when the plugin was loaded.
+     *
+     * @param player
+     */
+    public static PlayerSession getSession(final ProxiedPlayer player) {
+        final PlayerSession session = sessions.get(player.getUniqueId());
+        if (session != null) {
+            return session;
+        }
+        // Don't keep the session of a player who has already left
+        return player.isConnected()
+                ? sessions.computeIfAbsent(player.getUniqueId(), k -> new PlayerSession(player))
+                : new PlayerSession(player);
+    }
+
+    /**
+     * @return the sessions of all the online players
+     */
+    public static Collection<PlayerSession> getSessions() {
+        return sessions.values();
+    }
+
+    public static IdentityCache getIdentityCache() {
+        return identityCache;
     }
 
     public static String getPlayerIP(final String pName) {
@@ -146,13 +176,13 @@ public class Core implements IModule, Listener {
             try {
                 final UUID pUUID = RedisBungee.getApi().getUuidFromName(pName, true);
                 if (pUUID != null && RedisBungee.getApi().isPlayerOnline(pUUID))
-                    return RedisBungee.getApi().getPlayerIp(pUUID).getHostAddress();
+                    return IPCodec.format(RedisBungee.getApi().getPlayerIp(pUUID));
             } catch (Exception exp) {
                 exp.printStackTrace();
             }
         } else {
             final ProxiedPlayer player = ProxyServer.getInstance().getPlayer(pName);
-            if (player != null) return UtilsKt.getPlayerIP(player);
+            if (player != null) return getSession(player).getIP();
         }
 
         PreparedStatement statement = null;
@@ -210,6 +240,10 @@ public class Core implements IModule, Listener {
             } else {
                 statement.executeUpdate(SQLQueries.Core.createTable);
             }
+            SchemaMigrator.migrate(conn, SQLQueries.Core.table,
+                    new Migration(1, "Last ip index", SQLQueries.Core.addIndexes, SQLQueries.Core.SQLite.addIndexes),
+                    new Migration(2, "Canonical IPv6 addresses", new String[0], new String[0],
+                            SchemaMigrator.canonicalizeIPs("UUID", SQLQueries.Core.table, "lastip")));
             statement.close();
         } catch (final SQLException e) {
             DataSourceHandler.handleException(e);
@@ -224,12 +258,20 @@ public class Core implements IModule, Listener {
         // Update the date format (if translation has been changed)
         defaultDF = new EnhancedDateFormat(BATR.getInstance().getConfiguration().get(Configuration.LITERAL_DATE));
 
+        // Write the players updates made on join in batches
+        playerUpdateTask = ProxyServer.getInstance().getScheduler().schedule(BATR.getInstance(), playerUpdateQueue,
+                PlayerUpdateQueue.FLUSH_INTERVAL, PlayerUpdateQueue.FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+
         return true;
     }
 
     @Override
     public boolean unload() {
-
+        if (playerUpdateTask != null) {
+            playerUpdateTask.cancel();
+        }
+        // Write the pending updates before the plugin is disabled
+        playerUpdateQueue.flush();
         return true;
     }
 
@@ -248,41 +290,36 @@ public class Core implements IModule, Listener {
     }
 
     /**
-     * Update the IP and UUID of a player in the database
+     * Update the IP and UUID of a player in the database. The update is queued and written with the other
+     * pending ones by the {@link PlayerUpdateQueue}
      *
      * @param player
      */
     public void updatePlayerIPandUUID(final ProxiedPlayer player) {
-        PreparedStatement statement = null;
-        try (Connection conn = BATR.getConnection()) {
-            final String ip = UtilsKt.getPlayerIP(player);
-            final String UUID = player.getUniqueId().toString().replaceAll("-", "");
-            statement = (DataSourceHandler.isSQLite()) ? conn.prepareStatement(SQLQueries.Core.SQLite.updateIPUUID)
-                    : conn.prepareStatement(SQLQueries.Core.updateIPUUID);
-            statement.setString(1, player.getName());
-            statement.setString(2, ip);
-            statement.setString(3, UUID);
-            statement.setString(4, (DataSourceHandler.isSQLite()) ? UUID : ip);
-            if (!DataSourceHandler.isSQLite()) {
-                statement.setString(5, player.getName());
-            }
-            statement.executeUpdate();
-        } catch (final SQLException e) {
-            DataSourceHandler.handleException(e);
-        } finally {
-            DataSourceHandler.close(statement);
-        }
-
+        final PlayerSession session = getSession(player);
+        identityCache.put(session.getName(), session.getUUID());
+        playerUpdateQueue.enqueue(session.getName(), session.getIP(), session.getUUID());
     }
 
     // Event listener
-    @EventHandler
+    /**
+     * Create the session of the player. It isn't created during the LoginEvent, as a refused login is never followed
+     * by a disconnect event which would remove it.
+     */
+    @EventHandler(priority = EventPriority.LOWEST)
     public void onPlayerJoin(final PostLoginEvent ev) {
-        BATR.getInstance().getProxy().getScheduler().runAsync(BATR.getInstance(), () -> updatePlayerIPandUUID(ev.getPlayer()));
+        sessions.put(ev.getPlayer().getUniqueId(), new PlayerSession(ev.getPlayer()));
+        updatePlayerIPandUUID(ev.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onServerConnected(final ServerConnectedEvent ev) {
+        getSession(ev.getPlayer()).setServer(ev.getServer().getInfo().getName());
     }
 
-    @EventHandler
+    @EventHandler(priority = EventPriority.HIGHEST)
     public void onPlayerLeft(final PlayerDisconnectEvent ev) {
         CommandQueue.clearQueuedCommand(ev.getPlayer());
+        sessions.remove(ev.getPlayer().getUniqueId());
     }
 }
\ No newline at end of file
@@ -2,22 +2,22 @@ package me.starmism.batr.modules.core;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import me.starmism.batr.BATR;
 import me.starmism.batr.Configuration;
 import me.starmism.batr.database.DataSourceHandler;
+import me.starmism.batr.database.DatabaseBackup;
+import me.starmism.batr.database.QueryMetrics;
 import me.starmism.batr.i18n.I18n;
 import me.starmism.batr.modules.BATCommand;
 import me.starmism.batr.modules.IModule;
 import me.starmism.batr.modules.InvalidModuleException;
 import me.starmism.batr.modules.ModulesManager;
-import me.starmism.batr.modules.ban.BanEntry;
-import me.starmism.batr.modules.comment.CommentEntry;
 import me.starmism.batr.modules.core.PermissionManager.Action;
 import me.starmism.batr.modules.core.importer.*;
 import me.starmism.batr.modules.core.importer.Importer.ImportStatus;
-import me.starmism.batr.modules.kick.KickEntry;
-import me.starmism.batr.modules.mute.MuteEntry;
 import me.starmism.batr.utils.CallbackUtils.ProgressCallback;
+import me.starmism.batr.utils.IPCodec;
 import me.starmism.batr.utils.UtilsKt;
 import net.md_5.bungee.api.ChatColor;
 import net.md_5.bungee.api.CommandSender;
@@ -189,6 +189,65 @@ public class CoreCommand extends BATCommand {
         }
     }
 
+    public static class StatsCmd extends BATCommand {
+        private static final int DISPLAYED_CALL_SITES = 10;
+
+        public StatsCmd() {
+            super("stats", "[reset]", "Displays the state of the database connection pool and the time spent by the queries.", "bat.stats");
+        }
+
+        @Override
+        public void onCommand(final CommandSender sender, final String[] args, final boolean confirmedCmd)
+                throws IllegalArgumentException {
+            final DataSourceHandler dsHandler = BATR.getInstance().getDsHandler();
+            final QueryMetrics metrics = dsHandler.getMetrics();
+            if (args.length > 0 && args[0].equalsIgnoreCase("reset")) {
+                checkArgument(metrics != null, "The database metrics are disabled in the configuration.");
+                metrics.reset();
+                sender.sendMessage(BATR.convertStringToComponent("The database metrics have been reset."));
+                return;
+            }
+
+            final HikariPoolMXBean pool = dsHandler.getPoolStats();
+            sender.sendMessage(BATR.convertStringToComponent(String.format(
+                    "&eConnection pool: &a%d&e active, &a%d&e idle, &a%d&e total, &c%d&e waiting",
+                    pool.getActiveConnections(), pool.getIdleConnections(), pool.getTotalConnections(),
+                    pool.getThreadsAwaitingConnection())));
+            final HikariPoolMXBean replicaPool = dsHandler.getReplicaPoolStats();
+            if (replicaPool != null) {
+                sender.sendMessage(BATR.convertStringToComponent(String.format(
+                        "&eRead replica pool: &a%d&e active, &a%d&e idle, &a%d&e total, &c%d&e waiting",
+                        replicaPool.getActiveConnections(), replicaPool.getIdleConnections(),
+                        replicaPool.getTotalConnections(), replicaPool.getThreadsAwaitingConnection())));
+            }
+
+            final IdentityCache identityCache = Core.getIdentityCache();
+            sender.sendMessage(BATR.convertStringToComponent(String.format(
+                    "&eIdentity cache: &a%.1f%%&e uuid hit rate, &a%.1f%%&e name hit rate",
+                    identityCache.getUUIDStats().hitRate() * 100, identityCache.getNameStats().hitRate() * 100)));
+
+            if (metrics == null) {
+                sender.sendMessage(BATR.convertStringToComponent("&eThe database metrics are disabled in the configuration."));
+                return;
+            }
+            final StringBuilder histogram = new StringBuilder("&eConnection acquisition:");
+            final String[] labels = QueryMetrics.getAcquireBucketLabels();
+            final long[] counts = metrics.getAcquireHistogram();
+            for (int i = 0; i < counts.length; i++) {
+                histogram.append(" &f").append(labels[i]).append(" &a").append(counts[i]);
+            }
+            histogram.append(String.format(" &e(max &a%.1fms&e)", metrics.getMaxAcquireMillis()));
+            sender.sendMessage(BATR.convertStringToComponent(histogram.toString()));
+
+            sender.sendMessage(BATR.convertStringToComponent("&eSlowest call sites (calls | avg | max):"));
+            final List<QueryMetrics.CallSiteStats> callSites = metrics.getCallSites();
+            for (final QueryMetrics.CallSiteStats site : callSites.subList(0, Math.min(DISPLAYED_CALL_SITES, callSites.size()))) {
+                sender.sendMessage(BATR.convertStringToComponent(String.format("&f - &9%s &f| &a%d &f| &a%.2fms &f| &a%.2fms",
+                        site.getName(), site.getCount(), site.getAverageMillis(), site.getMaxMillis())));
+            }
+        }
+    }
+
     public static class ReloadCmd extends BATCommand {
         public ReloadCmd() {
             super("reload", "", "Reload the whole plugin", "bat.reload");
@@ -226,7 +285,7 @@ public class CoreCommand extends BATCommand {
         @Override
         public void onCommand(final CommandSender sender, final String[] args, final boolean confirmedCmd)
                 throws IllegalArgumentException {
-            final String entity = args[0];
+            final String entity = IPCodec.normalize(args[0]);
             if (UtilsKt.validIP(entity)) {
                 checkArgument(sender.hasPermission("bat.admin") || sender.hasPermission(Action.LOOKUP.getPermission() + ".ip"), i18n.format("noPerm"));
                 if (args.length == 1) {
@@ -257,9 +316,9 @@ public class CoreCommand extends BATCommand {
                     final List<BaseComponent[]> message;
                     switch (args[1]) {
                         case "ban" -> {
-                            final List<BanEntry> bans = modules.getBanModule().getBanData(entity);
-                            if (!bans.isEmpty()) {
-                                message = lookupFormatter.formatBanLookup(entity, bans, page, false);
+                            final int bans = modules.getBanModule().countBans(entity, false);
+                            if (bans > 0) {
+                                message = lookupFormatter.formatBanLookup(sender.getName(), entity, bans, page, false);
                             } else {
                                 message = new ArrayList<>();
                                 message.add(BATR.convertStringToComponent((!UtilsKt.validIP(entity))
@@ -268,9 +327,9 @@ public class CoreCommand extends BATCommand {
                             }
                         }
                         case "mute" -> {
-                            final List<MuteEntry> mutes = modules.getMuteModule().getMuteData(entity);
-                            if (!mutes.isEmpty()) {
-                                message = lookupFormatter.formatMuteLookup(entity, mutes, page, false);
+                            final int mutes = modules.getMuteModule().countMutes(entity, false);
+                            if (mutes > 0) {
+                                message = lookupFormatter.formatMuteLookup(sender.getName(), entity, mutes, page, false);
                             } else {
                                 message = new ArrayList<>();
                                 message.add(BATR.convertStringToComponent((!UtilsKt.validIP(entity))
@@ -279,9 +338,9 @@ public class CoreCommand extends BATCommand {
                             }
                         }
                         case "kick" -> {
-                            final List<KickEntry> kicks = modules.getKickModule().getKickData(entity);
-                            if (!kicks.isEmpty()) {
-                                message = lookupFormatter.formatKickLookup(entity, kicks, page, false);
+                            final int kicks = modules.getKickModule().countKicks(entity, false);
+                            if (kicks > 0) {
+                                message = lookupFormatter.formatKickLookup(sender.getName(), entity, kicks, page, false);
                             } else {
                                 message = new ArrayList<>();
                                 message.add(BATR.convertStringToComponent((!UtilsKt.validIP(entity))
@@ -290,9 +349,9 @@ public class CoreCommand extends BATCommand {
                             }
                         }
                         case "comment" -> {
-                            final List<CommentEntry> comments = modules.getCommentModule().getComments(entity);
-                            if (!comments.isEmpty()) {
-                                message = lookupFormatter.commentRowLookup(entity, comments, page, false);
+                            final int comments = modules.getCommentModule().countComments(entity, false);
+                            if (comments > 0) {
+                                message = lookupFormatter.commentRowLookup(sender.getName(), entity, comments, page, false);
                             } else {
                                 message = new ArrayList<>();
                                 message.add(BATR.convertStringToComponent((!UtilsKt.validIP(entity))
@@ -300,8 +359,9 @@ public class CoreCommand extends BATCommand {
                                         : "&eThe IP &a" + entity + "&e has no comment."));
                             }
                         }
+                        case "timeline" -> message = lookupFormatter.formatTimelineLookup(entity, page);
                         case "ip" -> {
-                            EntityEntry pDetails = new EntityEntry(entity);
+                            EntityEntry pDetails = EntityEntry.get(entity);
                             String last_ip = pDetails.getLastIP();
                             message = lookupFormatter.getSummaryLookupIP(last_ip);
                         }
@@ -353,36 +413,36 @@ public class CoreCommand extends BATCommand {
                     final List<BaseComponent[]> message;
                     switch (args[1]) {
                         case "ban" -> {
-                            final List<BanEntry> bans = modules.getBanModule().getManagedBan(entity);
-                            if (!bans.isEmpty()) {
-                                message = LookupCmd.getLookupFormatter().formatBanLookup(entity, bans, page, true);
+                            final int bans = modules.getBanModule().countBans(entity, true);
+                            if (bans > 0) {
+                                message = LookupCmd.getLookupFormatter().formatBanLookup(sender.getName(), entity, bans, page, true);
                             } else {
                                 message = new ArrayList<>();
                                 message.add(BATR.convertStringToComponent("&b" + entity + "&e has never performed any operation concerning ban."));
                             }
                         }
                         case "mute" -> {
-                            final List<MuteEntry> mutes = modules.getMuteModule().getManagedMute(entity);
-                            if (!mutes.isEmpty()) {
-                                message = LookupCmd.getLookupFormatter().formatMuteLookup(entity, mutes, page, true);
+                            final int mutes = modules.getMuteModule().countMutes(entity, true);
+                            if (mutes > 0) {
+                                message = LookupCmd.getLookupFormatter().formatMuteLookup(sender.getName(), entity, mutes, page, true);
                             } else {
                                 message = new ArrayList<>();
                                 message.add(BATR.convertStringToComponent("&b" + entity + "&e has never performed any operation concerning mute."));
                             }
                         }
                         case "kick" -> {
-                            final List<KickEntry> kicks = modules.getKickModule().getManagedKick(entity);
-                            if (!kicks.isEmpty()) {
-                                message = LookupCmd.getLookupFormatter().formatKickLookup(entity, kicks, page, true);
+                            final int kicks = modules.getKickModule().countKicks(entity, true);
+                            if (kicks > 0) {
+                                message = LookupCmd.getLookupFormatter().formatKickLookup(sender.getName(), entity, kicks, page, true);
                             } else {
                                 message = new ArrayList<>();
                                 message.add(BATR.convertStringToComponent("&b" + entity + "&e has never performed any operation concerning kick."));
                             }
                         }
                         case "comment" -> {
-                            final List<CommentEntry> comments = modules.getCommentModule().getManagedComments(entity);
-                            if (!comments.isEmpty()) {
-                                message = LookupCmd.getLookupFormatter().commentRowLookup(entity, comments, page, true);
+                            final int comments = modules.getCommentModule().countComments(entity, true);
+                            if (comments > 0) {
+                                message = LookupCmd.getLookupFormatter().commentRowLookup(sender.getName(), entity, comments, page, true);
                             } else {
                                 message = new ArrayList<>();
                                 message.add(BATR.convertStringToComponent("&b" + entity + "&e has never performed any operation concerning comment."));
@@ -486,20 +546,41 @@ public class CoreCommand extends BATCommand {
         }
     }
 
+    @RunAsync
     public static class BackupCmd extends BATCommand {
         public BackupCmd() {
-            super("backup", "", "Backup the BATR's data from the mysql database into a file", "bat.backup");
+            super("backup", "[incremental]", "Backup the BATR's data into a compressed file, incremental only saves what changed since the previous backup", "bat.backup");
+        }
+
+        @Override
+        public void onCommand(final CommandSender sender, final String[] args, final boolean confirmedCmd)
+                throws IllegalArgumentException {
+            final boolean incremental = args.length > 0 && args[0].equalsIgnoreCase("incremental");
+            sender.sendMessage(BATR.convertStringToComponent("Starting " + (incremental ? "incremental " : "") + "backup of BATR datas ..."));
+            new DatabaseBackup(BATR.getInstance().getDataFolder()).backup(incremental,
+                    (result, throwable) -> sender.sendMessage(BATR.convertStringToComponent(result)));
+        }
+    }
+
+    @RunAsync
+    public static class RestoreCmd extends BATCommand {
+        public RestoreCmd() {
+            super("restore", "<fileName>", "Restore a backup made with /bat backup. A full backup replaces all the BATR's data", "bat.backup");
         }
 
         @Override
         public void onCommand(final CommandSender sender, final String[] args, final boolean confirmedCmd)
                 throws IllegalArgumentException {
-            if (DataSourceHandler.isSQLite()) {
-                throw new IllegalArgumentException("You can't backup an SQLite database with this command. "
-                        + "To save an SQLite database just copy and paste the file 'bat_database.db'.");
+            checkArgument(args.length == 1, "You must give the name of the backup file, located in the databaseBackups folder.");
+            if (!confirmedCmd) {
+                final boolean isRestoreSimpleAlias = BATR.getInstance().getConfiguration().get(Configuration.SIMPLE_ALIASES_COMMANDS).get("restore");
+                mustConfirmCommand(sender, ((!isRestoreSimpleAlias) ? "bat " : "") + "restore " + args[0],
+                        "The restoration of a full backup replaces all the BATR's data.");
+                return;
             }
-            sender.sendMessage(BATR.convertStringToComponent("Starting backup of BATR datas ..."));
-            BATR.getInstance().getDsHandler().generateMysqlBackup((result, throwable) -> sender.sendMessage(BATR.convertStringToComponent(result)));
+            sender.sendMessage(BATR.convertStringToComponent("Starting restoration of " + args[0] + " ..."));
+            new DatabaseBackup(BATR.getInstance().getDataFolder()).restore(args[0],
+                    (result, throwable) -> sender.sendMessage(BATR.convertStringToComponent(result)));
         }
     }
 
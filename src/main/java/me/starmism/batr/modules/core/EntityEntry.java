@@ -1,6 +1,7 @@
 package me.starmism.batr.modules.core;
 
 import me.starmism.batr.BATR;
+import me.starmism.batr.Configuration;
 import me.starmism.batr.database.DataSourceHandler;
 import me.starmism.batr.database.SQLQueries;
 import me.starmism.batr.modules.ModulesManager;
@@ -16,6 +17,13 @@ import net.md_5.bungee.api.connection.ProxiedPlayer;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Summit all type of information available with the plugin about a specific
@@ -27,6 +35,7 @@ public class EntityEntry {
 
     private final String entity;
 
+    // Each list is filled by a single query, the join of the queries making them visible to the caller
     private final List<BanEntry> bans = new ArrayList<>();
     private final List<MuteEntry> mutes = new ArrayList<>();
     private final List<KickEntry> kicks = new ArrayList<>();
@@ -36,92 +45,164 @@ public class EntityEntry {
     private Timestamp lastLogin;
     private String lastIP = "0.0.0.0";
     private boolean exist = true;
-    private boolean player = false;
+    private final boolean player;
 
-    public EntityEntry(final String entity) {
+    private EntityEntry(final String entity) {
         this.entity = entity;
+        player = !UtilsKt.validIP(entity);
+    }
 
-        // This is a player
-        if (!UtilsKt.validIP(entity)) {
-            // Get players basic information (first/last login, last ip)
-            player = true;
-            PreparedStatement statement = null;
-            ResultSet resultSet = null;
-            try (Connection conn = BATR.getConnection()) {
-                statement = (DataSourceHandler.isSQLite()) ? conn
-                        .prepareStatement(SQLQueries.Core.SQLite.getPlayerData) : conn
-                        .prepareStatement(SQLQueries.Core.getPlayerData);
-                statement.setString(1, Core.getUUID(entity));
-
-                resultSet = statement.executeQuery();
-
-                if (resultSet.next()) {
-                    if (DataSourceHandler.isSQLite()) {
-                        firstLogin = new Timestamp(resultSet.getLong("strftime('%s',firstlogin)") * 1000);
-                        lastLogin = new Timestamp(resultSet.getLong("strftime('%s',lastlogin)") * 1000);
-                    } else {
-                        firstLogin = resultSet.getTimestamp("firstlogin");
-                        lastLogin = resultSet.getTimestamp("lastlogin");
-                    }
-                    final ProxiedPlayer player = ProxyServer.getInstance().getPlayer(entity);
-                    if (player != null) {
-                        lastIP = UtilsKt.getPlayerIP(player);
-                    } else {
-                        lastIP = resultSet.getString("lastip");
-                    }
-                }
-                if (firstLogin == null) {
-                    firstLogin = noDateFound;
-                }
-                if (lastLogin == null) {
-                    lastLogin = noDateFound;
-                }
-            } catch (final SQLException e) {
-                DataSourceHandler.handleException(e);
-            } finally {
-                DataSourceHandler.close(statement, resultSet);
-            }
+    /**
+     * Load all the information about an entity. The player data and the history of each module are read concurrently,
+     * on the query executor of the database, so the loading takes as long as the slowest query instead of their sum.
+     *
+     * @param entity  | a player name or an ip
+     * @param queries | the queries of the lookup, to cancel them if it times out (cf {@link #await(CompletableFuture, LookupQueries)})
+     * @throws IllegalArgumentException if the database is overloaded
+     */
+    public static CompletableFuture<EntityEntry> load(final String entity, final LookupQueries queries) {
+        final Executor executor = BATR.getInstance().getDsHandler().getQueryExecutor();
+        final ModulesManager modules = BATR.getInstance().getModules();
+        final EntityEntry entry = new EntityEntry(entity);
+        final List<CompletableFuture<?>> loads = new ArrayList<>();
+
+        final CompletableFuture<Void> basicData = queries.run(entry.player ? entry::loadPlayerData : entry::loadIPUsers);
+        loads.add(basicData);
+        if (modules.isLoaded("ban")) {
+            loads.add(queries.supply(() -> modules.getBanModule().getBanData(entity, true))
+                    .thenAccept(entry.bans::addAll));
+        }
+        if (modules.isLoaded("mute")) {
+            loads.add(queries.supply(() -> modules.getMuteModule().getMuteData(entity, true))
+                    .thenAccept(entry.mutes::addAll));
+        }
+        // No ip kick. The kicks of an ip without users are still read, as this is how an unknown ip is detected
+        if (modules.isLoaded("kick")) {
+            final CompletableFuture<Void> kicks = entry.player
+                    ? queries.run(() -> entry.kicks.addAll(modules.getKickModule().getKickData(entity, true)))
+                    : queries.add(basicData.thenRunAsync(() -> {
+                        if (entry.ipUsers.isEmpty()) {
+                            entry.kicks.addAll(modules.getKickModule().getKickData(entity, true));
+                        }
+                    }, executor));
+            loads.add(kicks);
+        }
+        if (modules.isLoaded("comment")) {
+            loads.add(queries.supply(() -> modules.getCommentModule().getComments(entity))
+                    .thenAccept(entry.comments::addAll));
         }
 
-        // This is an ip
-        else {
-            // Get users from this ip
-            PreparedStatement statement = null;
-            ResultSet resultSet = null;
-            try (Connection conn = BATR.getConnection()) {
-                statement = conn.prepareStatement(SQLQueries.Core.getIpUsers);
-                statement.setString(1, entity);
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).handle((ignored, throwable) -> {
+            if (throwable != null) {
+                final Throwable cause = (throwable instanceof CompletionException) ? throwable.getCause() : throwable;
+                if (!(cause instanceof UUIDNotFoundException)) {
+                    throw new CompletionException(cause);
+                }
+                entry.exist = false;
+            }
+            return entry;
+        });
+    }
 
-                resultSet = statement.executeQuery();
+    /**
+     * Load all the information about an entity and wait for them, at most for the configured lookup timeout <br>
+     * <b>Should be run async</b>
+     *
+     * @param entity | a player name or an ip
+     * @throws IllegalArgumentException if the loading takes too long or if the database is overloaded
+     */
+    public static EntityEntry get(final String entity) {
+        final LookupQueries queries = new LookupQueries();
+        return await(load(entity, queries), queries);
+    }
 
-                while (resultSet.next()) {
-                    ipUsers.add(resultSet.getString("BAT_player"));
-                }
-            } catch (final SQLException e) {
-                DataSourceHandler.handleException(e);
-            } finally {
-                DataSourceHandler.close(statement, resultSet);
+    /**
+     * Wait for the result of a lookup, at most for the configured lookup timeout
+     *
+     * @param queries | the queries of the lookup, cancelled if it takes too long
+     * @throws IllegalArgumentException if the lookup takes too long or if the database is overloaded
+     */
+    public static <T> T await(final CompletableFuture<T> lookup, final LookupQueries queries) {
+        try {
+            return lookup.get(BATR.getInstance().getConfiguration().get(Configuration.LOOKUP_TIMEOUT), TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            queries.cancel();
+            lookup.cancel(false);
+            throw new IllegalArgumentException("The lookup took too long, the database may be overloaded. Please try again later.");
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queries.cancel();
+            throw new IllegalArgumentException("The lookup has been interrupted.");
+        } catch (final ExecutionException e) {
+            // A query started from another one is only rejected once the first one is done
+            if (e.getCause() instanceof RejectedExecutionException) {
+                queries.cancel();
+                throw LookupQueries.overloaded();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new RuntimeException(e.getCause());
         }
+    }
 
-        // Load the data related to this entity of each modules
-        final ModulesManager modules = BATR.getInstance().getModules();
-        try {
-            if (modules.isLoaded("ban")) {
-                bans.addAll(modules.getBanModule().getBanData(entity));
+    // Get players basic information (first/last login, last ip)
+    private void loadPlayerData() {
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try (Connection conn = BATR.getReadConnection()) {
+            statement = (DataSourceHandler.isSQLite()) ? conn
+                    .prepareStatement(SQLQueries.Core.SQLite.getPlayerData) : conn
+                    .prepareStatement(SQLQueries.Core.getPlayerData);
+            statement.setString(1, Core.getUUID(entity));
+
+            resultSet = statement.executeQuery();
+
+            if (resultSet.next()) {
+                if (DataSourceHandler.isSQLite()) {
+                    firstLogin = new Timestamp(resultSet.getLong("strftime('%s',firstlogin)") * 1000);
+                    lastLogin = new Timestamp(resultSet.getLong("strftime('%s',lastlogin)") * 1000);
+                } else {
+                    firstLogin = resultSet.getTimestamp("firstlogin");
+                    lastLogin = resultSet.getTimestamp("lastlogin");
+                }
+                final ProxiedPlayer player = ProxyServer.getInstance().getPlayer(entity);
+                if (player != null) {
+                    lastIP = UtilsKt.getPlayerIP(player);
+                } else {
+                    lastIP = resultSet.getString("lastip");
+                }
             }
-            if (modules.isLoaded("mute")) {
-                mutes.addAll(modules.getMuteModule().getMuteData(entity));
+        } catch (final SQLException e) {
+            DataSourceHandler.handleException(e);
+        } finally {
+            DataSourceHandler.close(statement, resultSet);
+            if (firstLogin == null) {
+                firstLogin = noDateFound;
             }
-            // No ip kick
-            if (modules.isLoaded("kick") && ipUsers.isEmpty()) {
-                kicks.addAll(modules.getKickModule().getKickData(entity));
+            if (lastLogin == null) {
+                lastLogin = noDateFound;
             }
-            if (modules.isLoaded("comment")) {
-                comments.addAll(modules.getCommentModule().getComments(entity));
+        }
+    }
+
+    // Get users from this ip
+    private void loadIPUsers() {
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try (Connection conn = BATR.getReadConnection()) {
+            statement = conn.prepareStatement(SQLQueries.Core.getIpUsers);
+            statement.setString(1, entity);
+
+            resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+                ipUsers.add(resultSet.getString("BAT_player"));
             }
-        } catch (final UUIDNotFoundException e) {
-            exist = false;
+        } catch (final SQLException e) {
+            DataSourceHandler.handleException(e);
+        } finally {
+            DataSourceHandler.close(statement, resultSet);
         }
     }
 
@@ -0,0 +1,172 @@
+package me.starmism.batr.modules.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import me.starmism.batr.BATR;
+import me.starmism.batr.database.DataSourceHandler;
+import me.starmism.batr.database.SQLQueries;
+import me.starmism.batr.utils.MojangAPIProviderKt;
+import me.starmism.batr.utils.UUIDCodec;
+import me.starmism.batr.utils.UUIDNotFoundException;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the player names and UUIDs (without dashes), in both directions. <br>
+ * Each time a name/UUID pair is known for sure (a player logs in, a row of the players table is read),
+ * it's put in both caches, so that the lookups displaying the name of the sanctioned players don't need to query
+ * the players table for each row. The hit and miss counts of both caches are recorded.
+ */
+public class IdentityCache {
+    // Maximum number of UUIDs put in a single IN (...) clause
+    private static final int MAX_UUIDS_PER_QUERY = 250;
+    private final LoadingCache<String, String> uuids = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .recordStats()
+            .build(new CacheLoader<>() {
+                public String load(final String pName) throws UUIDNotFoundException {
+                    return loadUUID(pName);
+                }
+            });
+    private final Cache<String, String> names = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+
+    /**
+     * Store a name/UUID pair known for sure
+     *
+     * @param pName
+     * @param uuid  | UUID without dashes
+     */
+    public void put(final String pName, final String uuid) {
+        uuids.put(pName, uuid);
+        names.put(uuid, pName);
+    }
+
+    /**
+     * Get the UUID of a player, using the BATR database or the Mojang API if it isn't cached
+     *
+     * @param pName
+     * @return UUID without dashes
+     * @throws ExecutionException if the UUID couldn't be found
+     */
+    public String getUUID(final String pName) throws ExecutionException {
+        return uuids.get(pName);
+    }
+
+    /**
+     * Get the name of a player, using the BATR database if it isn't cached
+     *
+     * @param uuid | UUID without dashes
+     * @return player name or null if this UUID isn't in the database
+     */
+    public String getName(final String uuid) {
+        return getNames(Collections.singletonList(uuid)).get(uuid);
+    }
+
+    /**
+     * Get the names of several players at once, the uncached ones being fetched with chunked queries
+     *
+     * @param uuids | UUIDs without dashes
+     * @return the name of each UUID, the UUIDs which aren't in the database being omitted
+     */
+    public Map<String, String> getNames(final Collection<String> uuids) {
+        final Set<String> distinctUUIDs = new HashSet<>(uuids);
+        distinctUUIDs.remove(null);
+        final Map<String, String> result = new HashMap<>(names.getAllPresent(distinctUUIDs));
+        final List<String> missing = new ArrayList<>(distinctUUIDs);
+        missing.removeAll(result.keySet());
+
+        for (int i = 0; i < missing.size(); i += MAX_UUIDS_PER_QUERY) {
+            final List<String> chunk = missing.subList(i, Math.min(i + MAX_UUIDS_PER_QUERY, missing.size()));
+            PreparedStatement statement = null;
+            ResultSet resultSet = null;
+            try (Connection conn = BATR.getConnection()) {
+                statement = conn.prepareStatement(SQLQueries.Core.getPlayerNames
+                        .replace("{uuids}", DataSourceHandler.placeholders(chunk.size())));
+                for (int j = 0; j < chunk.size(); j++) {
+                    statement.setString(j + 1, chunk.get(j));
+                }
+                resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    final String uuid = resultSet.getString("UUID");
+                    final String pName = resultSet.getString("BAT_player");
+                    put(pName, uuid);
+                    result.put(uuid, pName);
+                }
+            } catch (final SQLException e) {
+                DataSourceHandler.handleException(e);
+            } finally {
+                DataSourceHandler.close(statement, resultSet);
+            }
+        }
+        return result;
+    }
+
+    public CacheStats getUUIDStats() {
+        return uuids.stats();
+    }
+
+    public CacheStats getNameStats() {
+        return names.stats();
+    }
+
+    private String loadUUID(final String pName) throws UUIDNotFoundException {
+        final ProxiedPlayer player = ProxyServer.getInstance().getPlayer(pName);
+        if (player != null) {
+            // Note: if it's an offline server, the UUID will be generated using
+            // this
+            // function java.util.UUID.nameUUIDFromBytes, however it's an
+            // premium or cracked account
+            // Online server : bungee handle great the UUID
+            final String uuid = UUIDCodec.toCompact(player.getUniqueId());
+            names.put(uuid, player.getName());
+            return uuid;
+        }
+
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        String UUID = "";
+        // Try to get the UUID from the BATR db
+        try (Connection conn = BATR.getConnection()) {
+            statement = conn.prepareStatement(SQLQueries.Core.getUUID);
+            statement.setString(1, pName);
+            resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                UUID = resultSet.getString("UUID");
+            }
+        } catch (final SQLException e) {
+            DataSourceHandler.handleException(e);
+        } finally {
+            DataSourceHandler.close(statement, resultSet);
+        }
+
+        // If online server, retrieve the UUID from the mojang server
+        if (UUID.isEmpty() && ProxyServer.getInstance().getConfig().isOnlineMode()) {
+            UUID = MojangAPIProviderKt.getUUID(pName);
+            if (UUID == null) {
+                throw new UUIDNotFoundException(pName);
+            }
+        }
+        // If offline server, generate the UUID
+        else if (UUID.isEmpty()) {
+            UUID = UUIDCodec.toCompact(UUIDCodec.offlinePlayer(pName));
+        }
+
+        return UUID;
+    }
+}
@@ -0,0 +1,43 @@
+package me.starmism.batr.modules.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import me.starmism.batr.database.Page;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Remember the cursor where each page of a lookup ends, so that the next page asked by the same sender is read from it
+ * instead of skipping all the previous rows. <br>
+ * A page which hasn't been reached that way (the first one, or a page number typed directly) is read with an offset.
+ */
+class LookupCursors {
+    private final Cache<String, Object[]> cursors = CacheBuilder.newBuilder()
+            .expireAfterWrite(10, TimeUnit.MINUTES).maximumSize(1000).build();
+
+    /**
+     * Read a page of a lookup and remember the cursor of the next one
+     *
+     * @param sender | name of the sender of the lookup
+     * @param lookup | identify the lookup, i.e its module, entity and type
+     * @param page   | number of the page, starting at 1
+     * @param size   | number of entries per page
+     * @param reader | read the page from the database
+     */
+    <T> Page<T> read(final String sender, final String lookup, final int page, final int size,
+                     final Function<Page.Request, Page<T>> reader) {
+        final Object[] cursor = (page > 1) ? cursors.getIfPresent(key(sender, lookup, page)) : null;
+        final Page<T> result = reader.apply((cursor != null)
+                ? Page.Request.after(cursor, size)
+                : Page.Request.at((page - 1) * size, size));
+        if (result.nextCursor() != null) {
+            cursors.put(key(sender, lookup, page + 1), result.nextCursor());
+        }
+        return result;
+    }
+
+    private static String key(final String sender, final String lookup, final int page) {
+        return sender + '|' + lookup + '|' + page;
+    }
+}
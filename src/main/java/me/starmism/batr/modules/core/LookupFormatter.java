@@ -21,6 +21,7 @@ import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.config.ServerInfo;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,6 +29,7 @@ import java.util.regex.Pattern;
 public class LookupFormatter {
     private static final int entriesPerPage = 15;
     private final ModulesManager modules;
+    private final LookupCursors cursors = new LookupCursors();
     private final String lookupHeader;
     private final String lookupFooter;
     private final I18n i18n;
@@ -40,8 +42,14 @@ public class LookupFormatter {
     }
 
     public List<BaseComponent[]> getSummaryLookupPlayer(final String pName, final boolean displayIP) {
-        // Gather players data related to each modules
-        final EntityEntry pDetails = new EntityEntry(pName);
+        // Gather players data related to each modules, the data of his ip being loaded at the same time
+        final LookupQueries queries = new LookupQueries();
+        final CompletableFuture<EntityEntry> playerLoad = EntityEntry.load(pName, queries);
+        final CompletableFuture<EntityEntry> ipLoad = queries.supply(() -> Core.getPlayerIP(pName))
+                .thenCompose(ip -> EntityEntry.load(ip, queries));
+        // Both are awaited at once so that the whole lookup is bounded by the timeout, their errors are thrown below
+        EntityEntry.await(CompletableFuture.allOf(playerLoad, ipLoad).handle((ignored, throwable) -> null), queries);
+        final EntityEntry pDetails = EntityEntry.await(playerLoad, queries);
 
         if (!pDetails.exist()) {
             final List<BaseComponent[]> returnedMsg = new ArrayList<>();
@@ -49,7 +57,7 @@ public class LookupFormatter {
             return returnedMsg;
         }
 
-        final EntityEntry ipDetails = new EntityEntry(Core.getPlayerIP(pName));
+        final EntityEntry ipDetails = EntityEntry.await(ipLoad, queries);
         boolean isBan = false;
         boolean isBanIP = false;
         int bansNumber = 0;
@@ -212,7 +220,7 @@ public class LookupFormatter {
     }
 
     public List<BaseComponent[]> getSummaryLookupIP(final String ip) {
-        final EntityEntry ipDetails = new EntityEntry(ip);
+        final EntityEntry ipDetails = EntityEntry.get(ip);
         if (!ipDetails.exist()) {
             final List<BaseComponent[]> returnedMsg = new ArrayList<>();
             returnedMsg.add(i18n.formatPrefix("unknownIp"));
@@ -287,7 +295,7 @@ public class LookupFormatter {
         int comments_number = 0;
         int warnings_number = 0;
         if (modules.isLoaded("ban")) {
-            for (final BanEntry ban : modules.getBanModule().getManagedBan(staff)) {
+            for (final BanEntry ban : modules.getBanModule().getManagedBan(staff, true)) {
                 if (staff.equalsIgnoreCase(ban.staff())) {
                     bans_number++;
                 }
@@ -297,7 +305,7 @@ public class LookupFormatter {
             }
         }
         if (modules.isLoaded("mute")) {
-            for (final MuteEntry mute : modules.getMuteModule().getManagedMute(staff)) {
+            for (final MuteEntry mute : modules.getMuteModule().getManagedMute(staff, true)) {
                 if (staff.equalsIgnoreCase(mute.staff())) {
                     mutes_number++;
                 }
@@ -307,7 +315,7 @@ public class LookupFormatter {
             }
         }
         if (modules.isLoaded("kick")) {
-            for (final KickEntry kick : modules.getKickModule().getManagedKick(staff)) {
+            for (final KickEntry kick : modules.getKickModule().getManagedKick(staff, true)) {
                 if (staff.equalsIgnoreCase(kick.staff())) {
                     kicks_number++;
                 }
@@ -335,24 +343,16 @@ public class LookupFormatter {
         ));
     }
 
-    public List<BaseComponent[]> formatBanLookup(final String entity, final List<BanEntry> bans,
+    public List<BaseComponent[]> formatBanLookup(final String sender, final String entity, final int total,
                                                  int page, final boolean staffLookup) throws InvalidModuleException {
         final StringBuilder msg = new StringBuilder();
 
-        int totalPages = (int) Math.ceil((double) bans.size() / entriesPerPage);
-        if (bans.size() > entriesPerPage) {
-            if (page > totalPages) {
-                page = totalPages;
-            }
-            int beginIndex = (page - 1) * entriesPerPage;
-            int endIndex = Math.min(beginIndex + entriesPerPage, bans.size());
-            for (int i = bans.size() - 1; i > 0; i--) {
-                if (i >= beginIndex && i < endIndex) {
-                    continue;
-                }
-                bans.remove(i);
-            }
+        final int totalPages = (int) Math.ceil((double) total / entriesPerPage);
+        if (page > totalPages) {
+            page = totalPages;
         }
+        final List<BanEntry> bans = cursors.read(sender, "ban|" + staffLookup + '|' + entity, page, entriesPerPage,
+                request -> modules.getBanModule().getBanPage(entity, staffLookup, request)).entries();
         msg.append(lookupHeader.replace("{entity}", entity).replace("{module}", "Ban")
                 .replace("{page}", page + "/" + totalPages));
 
@@ -370,8 +370,9 @@ public class LookupFormatter {
             final Iterator<BanEntry> it = bans.iterator();
             while (it.hasNext()) {
                 final BanEntry ban = it.next();
+                // The entries are sorted by date, so the active ones can be anywhere in the page
                 if (!ban.active()) {
-                    break;
+                    continue;
                 }
                 final String begin = Core.defaultDF.format(ban.beginDate());
                 final String server = ban.server();
@@ -431,24 +432,16 @@ public class LookupFormatter {
         return FormatUtilsKt.formatNewLine(ChatColor.translateAlternateColorCodes('&', msg.toString()));
     }
 
-    public List<BaseComponent[]> formatMuteLookup(final String entity, final List<MuteEntry> mutes,
+    public List<BaseComponent[]> formatMuteLookup(final String sender, final String entity, final int total,
                                                   int page, final boolean staffLookup) throws InvalidModuleException {
         final StringBuilder msg = new StringBuilder();
 
-        int totalPages = (int) Math.ceil((double) mutes.size() / entriesPerPage);
-        if (mutes.size() > entriesPerPage) {
-            if (page > totalPages) {
-                page = totalPages;
-            }
-            int beginIndex = (page - 1) * entriesPerPage;
-            int endIndex = Math.min(beginIndex + entriesPerPage, mutes.size());
-            for (int i = mutes.size() - 1; i > 0; i--) {
-                if (i >= beginIndex && i < endIndex) {
-                    continue;
-                }
-                mutes.remove(i);
-            }
+        final int totalPages = (int) Math.ceil((double) total / entriesPerPage);
+        if (page > totalPages) {
+            page = totalPages;
         }
+        final List<MuteEntry> mutes = cursors.read(sender, "mute|" + staffLookup + '|' + entity, page, entriesPerPage,
+                request -> modules.getMuteModule().getMutePage(entity, staffLookup, request)).entries();
         msg.append(lookupHeader.replace("{entity}", entity).replace("{module}", "Mute")
                 .replace("{page}", page + "/" + totalPages));
 
@@ -466,8 +459,9 @@ public class LookupFormatter {
             final Iterator<MuteEntry> it = mutes.iterator();
             while (it.hasNext()) {
                 final MuteEntry mute = it.next();
+                // Sorted by date, an active mute may come after archived ones
                 if (!mute.active()) {
-                    break;
+                    continue;
                 }
                 final String begin = Core.defaultDF.format(mute.beginDate());
                 final String server = mute.server();
@@ -527,24 +521,16 @@ public class LookupFormatter {
         return FormatUtilsKt.formatNewLine(ChatColor.translateAlternateColorCodes('&', msg.toString()));
     }
 
-    public List<BaseComponent[]> formatKickLookup(final String entity, final List<KickEntry> kicks,
+    public List<BaseComponent[]> formatKickLookup(final String sender, final String entity, final int total,
                                                   int page, final boolean staffLookup) throws InvalidModuleException {
         final StringBuilder msg = new StringBuilder();
 
-        int totalPages = (int) Math.ceil((double) kicks.size() / entriesPerPage);
-        if (kicks.size() > entriesPerPage) {
-            if (page > totalPages) {
-                page = totalPages;
-            }
-            int beginIndex = (page - 1) * entriesPerPage;
-            int endIndex = Math.min(beginIndex + entriesPerPage, kicks.size());
-            for (int i = kicks.size() - 1; i > 0; i--) {
-                if (i >= beginIndex && i < endIndex) {
-                    continue;
-                }
-                kicks.remove(i);
-            }
+        final int totalPages = (int) Math.ceil((double) total / entriesPerPage);
+        if (page > totalPages) {
+            page = totalPages;
         }
+        final List<KickEntry> kicks = cursors.read(sender, "kick|" + staffLookup + '|' + entity, page, entriesPerPage,
+                request -> modules.getKickModule().getKickPage(entity, staffLookup, request)).entries();
         msg.append(lookupHeader.replace("{entity}", entity).replace("{module}", "Kick")
                 .replace("{page}", page + "/" + totalPages));
 
@@ -571,25 +557,17 @@ public class LookupFormatter {
         return FormatUtilsKt.formatNewLine(ChatColor.translateAlternateColorCodes('&', msg.toString()));
     }
 
-    public List<BaseComponent[]> commentRowLookup(final String entity, final List<CommentEntry> comments,
+    public List<BaseComponent[]> commentRowLookup(final String sender, final String entity, final int total,
                                                   int page, final boolean staffLookup) throws InvalidModuleException {
         {
             final StringBuilder msg = new StringBuilder();
 
-            int totalPages = (int) Math.ceil((double) comments.size() / entriesPerPage);
-            if (comments.size() > entriesPerPage) {
-                if (page > totalPages) {
-                    page = totalPages;
-                }
-                int beginIndex = (page - 1) * entriesPerPage;
-                int endIndex = Math.min(beginIndex + entriesPerPage, comments.size());
-                for (int i = comments.size() - 1; i > 0; i--) {
-                    if (i >= beginIndex && i < endIndex) {
-                        continue;
-                    }
-                    comments.remove(i);
-                }
+            final int totalPages = (int) Math.ceil((double) total / entriesPerPage);
+            if (page > totalPages) {
+                page = totalPages;
             }
+            final List<CommentEntry> comments = cursors.read(sender, "comment|" + staffLookup + '|' + entity, page, entriesPerPage,
+                    request -> modules.getCommentModule().getCommentPage(entity, staffLookup, request)).entries();
             msg.append(lookupHeader.replace("{entity}", entity).replace("{module}", "Comment")
                     .replace("{page}", page + "/" + totalPages));
 
@@ -614,4 +592,87 @@ public class LookupFormatter {
             return FormatUtilsKt.formatNewLine(ChatColor.translateAlternateColorCodes('&', msg.toString()));
         }
     }
+
+    /**
+     * Format a page of the timeline of an entity, i.e its bans, mutes, kicks and comments merged by date <br>
+     * <b>Should be run async</b>
+     *
+     * @param entity | a player name or an ip
+     * @param page   | number of the page, starting at 1
+     */
+    public List<BaseComponent[]> formatTimelineLookup(final String entity, int page) {
+        final StringBuilder msg = new StringBuilder();
+        final boolean player = !UtilsKt.validIP(entity);
+        final Timeline<String> timeline = new Timeline<>();
+        int total = 0;
+        if (modules.isLoaded("ban")) {
+            total += modules.getBanModule().countBans(entity, false);
+            timeline.add(request -> modules.getBanModule().getBanPage(entity, false, request),
+                    ban -> ban.beginDate().getTime(), this::banTimelineRow);
+        }
+        if (modules.isLoaded("mute")) {
+            total += modules.getMuteModule().countMutes(entity, false);
+            timeline.add(request -> modules.getMuteModule().getMutePage(entity, false, request),
+                    mute -> mute.beginDate().getTime(), this::muteTimelineRow);
+        }
+        // No ip kick
+        if (player && modules.isLoaded("kick")) {
+            total += modules.getKickModule().countKicks(entity, false);
+            timeline.add(request -> modules.getKickModule().getKickPage(entity, false, request),
+                    kick -> kick.date().getTime(), kick -> "&c[Kick] " + i18n.format("kickLookupRow",
+                            new String[]{Core.defaultDF.format(kick.date()), kick.server(), kick.reason(), kick.staff()}));
+        }
+        if (modules.isLoaded("comment")) {
+            total += modules.getCommentModule().countComments(entity, false);
+            timeline.add(request -> modules.getCommentModule().getCommentPage(entity, false, request),
+                    comm -> comm.getDate().getTimeInMillis(), comm -> "&7[Comment] " + i18n.format("commentRow",
+                            new String[]{String.valueOf(comm.getID()),
+                                    (comm.getType() == Type.NOTE) ? "&eComment" : "&cWarning", comm.getContent(),
+                                    comm.getFormattedDate(), comm.getAuthor()}));
+        }
+
+        if (total == 0) {
+            final List<BaseComponent[]> returnedMsg = new ArrayList<>();
+            returnedMsg.add(BATR.convertStringToComponent(player
+                    ? "&eThe player &a" + entity + "&e has no history."
+                    : "&eThe IP &a" + entity + "&e has no history."));
+            return returnedMsg;
+        }
+
+        final int totalPages = (int) Math.ceil((double) total / entriesPerPage);
+        if (page > totalPages) {
+            page = totalPages;
+        }
+        msg.append(lookupHeader.replace("{entity}", entity).replace("{module}", "Timeline")
+                .replace("{page}", page + "/" + totalPages));
+        for (final String row : timeline.read((page - 1) * entriesPerPage, entriesPerPage)) {
+            msg.append("\n").append(row);
+        }
+        msg.append(lookupFooter.replace("{entity}", entity).replace("{module}", "Timeline")
+                .replace("{page}", page + "/" + totalPages));
+
+        return FormatUtilsKt.formatNewLine(ChatColor.translateAlternateColorCodes('&', msg.toString()));
+    }
+
+    private String banTimelineRow(final BanEntry ban) {
+        final String begin = Core.defaultDF.format(ban.beginDate());
+        if (ban.active()) {
+            return "&4[Ban] " + i18n.format("activeBanLookupRow", new String[]{begin, ban.server(), ban.reason(),
+                    ban.staff(), (ban.endDate() == null) ? "Permanent Ban" : Core.defaultDF.format(ban.endDate())});
+        }
+        return "&4[Ban] " + i18n.format("archiveBanLookupRow", new String[]{begin, ban.server(), ban.reason(), ban.staff(),
+                Core.defaultDF.format((ban.endDate() == null) ? ban.unbanDate() : ban.endDate()), ban.unbanReason(),
+                (ban.unbanStaff() == null) ? "Tempban" : ban.unbanStaff()});
+    }
+
+    private String muteTimelineRow(final MuteEntry mute) {
+        final String begin = Core.defaultDF.format(mute.beginDate());
+        if (mute.active()) {
+            return "&6[Mute] " + i18n.format("activeMuteLookupRow", new String[]{begin, mute.server(), mute.reason(),
+                    mute.staff(), (mute.endDate() == null) ? "permanent mute" : Core.defaultDF.format(mute.endDate())});
+        }
+        return "&6[Mute] " + i18n.format("archiveMuteLookupRow", new String[]{begin, mute.server(), mute.reason(), mute.staff(),
+                Core.defaultDF.format((mute.unmuteDate() == null) ? mute.endDate() : mute.unmuteDate()), mute.unmuteReason(),
+                (mute.unmuteStaff() == null || mute.unmuteStaff().equals("null")) ? "Temp Mute" : mute.unmuteStaff()});
+    }
 }
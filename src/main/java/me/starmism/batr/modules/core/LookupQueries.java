@@ -0,0 +1,73 @@
+package me.starmism.batr.modules.core;
+
+import me.starmism.batr.BATR;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * The queries of a lookup run on the query executor of the database, cancelled together if the lookup times out. <br>
+ * Cancelling the future of a query which is still queued prevents it from running at all, whereas cancelling a future
+ * derived from it (i.e the join of the queries) wouldn't reach it. A query added once the lookup is cancelled is
+ * cancelled right away.
+ */
+public class LookupQueries {
+    private final List<CompletableFuture<?>> queries = new ArrayList<>();
+    private boolean cancelled = false;
+
+    /**
+     * Run a query on the query executor
+     *
+     * @throws IllegalArgumentException if the executor is full, i.e the database is overloaded
+     */
+    public <T> CompletableFuture<T> supply(final Supplier<T> query) {
+        try {
+            return add(CompletableFuture.supplyAsync(query, BATR.getInstance().getDsHandler().getQueryExecutor()));
+        } catch (final RejectedExecutionException e) {
+            cancel();
+            throw overloaded();
+        }
+    }
+
+    /**
+     * Run a query which doesn't return anything on the query executor
+     *
+     * @throws IllegalArgumentException if the executor is full, i.e the database is overloaded
+     */
+    public CompletableFuture<Void> run(final Runnable query) {
+        return supply(() -> {
+            query.run();
+            return null;
+        });
+    }
+
+    /**
+     * Register a query started from another one, i.e with thenRunAsync
+     */
+    public synchronized <F extends CompletableFuture<?>> F add(final F query) {
+        if (cancelled) {
+            query.cancel(false);
+        } else {
+            queries.add(query);
+        }
+        return query;
+    }
+
+    /**
+     * Cancel the queries which haven't started yet, and those which will be added later
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        for (final CompletableFuture<?> query : queries) {
+            query.cancel(false);
+        }
+        queries.clear();
+    }
+
+    static IllegalArgumentException overloaded() {
+        return new IllegalArgumentException("The database is overloaded, too many lookups are running. Please try again later.");
+    }
+}
@@ -0,0 +1,13 @@
+package me.starmism.batr.modules.core;
+
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+
+/**
+ * Identify a player in the bulk sanction queries, by his UUID (without dashes) and his ip
+ */
+public record PlayerKey(String uuid, String ip) {
+
+    public static PlayerKey of(final ProxiedPlayer player) {
+        return Core.getSession(player).getKey();
+    }
+}
@@ -0,0 +1,68 @@
+package me.starmism.batr.modules.core;
+
+import me.starmism.batr.utils.UUIDCodec;
+import me.starmism.batr.utils.UtilsKt;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+
+import java.util.UUID;
+
+/**
+ * The facts about an online player which are used by every module: his UUID (in both forms), his name, his ip and
+ * his current server. <br>
+ * They're computed once when the player joins instead of being derived again from his name on each event.
+ * Get it with {@link Core#getSession(ProxiedPlayer)}.
+ */
+public class PlayerSession {
+    private final UUID uniqueId;
+    private final String uuid;
+    private final String name;
+    private final String ip;
+    private final PlayerKey key;
+    private volatile String server;
+
+    PlayerSession(final ProxiedPlayer player) {
+        this.uniqueId = player.getUniqueId();
+        this.uuid = UUIDCodec.toCompact(uniqueId);
+        this.name = player.getName();
+        this.ip = UtilsKt.getPlayerIP(player);
+        this.key = new PlayerKey(uuid, ip);
+        this.server = (player.getServer() != null) ? player.getServer().getInfo().getName() : null;
+    }
+
+    public UUID getUniqueId() {
+        return uniqueId;
+    }
+
+    /**
+     * @return UUID without dashes, as stored in the database
+     */
+    public String getUUID() {
+        return uuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return ip in its canonical form
+     */
+    public String getIP() {
+        return ip;
+    }
+
+    public PlayerKey getKey() {
+        return key;
+    }
+
+    /**
+     * @return name of the server the player is connected to, or null if he's still connecting
+     */
+    public String getServer() {
+        return server;
+    }
+
+    void setServer(final String server) {
+        this.server = server;
+    }
+}
@@ -0,0 +1,117 @@
+package me.starmism.batr.modules.core;
+
+import me.starmism.batr.BATR;
+import me.starmism.batr.database.DataSourceHandler;
+import me.starmism.batr.database.SQLQueries;
+import net.md_5.bungee.api.ProxyServer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-behind queue of the players table updates (name, last ip and last login) made on each join.<br>
+ * The updates are coalesced by UUID and written with a single JDBC batch every {@link #FLUSH_INTERVAL} ms, or as soon
+ * as {@link #MAX_BATCH_SIZE} players are pending, so that a wave of reconnections doesn't use one pool connection
+ * per player while the login checks need them.
+ */
+public class PlayerUpdateQueue implements Runnable {
+    public static final long FLUSH_INTERVAL = 500;
+    private static final int MAX_BATCH_SIZE = 200;
+    private final Map<String, PlayerUpdate> pendingUpdates = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+
+    /**
+     * Queue the update of a player, replacing his previous pending update if any
+     *
+     * @param pName
+     * @param ip
+     * @param uuid  | UUID without dashes
+     */
+    public void enqueue(final String pName, final String ip, final String uuid) {
+        pendingUpdates.put(uuid, new PlayerUpdate(pName, ip, uuid));
+        if (pendingUpdates.size() >= MAX_BATCH_SIZE) {
+            ProxyServer.getInstance().getScheduler().runAsync(BATR.getInstance(), this::flush);
+        }
+    }
+
+    @Override
+    public void run() {
+        flush();
+    }
+
+    /**
+     * Write all the pending updates. Called periodically and when the core module is unloaded.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            while (!pendingUpdates.isEmpty()) {
+                final List<PlayerUpdate> batch = new ArrayList<>();
+                for (final String uuid : pendingUpdates.keySet()) {
+                    final PlayerUpdate update = pendingUpdates.remove(uuid);
+                    if (update != null) {
+                        batch.add(update);
+                    }
+                    if (batch.size() == MAX_BATCH_SIZE) {
+                        break;
+                    }
+                }
+                if (!write(batch)) {
+                    // Retry at the next flush, unless the player has joined again in the meantime
+                    for (final PlayerUpdate update : batch) {
+                        pendingUpdates.putIfAbsent(update.uuid(), update);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return pendingUpdates.size();
+    }
+
+    private boolean write(final List<PlayerUpdate> batch) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        PreparedStatement statement = null;
+        try (Connection conn = BATR.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                statement = (DataSourceHandler.isSQLite()) ? conn.prepareStatement(SQLQueries.Core.SQLite.updateIPUUID)
+                        : conn.prepareStatement(SQLQueries.Core.updateIPUUID);
+                for (final PlayerUpdate update : batch) {
+                    statement.setString(1, update.pName());
+                    statement.setString(2, update.ip());
+                    statement.setString(3, update.uuid());
+                    statement.setString(4, (DataSourceHandler.isSQLite()) ? update.uuid() : update.ip());
+                    if (!DataSourceHandler.isSQLite()) {
+                        statement.setString(5, update.pName());
+                    }
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                conn.commit();
+            } catch (final SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            return true;
+        } catch (final SQLException e) {
+            DataSourceHandler.handleException(e);
+            return false;
+        } finally {
+            DataSourceHandler.close(statement);
+        }
+    }
+
+    private record PlayerUpdate(String pName, String ip, String uuid) {
+    }
+}
@@ -0,0 +1,140 @@
+package me.starmism.batr.modules.core;
+
+import me.starmism.batr.database.Page;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Chronological view of the history of an entity across several modules, the latest first. <br>
+ * Each module streams its history already sorted by date through its keyset pagination, and the streams are combined
+ * with a k-way merge: a heap holds the next entry of each stream, and the latest of them is taken until the page is
+ * complete. A stream is only read by batches when its next entry is needed, so a page only costs the rows which could
+ * belong to it, whatever the size of the histories.
+ *
+ * @param <R> | the type of the merged entries
+ */
+public class Timeline<R> {
+    // Bound the rows read at once from a stream when a page far from the start is asked
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private final List<Source<?>> sources = new ArrayList<>();
+
+    /**
+     * Add the history of a module to the timeline
+     *
+     * @param reader | read a page of the history, sorted by date descending
+     * @param date   | the date of an entry in milliseconds
+     * @param mapper | convert an entry of the history into a timeline entry
+     */
+    public <T> Timeline<R> add(final Function<Page.Request, Page<T>> reader, final ToLongFunction<T> date,
+                               final Function<T, R> mapper) {
+        sources.add(new Source<>(sources.size(), reader, date, mapper));
+        return this;
+    }
+
+    /**
+     * Read a page of the timeline <br>
+     * <b>Should be run async</b>
+     *
+     * @param offset | number of entries skipped
+     * @param limit  | size of the page
+     * @throws IllegalArgumentException if the first reads of the streams take longer than the lookup timeout, or if the
+     *                                  database is overloaded
+     */
+    public List<R> read(final int offset, final int limit) {
+        final int batchSize = Math.min(offset + limit, MAX_BATCH_SIZE);
+
+        // The first batches of the streams are read concurrently, the next ones only when a stream runs out
+        final LookupQueries queries = new LookupQueries();
+        final List<CompletableFuture<Void>> firstReads = new ArrayList<>(sources.size());
+        for (final Source<?> source : sources) {
+            firstReads.add(queries.run(() -> source.fill(batchSize)));
+        }
+        EntityEntry.await(CompletableFuture.allOf(firstReads.toArray(new CompletableFuture<?>[0])), queries);
+
+        // Latest head first, the order of the streams breaking the ties so that the pages are stable
+        final PriorityQueue<Source<?>> heads = new PriorityQueue<>(Comparator
+                .comparingLong((Source<?> source) -> source.headDate).reversed()
+                .thenComparingInt(source -> source.order));
+        for (final Source<?> source : sources) {
+            if (source.advance(batchSize)) {
+                heads.add(source);
+            }
+        }
+
+        final List<R> entries = new ArrayList<>(limit);
+        int skipped = 0;
+        while (entries.size() < limit && !heads.isEmpty()) {
+            final Source<?> source = heads.poll();
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                entries.add(source.mapHead());
+            }
+            if (source.advance(batchSize)) {
+                heads.add(source);
+            }
+        }
+        return entries;
+    }
+
+    private final class Source<T> {
+        private final int order;
+        private final Function<Page.Request, Page<T>> reader;
+        private final ToLongFunction<T> date;
+        private final Function<T, R> mapper;
+        private Iterator<T> batch;
+        private Object[] cursor;
+        private boolean exhausted = false;
+        private T head;
+        private long headDate;
+
+        private Source(final int order, final Function<Page.Request, Page<T>> reader, final ToLongFunction<T> date,
+                       final Function<T, R> mapper) {
+            this.order = order;
+            this.reader = reader;
+            this.date = date;
+            this.mapper = mapper;
+        }
+
+        private void fill(final int batchSize) {
+            final Page<T> page = reader.apply((cursor == null)
+                    ? Page.Request.at(0, batchSize)
+                    : Page.Request.after(cursor, batchSize));
+            batch = page.entries().iterator();
+            cursor = page.nextCursor();
+            exhausted = page.entries().size() < batchSize;
+        }
+
+        /**
+         * Move to the next entry of the stream, reading the next batch if needed
+         *
+         * @return false if the stream has no more entries
+         */
+        private boolean advance(final int batchSize) {
+            if (!batch.hasNext()) {
+                if (exhausted) {
+                    return false;
+                }
+                fill(batchSize);
+                if (!batch.hasNext()) {
+                    return false;
+                }
+            }
+            head = batch.next();
+            headDate = date.applyAsLong(head);
+            return true;
+        }
+
+        private R mapHead() {
+            return mapper.apply(head);
+        }
+    }
+}
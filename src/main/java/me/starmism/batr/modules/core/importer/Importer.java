@@ -1,6 +1,5 @@
 package me.starmism.batr.modules.core.importer;
 
-import com.google.common.base.Charsets;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -8,6 +7,7 @@ import com.google.gson.Gson;
 import me.starmism.batr.database.SQLQueries;
 import me.starmism.batr.utils.CallbackUtils.ProgressCallback;
 import me.starmism.batr.utils.MojangAPIProviderKt;
+import me.starmism.batr.utils.UUIDCodec;
 import me.starmism.batr.utils.UUIDNotFoundException;
 import net.md_5.bungee.api.ProxyServer;
 
@@ -28,8 +28,7 @@ public abstract class Importer {
                             throw new UUIDNotFoundException(pName);
                         }
                     } else {
-                        return java.util.UUID.nameUUIDFromBytes(("OfflinePlayer:" + pName).getBytes(Charsets.UTF_8))
-                                .toString().replaceAll("-", "");
+                        return UUIDCodec.toCompact(UUIDCodec.offlinePlayer(pName));
                     }
 
                 }
@@ -7,6 +7,7 @@ import me.starmism.batr.BATR;
 import me.starmism.batr.database.SQLQueries;
 import me.starmism.batr.modules.IModule;
 import me.starmism.batr.utils.CallbackUtils.ProgressCallback;
+import me.starmism.batr.utils.UUIDCodec;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -70,7 +71,7 @@ public class MinecraftUUIDImporter extends Importer {
             for (final Map<String, String> banEntry : Iterables.concat(playerBanEntries, ipBanEntries)) {
                 try {
                     final String UUID = (banEntry.containsKey("uuid"))
-                            ? banEntry.get("uuid").replace("-", "")
+                            ? UUIDCodec.toCompact(UUIDCodec.parse(banEntry.get("uuid")))
                             : null;
                     final String ip = (banEntry.containsKey("uuid"))
                             ? null
@@ -3,15 +3,21 @@ package me.starmism.batr.modules.kick;
 import com.imaginarycode.minecraft.redisbungee.RedisBungee;
 import me.mattstudios.config.SettingsManager;
 import me.starmism.batr.BATR;
+import me.starmism.batr.database.ArchiveTask;
 import me.starmism.batr.database.DataSourceHandler;
+import me.starmism.batr.database.Page;
 import me.starmism.batr.database.SQLQueries;
+import me.starmism.batr.database.SchemaMigrator;
+import me.starmism.batr.database.SchemaMigrator.Migration;
 import me.starmism.batr.i18n.I18n;
 import me.starmism.batr.modules.BATCommand;
 import me.starmism.batr.modules.IModule;
 import me.starmism.batr.modules.core.Core;
+import me.starmism.batr.utils.UUIDCodec;
 import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.chat.TextComponent;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
 
 import java.nio.file.Path;
 import java.sql.*;
@@ -22,6 +28,7 @@ import java.util.UUID;
 public class Kick implements IModule {
 	private final SettingsManager config;
     private KickCommand commandHandler;
+    private ScheduledTask archiveTask;
     private final I18n i18n;
 
     public Kick() {
@@ -68,6 +75,15 @@ public class Kick implements IModule {
             } else {
                 statement.executeUpdate(SQLQueries.Kick.createTable);
             }
+            SchemaMigrator.migrate(conn, SQLQueries.Kick.table,
+                    new Migration(1, "Player and staff history indexes", SQLQueries.Kick.addIndexes, SQLQueries.Kick.SQLite.addIndexes));
+            if (DataSourceHandler.isSQLite()) {
+                for (final String query : SQLQueries.Kick.SQLite.createHistoryTable) {
+                    statement.executeUpdate(query);
+                }
+            } else {
+                statement.executeUpdate(SQLQueries.Kick.createHistoryTable);
+            }
             statement.close();
         } catch (final SQLException e) {
             DataSourceHandler.handleException(e);
@@ -79,11 +95,21 @@ public class Kick implements IModule {
         commandHandler = new KickCommand(this);
         commandHandler.loadCmds();
 
+        // Move the old kicks to the history table, if enabled
+        archiveTask = ArchiveTask.schedule(new ArchiveTask(SQLQueries.Kick.table, DataSourceHandler.isSQLite()
+                ? SQLQueries.Kick.SQLite.getArchivableKicks
+                : SQLQueries.Kick.getArchivableKicks, 1, DataSourceHandler.isSQLite()
+                ? SQLQueries.Kick.SQLite.archiveKicks
+                : SQLQueries.Kick.archiveKicks, SQLQueries.Kick.deleteKicks));
+
         return true;
     }
 
     @Override
     public boolean unload() {
+        if (archiveTask != null) {
+            archiveTask.cancel();
+        }
         return false;
     }
 
@@ -98,28 +124,28 @@ public class Kick implements IModule {
     }
 
     public String kickSQL(final UUID pUUID, final String server, final String staff, final String reason) {
-        PreparedStatement statement = null;
-        try (Connection conn = BATR.getConnection()) {
-            if (DataSourceHandler.isSQLite()) {
-                statement = conn.prepareStatement(SQLQueries.Kick.SQLite.kickPlayer);
-            } else {
-                statement = conn.prepareStatement(SQLQueries.Kick.kickPlayer);
-            }
-            statement.setString(1, pUUID.toString().replace("-", ""));
-            statement.setString(2, staff);
-            statement.setString(3, reason);
-            statement.setString(4, server);
-            statement.executeUpdate();
-            statement.close();
-
-            return i18n.format("kickBroadcast", new String[]{Core.getPlayerName(pUUID.toString().replace("-", "")), staff, server, reason});
+        try {
+            final String sUUID = UUIDCodec.toCompact(pUUID);
+            insertKick(sUUID, server, staff, reason);
+            return i18n.format("kickBroadcast", new String[]{Core.getPlayerName(sUUID), staff, server, reason});
         } catch (final SQLException e) {
             return DataSourceHandler.handleException(e);
-        } finally {
-            DataSourceHandler.close(statement);
         }
     }
 
+    /**
+     * Write a kick in the database, or in the journal if the database is unreachable
+     */
+    private void insertKick(final String sUUID, final String server, final String staff, final String reason) throws SQLException {
+        // Identifies the kick if it has to be replayed from the journal
+        final Timestamp date = new Timestamp(System.currentTimeMillis() / 1000 * 1000);
+        BATR.getInstance().getDsHandler().insertSanction(
+                DataSourceHandler.isSQLite() ? SQLQueries.Kick.SQLite.kickPlayer : SQLQueries.Kick.kickPlayer,
+                new Object[]{sUUID, staff, reason, server},
+                DataSourceHandler.isSQLite() ? SQLQueries.Kick.SQLite.journalKick : SQLQueries.Kick.journalKick,
+                new Object[]{sUUID, staff, reason, server, date});
+    }
+
     /**
      * Kick a player from the network
      *
@@ -133,19 +159,8 @@ public class Kick implements IModule {
     }
 
     public String gKickSQL(final UUID pUUID, final String staff, final String reason) {
-        PreparedStatement statement = null;
-        try (Connection conn = BATR.getConnection()) {
-            if (DataSourceHandler.isSQLite()) {
-                statement = conn.prepareStatement(SQLQueries.Kick.SQLite.kickPlayer);
-            } else {
-                statement = conn.prepareStatement(SQLQueries.Kick.kickPlayer);
-            }
-            statement.setString(1, pUUID.toString().replace("-", ""));
-            statement.setString(2, staff);
-            statement.setString(3, reason);
-            statement.setString(4, GLOBAL_SERVER);
-            statement.executeUpdate();
-            statement.close();
+        try {
+            insertKick(UUIDCodec.toCompact(pUUID), GLOBAL_SERVER, staff, reason);
 
             if (BATR.getInstance().getRedis().isRedisEnabled()) {
                 return i18n.format("gKickBroadcast", new String[]{RedisBungee.getApi().getNameFromUuid(pUUID), staff, reason});
@@ -154,8 +169,6 @@ public class Kick implements IModule {
             }
         } catch (final SQLException e) {
             return DataSourceHandler.handleException(e);
-        } finally {
-            DataSourceHandler.close(statement);
         }
     }
 
@@ -163,18 +176,27 @@ public class Kick implements IModule {
      * Get all kick data of a player <br>
      * <b>Should be runned async to optimize performance</b>
      *
-     * @param pName Player's name
+     * @param pName       Player's name
+     * @param fullHistory also read the kicks moved to the history table
      * @return List of KickEntry of the player
      */
-    public List<KickEntry> getKickData(final String pName) {
+    public List<KickEntry> getKickData(final String pName, final boolean fullHistory) {
         final List<KickEntry> kickList = new ArrayList<>();
         PreparedStatement statement = null;
         ResultSet resultSet = null;
-        try (Connection conn = BATR.getConnection()) {
-            statement = conn.prepareStatement(DataSourceHandler.isSQLite()
-                    ? SQLQueries.Kick.SQLite.getKick
-                    : SQLQueries.Kick.getKick);
-            statement.setString(1, Core.getUUID(pName));
+        try (Connection conn = BATR.getReadConnection()) {
+            final String uuid = Core.getUUID(pName);
+            if (fullHistory) {
+                statement = conn.prepareStatement(DataSourceHandler.isSQLite()
+                        ? SQLQueries.Kick.SQLite.getKickWithHistory
+                        : SQLQueries.Kick.getKickWithHistory);
+                statement.setString(2, uuid);
+            } else {
+                statement = conn.prepareStatement(DataSourceHandler.isSQLite()
+                        ? SQLQueries.Kick.SQLite.getKick
+                        : SQLQueries.Kick.getKick);
+            }
+            statement.setString(1, uuid);
             resultSet = statement.executeQuery();
 
             while (resultSet.next()) {
@@ -200,14 +222,21 @@ public class Kick implements IModule {
         return kickList;
     }
 
-    public List<KickEntry> getManagedKick(final String staff) {
+    public List<KickEntry> getManagedKick(final String staff, final boolean fullHistory) {
         final List<KickEntry> kickList = new ArrayList<>();
         PreparedStatement statement = null;
         ResultSet resultSet = null;
-        try (Connection conn = BATR.getConnection()) {
-            statement = conn.prepareStatement(DataSourceHandler.isSQLite()
-                    ? SQLQueries.Kick.SQLite.getManagedKick
-                    : SQLQueries.Kick.getManagedKick);
+        try (Connection conn = BATR.getReadConnection()) {
+            if (fullHistory) {
+                statement = conn.prepareStatement(DataSourceHandler.isSQLite()
+                        ? SQLQueries.Kick.SQLite.getManagedKickWithHistory
+                        : SQLQueries.Kick.getManagedKickWithHistory);
+                statement.setString(2, staff);
+            } else {
+                statement = conn.prepareStatement(DataSourceHandler.isSQLite()
+                        ? SQLQueries.Kick.SQLite.getManagedKick
+                        : SQLQueries.Kick.getManagedKick);
+            }
             statement.setString(1, staff);
             resultSet = statement.executeQuery();
 
@@ -217,10 +246,8 @@ public class Kick implements IModule {
                 if (reason == null) {
                     reason = NO_REASON;
                 }
-                String pName = Core.getPlayerName(resultSet.getString("UUID"));
-                if (pName == null) {
-                    pName = "UUID:" + resultSet.getString("UUID");
-                }
+                // The names of the players are resolved all at once after reading the rows
+                final String pName = "UUID:" + resultSet.getString("UUID");
                 final Timestamp date;
                 if (DataSourceHandler.isSQLite()) {
                     date = new Timestamp(resultSet.getLong("strftime('%s',kick_date)") * 1000);
@@ -234,6 +261,51 @@ public class Kick implements IModule {
         } finally {
             DataSourceHandler.close(statement, resultSet);
         }
+        Core.resolvePlayerNames(kickList, KickEntry::entity, KickEntry::withEntity);
         return kickList;
     }
+
+    /**
+     * Count the kicks of a player, or the kicks made by a staff, including the archived ones
+     *
+     * @param entity      Player's name
+     * @param staffLookup count the kicks made by the player instead of his own kicks
+     */
+    public int countKicks(final String entity, final boolean staffLookup) {
+        return staffLookup
+                ? Page.count(SQLQueries.Kick.countManagedKicks, 2, entity)
+                : Page.count(SQLQueries.Kick.countKicks, 2, Core.getUUID(entity));
+    }
+
+    /**
+     * Get a page of the kicks of a player, or of the kicks made by a staff, the latest first <br>
+     * <b>Should be runned async to optimize performance</b>
+     *
+     * @param entity      Player's name
+     * @param staffLookup read the kicks made by the player instead of his own kicks
+     * @param request     the position and size of the page
+     */
+    public Page<KickEntry> getKickPage(final String entity, final boolean staffLookup, final Page.Request request) {
+        final boolean sqlite = DataSourceHandler.isSQLite();
+        if (!staffLookup) {
+            return Page.read(sqlite ? SQLQueries.Kick.SQLite.getKickPage : SQLQueries.Kick.getKickPage,
+                    SQLQueries.Kick.pageKeys, 2, request,
+                    resultSet -> readKickEntry(resultSet, entity, resultSet.getString("kick_staff")), Core.getUUID(entity));
+        }
+        // The names of the players are resolved all at once after reading the rows
+        final Page<KickEntry> page = Page.read(sqlite ? SQLQueries.Kick.SQLite.getManagedKickPage : SQLQueries.Kick.getManagedKickPage,
+                SQLQueries.Kick.pageKeys, 2, request,
+                resultSet -> readKickEntry(resultSet, "UUID:" + resultSet.getString("UUID"), entity), entity);
+        Core.resolvePlayerNames(page.entries(), KickEntry::entity, KickEntry::withEntity);
+        return page;
+    }
+
+    private static KickEntry readKickEntry(final ResultSet resultSet, final String entity, final String staff)
+            throws SQLException {
+        final String reason = resultSet.getString("kick_reason");
+        final Timestamp date = DataSourceHandler.isSQLite()
+                ? new Timestamp(resultSet.getLong("strftime('%s',kick_date)") * 1000)
+                : resultSet.getTimestamp("kick_date");
+        return new KickEntry(entity, resultSet.getString("kick_server"), (reason == null) ? NO_REASON : reason, staff, date);
+    }
 }
\ No newline at end of file
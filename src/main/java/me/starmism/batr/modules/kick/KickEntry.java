@@ -3,4 +3,8 @@ package me.starmism.batr.modules.kick;
 import java.sql.Timestamp;
 
 public record KickEntry(String entity, String server, String reason,
-						String staff, Timestamp date) {}
\ No newline at end of file
+						String staff, Timestamp date) {
+	public KickEntry withEntity(final String entity) {
+		return new KickEntry(entity, server, reason, staff, date);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package me.starmism.batr.modules.mute;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Case insensitive prefix tree of the forbidden commands, compiled once when the module is loaded. <br>
+ * A command matches if the message starts with it and is followed by a space or by the end of the message,
+ * so that blocking "/r" doesn't block "/replay". The '/' characters are ignored, both in the message and in
+ * the configured commands. <br>
+ * Matching is done with a single scan of the message, without any allocation.
+ */
+public class CommandTrie {
+    private final Node root = new Node();
+
+    public CommandTrie(final Collection<String> commands) {
+        for (final String command : commands) {
+            Node node = root;
+            for (int i = 0; i < command.length(); i++) {
+                final char c = command.charAt(i);
+                if (c != '/') {
+                    node = node.getOrCreateChild(Character.toLowerCase(c));
+                }
+            }
+            if (node != root) {
+                node.terminal = true;
+            }
+        }
+    }
+
+    /**
+     * Check if a command typed by a player is one of the forbidden commands
+     *
+     * @param message | the chat message, including the leading '/'
+     */
+    public boolean matches(final String message) {
+        Node node = root;
+        for (int i = 0; i < message.length(); i++) {
+            final char c = message.charAt(i);
+            if (c == '/') {
+                continue;
+            }
+            if (c == ' ' && node.terminal) {
+                return true;
+            }
+            node = node.getChild(Character.toLowerCase(c));
+            if (node == null) {
+                return false;
+            }
+        }
+        return node.terminal;
+    }
+
+    /**
+     * The children are stored in two parallel arrays, as there are only a few of them per node
+     */
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean terminal = false;
+
+        private Node getChild(final char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node getOrCreateChild(final char c) {
+            Node child = getChild(c);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
@@ -1,25 +1,37 @@
 package me.starmism.batr.modules.mute;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.imaginarycode.minecraft.redisbungee.RedisBungee;
 import me.mattstudios.config.SettingsManager;
 import me.starmism.batr.BATR;
+import me.starmism.batr.database.ArchiveTask;
 import me.starmism.batr.database.DataSourceHandler;
+import me.starmism.batr.database.Page;
 import me.starmism.batr.database.SQLQueries;
+import me.starmism.batr.database.SchemaMigrator;
+import me.starmism.batr.database.SchemaMigrator.Migration;
 import me.starmism.batr.i18n.I18n;
 import me.starmism.batr.modules.BATCommand;
 import me.starmism.batr.modules.CommandHandler;
 import me.starmism.batr.modules.IModule;
 import me.starmism.batr.modules.core.Core;
+import me.starmism.batr.modules.core.PlayerKey;
+import me.starmism.batr.modules.core.PlayerSession;
 import me.starmism.batr.utils.FormatUtilsKt;
-import me.starmism.batr.utils.UUIDNotFoundException;
+import me.starmism.batr.utils.ExpirationQueue;
+import me.starmism.batr.utils.IPCodec;
 import me.starmism.batr.utils.UtilsKt;
 import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.TextComponent;
 import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.connection.PendingConnection;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 import net.md_5.bungee.api.event.ChatEvent;
+import net.md_5.bungee.api.event.LoginEvent;
 import net.md_5.bungee.api.event.PlayerDisconnectEvent;
+import net.md_5.bungee.api.event.PostLoginEvent;
 import net.md_5.bungee.api.event.ServerConnectedEvent;
 import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.api.scheduler.ScheduledTask;
@@ -31,16 +43,30 @@ import java.sql.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 /**
  * This module handles all the mute.<br>
  * The mute data of online players are <b>cached</b> in order to avoid lag.
  */
 public class Mute implements IModule, Listener {
+    // Maximum number of players resolved by a single bulk query
+    private static final int MAX_PLAYERS_PER_QUERY = 250;
     private final SettingsManager config;
-    private ConcurrentHashMap<String, PlayerMuteData> mutedPlayers;
+    private ConcurrentHashMap<UUID, PlayerMuteData> mutedPlayers;
+    // Mute data loaded during a login, until the player is connected. A refused login is never disconnected, so they expire
+    private final Cache<UUID, PlayerMuteData> loginMuteData = CacheBuilder.newBuilder()
+            .expireAfterWrite(1, TimeUnit.MINUTES).build();
     private CommandHandler commandHandler;
     private ScheduledTask task;
+    private ScheduledTask syncTask;
+    private ScheduledTask archiveTask;
+    private CommandTrie forbiddenCommands;
+    private final ExpirationQueue expirationQueue = new ExpirationQueue();
+    // Mutes journaled during a database outage, cached under a negative id until their row is replayed and synced
+    private final Map<Integer, ActiveMute> pendingMutes = new ConcurrentHashMap<>();
+    // Expiration date of the active temporary mutes, by mute id
+    private final Map<Integer, Long> tempMutes = new ConcurrentHashMap<>();
     private final I18n i18n;
 
     public Mute() {
@@ -87,6 +113,28 @@ public class Mute implements IModule, Listener {
             } else {
                 statement.executeUpdate(SQLQueries.Mute.createTable);
             }
+            // Add the change tracking column to the tables created by a previous version
+            if (!DataSourceHandler.columnExists(conn, SQLQueries.Mute.table, "mute_updated")) {
+                statement.executeUpdate(DataSourceHandler.isSQLite()
+                        ? SQLQueries.Mute.SQLite.addUpdatedColumn
+                        : SQLQueries.Mute.addUpdatedColumn);
+            }
+            if (DataSourceHandler.isSQLite()) {
+                for (final String query : SQLQueries.Mute.SQLite.changeTracking) {
+                    statement.executeUpdate(query);
+                }
+            }
+            SchemaMigrator.migrate(conn, SQLQueries.Mute.table,
+                    new Migration(1, "Composite and staff indexes", SQLQueries.Mute.addIndexes, SQLQueries.Mute.SQLite.addIndexes),
+                    new Migration(2, "Canonical IPv6 addresses", new String[0], new String[0], SchemaMigrator.canonicalizeIPs("mute_id",
+                            SQLQueries.Mute.table, "mute_ip", SQLQueries.Mute.historyTable, "mute_ip")));
+            if (DataSourceHandler.isSQLite()) {
+                for (final String query : SQLQueries.Mute.SQLite.createHistoryTable) {
+                    statement.executeUpdate(query);
+                }
+            } else {
+                statement.executeUpdate(SQLQueries.Mute.createHistoryTable);
+            }
             statement.close();
         } catch (final SQLException e) {
             DataSourceHandler.handleException(e);
@@ -99,70 +147,236 @@ public class Mute implements IModule, Listener {
         commandHandler.loadCmds();
 
         mutedPlayers = new ConcurrentHashMap<>();
+        forbiddenCommands = new CommandTrie(config.get(MuteConfig.FORBIDDEN_CMDS));
+        loadTempMutes();
 
+        // Launch the tempmute task, which only handles the mutes due so it can run every second
         final MuteTask muteTask = new MuteTask(this);
-        task = ProxyServer.getInstance().getScheduler().schedule(BATR.getInstance(), muteTask, 0, 10, TimeUnit.SECONDS);
+        task = ProxyServer.getInstance().getScheduler().schedule(BATR.getInstance(), muteTask, 1, 1, TimeUnit.SECONDS);
+        // Launch the task fetching the mutes made from the WebInterface or from another proxy
+        final MuteSyncTask muteSyncTask = new MuteSyncTask(this);
+        syncTask = ProxyServer.getInstance().getScheduler().schedule(BATR.getInstance(), muteSyncTask, 0, 10, TimeUnit.SECONDS);
+        // Move the old inactive mutes to the history table, if enabled
+        archiveTask = ArchiveTask.schedule(new ArchiveTask(SQLQueries.Mute.table, DataSourceHandler.isSQLite()
+                ? SQLQueries.Mute.SQLite.getArchivableMutes
+                : SQLQueries.Mute.getArchivableMutes, 3, DataSourceHandler.isSQLite()
+                ? SQLQueries.Mute.SQLite.archiveMutes
+                : SQLQueries.Mute.archiveMutes, SQLQueries.Mute.deleteMutes));
         return true;
     }
 
     @Override
     public boolean unload() {
         task.cancel();
+        syncTask.cancel();
+        if (archiveTask != null) {
+            archiveTask.cancel();
+        }
         mutedPlayers.clear();
+        loginMuteData.invalidateAll();
+        expirationQueue.clear();
+        tempMutes.clear();
+        pendingMutes.clear();
         return true;
     }
 
-    public void loadMuteMessage(final String pName, final String server) {
-        if (!mutedPlayers.containsKey(pName)) {
-            return;
-        }
-        String reason = "";
-        Timestamp expiration = null;
-        Timestamp begin = null;
-        String staff = null;
-
-        PreparedStatement statement = null;
+    /**
+     * Schedule the expiration of every active temporary mute
+     */
+    private void loadTempMutes() {
+        Statement statement = null;
         ResultSet resultSet = null;
         try (Connection conn = BATR.getConnection()) {
-            statement = conn.prepareStatement(DataSourceHandler.isSQLite()
-                    ? SQLQueries.Mute.SQLite.getMuteMessage
-                    : SQLQueries.Mute.getMuteMessage);
-            try {
-                statement.setString(1, Core.getUUID(pName));
-                statement.setString(2, Core.getPlayerIP(pName));
-                statement.setString(3, server);
-            } catch (final UUIDNotFoundException e) {
-                BATR.getInstance().getLogger().severe("Error during retrieving of the UUID of " + pName + ". Please report this error :");
-                e.printStackTrace();
-            }
-            resultSet = statement.executeQuery();
-
-            if (resultSet.next()) {
-                if (DataSourceHandler.isSQLite()) {
-                    begin = new Timestamp(resultSet.getLong("strftime('%s',mute_begin)") * 1000);
-                    String endStr = resultSet.getString("mute_end");
-                    expiration = (endStr == null) ? null : new Timestamp(Long.parseLong(endStr));
-                } else {
-                    begin = resultSet.getTimestamp("mute_begin");
-                    expiration = resultSet.getTimestamp("mute_end");
-                }
-                reason = (resultSet.getString("mute_reason") != null) ? resultSet.getString("mute_reason") : IModule.NO_REASON;
-                staff = resultSet.getString("mute_staff");
-            } else {
-                throw new SQLException("No active mute found.");
+            statement = conn.createStatement();
+            resultSet = statement.executeQuery(SQLQueries.Mute.getTempMutes);
+            while (resultSet.next()) {
+                final long end = DataSourceHandler.isSQLite()
+                        ? Long.parseLong(resultSet.getString("mute_end"))
+                        : resultSet.getTimestamp("mute_end").getTime();
+                scheduleExpiration(resultSet.getInt("mute_id"), end);
             }
         } catch (final SQLException e) {
             DataSourceHandler.handleException(e);
         } finally {
             DataSourceHandler.close(statement, resultSet);
         }
-        if (expiration != null) {
-            mutedPlayers.get(pName).setMuteMessage(i18n.format("isMuteTemp",
-                    new String[]{reason, "{expiration}", Core.defaultDF.format(begin), staff}), expiration);
+    }
+
+    /**
+     * Reload the cached mute data of the online players and the expirations of the temporary mutes once the mute table
+     * has been rewritten, i.e by the restoration of a backup
+     */
+    public void reloadMutes() {
+        expirationQueue.clear();
+        tempMutes.clear();
+        loadTempMutes();
+        updateMuteData(ProxyServer.getInstance().getPlayers());
+        // The journaled mutes aren't in the table yet
+        for (final ActiveMute pending : pendingMutes.values()) {
+            applyMute(pending);
+        }
+    }
+
+    private void scheduleExpiration(final int id, final long end) {
+        final Long previousEnd = tempMutes.put(id, end);
+        if (previousEnd == null || previousEnd != end) {
+            expirationQueue.schedule(id, end);
+        }
+    }
+
+    /**
+     * Remove the temporary mutes whose expiration date is passed from the cached mute data
+     *
+     * @param now | current timestamp in millis
+     * @return ids of the expired mutes, which still have to be disabled in the database
+     */
+    public List<Integer> pollExpiredMutes(final long now) {
+        final List<Integer> expiredMutes = new ArrayList<>();
+        for (final int id : expirationQueue.pollExpired(now)) {
+            // The mute may have been lifted or prolonged since it was scheduled
+            final Long end = tempMutes.get(id);
+            if (end != null && end <= now) {
+                tempMutes.remove(id);
+                expiredMutes.add(id);
+            }
+        }
+        if (!expiredMutes.isEmpty()) {
+            for (final PlayerMuteData pMuteData : mutedPlayers.values()) {
+                pMuteData.removeMutes(activeMute -> expiredMutes.contains(activeMute.id()));
+            }
+            // A journaled mute can't be disabled by its id, its row is expired once it has been replayed and synced
+            expiredMutes.removeIf(id -> id < 0);
+        }
+        return expiredMutes;
+    }
+
+    /**
+     * Poll again expired mutes whose row couldn't be disabled in the database. They aren't applied to the players meanwhile.
+     *
+     * @param ids       | ids of the expired mutes
+     * @param retryDate | timestamp in millis of the next attempt
+     */
+    public void retryExpiration(final List<Integer> ids, final long retryDate) {
+        for (final int id : ids) {
+            scheduleExpiration(id, retryDate);
+        }
+    }
+
+    /**
+     * Apply an active mute to the cached data of the online players it concerns
+     *
+     * @param activeMute
+     */
+    public void applyMute(final ActiveMute activeMute) {
+        if (activeMute.id() < 0) {
+            pendingMutes.put(activeMute.id(), activeMute);
+        }
+        if (activeMute.end() != null) {
+            scheduleExpiration(activeMute.id(), activeMute.end().getTime());
+        }
+        for (final ProxiedPlayer player : getConcernedPlayers(activeMute.uuid(), activeMute.ip())) {
+            final PlayerMuteData pMuteData = mutedPlayers.get(player.getUniqueId());
+            if (pMuteData != null) {
+                pMuteData.addMute(activeMute);
+            }
+        }
+    }
+
+    /**
+     * Remove a lifted mute from the cached data of the online players it concerns
+     *
+     * @param activeMute
+     */
+    public void removeMute(final ActiveMute activeMute) {
+        tempMutes.remove(activeMute.id());
+        for (final ProxiedPlayer player : getConcernedPlayers(activeMute.uuid(), activeMute.ip())) {
+            final PlayerMuteData pMuteData = mutedPlayers.get(player.getUniqueId());
+            if (pMuteData != null) {
+                pMuteData.removeMutes(mute -> mute.id() == activeMute.id());
+            }
+        }
+    }
+
+    /**
+     * Remove the placeholder of a journaled mute once its row has been replayed. As the placeholder was cached before
+     * the row got its real id, they are matched on their entity, their server and their begin date (cf {@link #mute}).
+     *
+     * @param activeMute | a mute read from the table
+     */
+    public void dropPending(final ActiveMute activeMute) {
+        if (pendingMutes.isEmpty()) {
+            return;
+        }
+        pendingMutes.values().removeIf(pending -> {
+            if (Objects.equals(pending.uuid(), activeMute.uuid()) && Objects.equals(pending.ip(), activeMute.ip())
+                    && pending.server().equalsIgnoreCase(activeMute.server())
+                    && pending.begin().getTime() == activeMute.begin().getTime()) {
+                removeMute(pending);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Remove the mutes lifted by an unmute from the cached data of the online players they concern
+     *
+     * @param uuid   | null if it's an ip unmute
+     * @param ip     | null if it's a player unmute
+     * @param server | if equals to (any), remove the mutes of all servers
+     */
+    private void removeMutes(final String uuid, final String ip, final String server) {
+        // A lifted journaled mute mustn't be applied again by a reload before its row is replayed
+        pendingMutes.values().removeIf(pending -> (uuid != null ? uuid.equals(pending.uuid()) : pending.uuid() == null && ip.equals(pending.ip()))
+                && (ANY_SERVER.equals(server) || pending.server().equalsIgnoreCase(server)));
+        for (final ProxiedPlayer player : getConcernedPlayers(uuid, ip)) {
+            final PlayerMuteData pMuteData = mutedPlayers.get(player.getUniqueId());
+            if (pMuteData != null) {
+                pMuteData.removeMutes(activeMute -> (uuid != null ? uuid.equals(activeMute.uuid()) : activeMute.uuid() == null)
+                        && (ANY_SERVER.equals(server) || activeMute.server().equalsIgnoreCase(server)));
+            }
+        }
+    }
+
+    /**
+     * Get the online players concerned by a mute
+     *
+     * @param uuid | null if it's an ip mute
+     * @param ip   | null if it's a player mute
+     */
+    private static List<ProxiedPlayer> getConcernedPlayers(final String uuid, final String ip) {
+        if (uuid != null) {
+            final ProxiedPlayer player = ProxyServer.getInstance().getPlayer(Core.getUUIDfromString(uuid));
+            return (player != null) ? Collections.singletonList(player) : Collections.emptyList();
+        }
+        final List<ProxiedPlayer> players = new ArrayList<>();
+        if (ip != null) {
+            for (final ProxiedPlayer player : ProxyServer.getInstance().getPlayers()) {
+                if (ip.equals(Core.getSession(player).getIP())) {
+                    players.add(player);
+                }
+            }
+        }
+        return players;
+    }
+
+    static ActiveMute readActiveMute(final ResultSet resultSet) throws SQLException {
+        final Timestamp begin;
+        final Timestamp end;
+        if (DataSourceHandler.isSQLite()) {
+            begin = new Timestamp(resultSet.getLong("strftime('%s',mute_begin)") * 1000);
+            final String endStr = resultSet.getString("mute_end");
+            end = (endStr == null) ? null : new Timestamp(Long.parseLong(endStr));
         } else {
-            mutedPlayers.get(pName).setMuteMessage(i18n.format("isMute",
-                    new String[]{reason, Core.defaultDF.format(begin), staff}), null);
+            begin = resultSet.getTimestamp("mute_begin");
+            end = resultSet.getTimestamp("mute_end");
         }
+        final String reason = resultSet.getString("mute_reason");
+        // The stored ip is compared with the canonical address of the players (cf SchemaMigrator.canonicalizeIPs)
+        final String ip = (resultSet.getString("mute_ip") != null) ? IPCodec.normalize(resultSet.getString("mute_ip")) : null;
+        return new ActiveMute(resultSet.getInt("mute_id"), resultSet.getString("UUID"), ip,
+                resultSet.getString("mute_server"), (reason != null) ? reason : NO_REASON,
+                resultSet.getString("mute_staff"), begin, end);
     }
 
     /**
@@ -178,7 +392,7 @@ public class Mute implements IModule, Listener {
      * </ul>
      */
     public int isMute(final ProxiedPlayer player, final String server) {
-        final PlayerMuteData pMuteData = mutedPlayers.get(player.getName());
+        final PlayerMuteData pMuteData = mutedPlayers.get(player.getUniqueId());
         if (pMuteData != null) {
             if (pMuteData.isMute(server)) {
                 return 1;
@@ -261,22 +475,22 @@ public class Mute implements IModule, Listener {
      */
     public String mute(final String mutedEntity, final String server, final String staff,
                        final long expirationTimestamp, final String reason) {
-        PreparedStatement statement = null;
-        try (Connection conn = BATR.getConnection()) {
+        try {
+            final Timestamp end = (expirationTimestamp > 0) ? new Timestamp(expirationTimestamp) : null;
+            final String dbReason = (NO_REASON.equals(reason)) ? null : reason;
+            // Truncated to the second like in Ban.ban, it identifies the mute if it has to be replayed from the journal
+            final Timestamp begin = new Timestamp(System.currentTimeMillis() / 1000 * 1000);
             if (UtilsKt.validIP(mutedEntity)) {
-                statement = conn.prepareStatement(SQLQueries.Mute.createMuteIP);
-                statement.setString(1, mutedEntity);
-                statement.setString(2, staff);
-                statement.setString(3, server);
-                statement.setTimestamp(4, (expirationTimestamp > 0) ? new Timestamp(expirationTimestamp) : null);
-                statement.setString(5, (NO_REASON.equals(reason)) ? null : reason);
-                statement.executeUpdate();
-                statement.close();
+                final int id = BATR.getInstance().getDsHandler().insertSanction(
+                        SQLQueries.Mute.createMuteIP, new Object[]{mutedEntity, staff, server, end, dbReason},
+                        DataSourceHandler.isSQLite() ? SQLQueries.Mute.SQLite.journalMute : SQLQueries.Mute.journalMute,
+                        new Object[]{null, mutedEntity, staff, server, begin, end, dbReason});
+                applyMute(new ActiveMute(id, null, mutedEntity, server, reason, staff, begin, end));
 
                 if (BATR.getInstance().getRedis().isRedisEnabled()) {
                     for (UUID pUUID : RedisBungee.getApi().getPlayersOnline()) {
-                        if (RedisBungee.getApi().getPlayerIp(pUUID).equals(mutedEntity)) {
-                            // The mute task timer will add the player to the bungeecord instance's cache if needed.
+                        if (IPCodec.format(RedisBungee.getApi().getPlayerIp(pUUID)).equals(mutedEntity)) {
+                            // The mute sync task will add the mute to the other bungeecord instances' cache.
                             if (server.equals(GLOBAL_SERVER) || RedisBungee.getApi().getServerFor(pUUID).getName().equalsIgnoreCase(server)) {
                                 ProxiedPlayer player = ProxyServer.getInstance().getPlayer(pUUID);
                                 if (player != null) {
@@ -290,11 +504,6 @@ public class Mute implements IModule, Listener {
                 } else {
                     for (final ProxiedPlayer player : ProxyServer.getInstance().getPlayers()) {
                         if (UtilsKt.getPlayerIP(player).equals(mutedEntity)) {
-                            if (server.equals(GLOBAL_SERVER)) {
-                                mutedPlayers.get(player.getName()).setGlobal();
-                            } else {
-                                mutedPlayers.get(player.getName()).addServer(server);
-                            }
                             if (server.equals(GLOBAL_SERVER) || player.getServer().getInfo().getName().equalsIgnoreCase(server)) {
                                 player.sendMessage(i18n.formatPrefix("wasMutedNotif", new String[]{reason}));
                             }
@@ -307,23 +516,20 @@ public class Mute implements IModule, Listener {
             // Otherwise it's a player
             else {
                 final ProxiedPlayer player = ProxyServer.getInstance().getPlayer(mutedEntity);
-                statement = conn.prepareStatement(SQLQueries.Mute.createMute);
-                statement.setString(1, Core.getUUID(mutedEntity));
-                statement.setString(2, staff);
-                statement.setString(3, server);
-                statement.setTimestamp(4, (expirationTimestamp > 0) ? new Timestamp(expirationTimestamp) : null);
-                statement.setString(5, (NO_REASON.equals(reason)) ? null : reason);
-                statement.executeUpdate();
-                statement.close();
+                final String sUUID = Core.getUUID(mutedEntity);
+                final int id = BATR.getInstance().getDsHandler().insertSanction(
+                        SQLQueries.Mute.createMute, new Object[]{sUUID, staff, server, end, dbReason},
+                        DataSourceHandler.isSQLite() ? SQLQueries.Mute.SQLite.journalMute : SQLQueries.Mute.journalMute,
+                        new Object[]{sUUID, null, staff, server, begin, end, dbReason});
+                applyMute(new ActiveMute(id, sUUID, null, server, reason, staff, begin, end));
 
                 if (player != null) {
-                    updateMuteData(player.getName());
                     if (server.equals(GLOBAL_SERVER) || player.getServer().getInfo().getName().equalsIgnoreCase(server)) {
                         player.sendMessage(i18n.formatPrefix("wasMutedNotif", new String[]{reason}));
                     }
                 } else if (BATR.getInstance().getRedis().isRedisEnabled()) {
                     //Need to implement a function to get an UUID object instead of a string one.
-                    final UUID pUUID = Core.getUUIDfromString(Core.getUUID(mutedEntity));
+                    final UUID pUUID = Core.getUUIDfromString(sUUID);
                     BATR.getInstance().getRedis().sendMuteUpdatePlayer(pUUID, server);
                     BATR.getInstance().getRedis().sendMessagePlayer(pUUID, TextComponent.toLegacyText(i18n.formatPrefix("wasMutedNotif", new String[]{reason})));
                 }
@@ -338,8 +544,6 @@ public class Mute implements IModule, Listener {
             }
         } catch (final SQLException e) {
             return DataSourceHandler.handleException(e);
-        } finally {
-            DataSourceHandler.close(statement);
         }
     }
 
@@ -368,59 +572,42 @@ public class Mute implements IModule, Listener {
      * @param reason
      */
     public String unMute(final String mutedEntity, final String server, final String staff, final String reason) {
-        PreparedStatement statement = null;
-        try (Connection conn = BATR.getConnection()) {
+        // Journaled behind the pending mutes like the unbans (cf Ban.unBan)
+        final DataSourceHandler dsHandler = BATR.getInstance().getDsHandler();
+        try {
             // If the mutedEntity is an ip
             if (UtilsKt.validIP(mutedEntity)) {
                 if (ANY_SERVER.equals(server)) {
-                    statement = (DataSourceHandler.isSQLite()) ? conn.prepareStatement(SQLQueries.Mute.SQLite.unMuteIP)
-                            : conn.prepareStatement(SQLQueries.Mute.unMuteIP);
-                    statement.setString(1, reason);
-                    statement.setString(2, staff);
-                    statement.setString(3, mutedEntity);
+                    dsHandler.updateSanction((DataSourceHandler.isSQLite()) ? SQLQueries.Mute.SQLite.unMuteIP
+                            : SQLQueries.Mute.unMuteIP, reason, staff, mutedEntity);
                 } else {
-                    statement = (DataSourceHandler.isSQLite()) ? conn
-                            .prepareStatement(SQLQueries.Mute.SQLite.unMuteIPServer) : conn
-                            .prepareStatement(SQLQueries.Mute.unMuteIPServer);
-                    statement.setString(1, reason);
-                    statement.setString(2, staff);
-                    statement.setString(3, mutedEntity);
-                    statement.setString(4, server);
+                    dsHandler.updateSanction((DataSourceHandler.isSQLite()) ? SQLQueries.Mute.SQLite.unMuteIPServer
+                            : SQLQueries.Mute.unMuteIPServer, reason, staff, mutedEntity, server);
                 }
-                statement.executeUpdate();
-                statement.close();
+                removeMutes(null, mutedEntity, server);
 
                 return i18n.format("unmuteBroadcast", new String[]{mutedEntity, staff, server, reason});
             }
 
             // Otherwise it's a player
             else {
+                final String sUUID = Core.getUUID(mutedEntity);
                 if (ANY_SERVER.equals(server)) {
-                    statement = (DataSourceHandler.isSQLite()) ? conn.prepareStatement(SQLQueries.Mute.SQLite.unMute)
-                            : conn.prepareStatement(SQLQueries.Mute.unMute);
-                    statement.setString(1, reason);
-                    statement.setString(2, staff);
-                    statement.setString(3, Core.getUUID(mutedEntity));
+                    dsHandler.updateSanction((DataSourceHandler.isSQLite()) ? SQLQueries.Mute.SQLite.unMute
+                            : SQLQueries.Mute.unMute, reason, staff, sUUID);
                 } else {
-                    statement = (DataSourceHandler.isSQLite()) ? conn
-                            .prepareStatement(SQLQueries.Mute.SQLite.unMuteServer) : conn
-                            .prepareStatement(SQLQueries.Mute.unMuteServer);
-                    statement.setString(1, reason);
-                    statement.setString(2, staff);
-                    statement.setString(3, Core.getUUID(mutedEntity));
-                    statement.setString(4, server);
+                    dsHandler.updateSanction((DataSourceHandler.isSQLite()) ? SQLQueries.Mute.SQLite.unMuteServer
+                            : SQLQueries.Mute.unMuteServer, reason, staff, sUUID, server);
                 }
-                statement.executeUpdate();
-                statement.close();
+                removeMutes(sUUID, null, server);
 
                 final ProxiedPlayer player = ProxyServer.getInstance().getPlayer(mutedEntity);
                 if (player != null) {
-                    updateMuteData(player.getName());
                     if (ANY_SERVER.equals(server) || GLOBAL_SERVER.equals(server) || player.getServer().getInfo().getName().equalsIgnoreCase(server)) {
                         player.sendMessage(i18n.formatPrefix("wasUnmutedNotif", new String[]{reason}));
                     }
                 } else if (BATR.getInstance().getRedis().isRedisEnabled()) {
-                    final UUID pUUID = Core.getUUIDfromString(Core.getUUID(mutedEntity));
+                    final UUID pUUID = Core.getUUIDfromString(sUUID);
                     ServerInfo pServer = RedisBungee.getApi().getServerFor(pUUID);
                     if (ANY_SERVER.equals(server) || GLOBAL_SERVER.equals(server) || (pServer != null && pServer.getName().equalsIgnoreCase(server))) {
                         BATR.getInstance().getRedis().sendMuteUpdatePlayer(pUUID, server);
@@ -432,8 +619,6 @@ public class Mute implements IModule, Listener {
             }
         } catch (final SQLException e) {
             return DataSourceHandler.handleException(e);
-        } finally {
-            DataSourceHandler.close(statement);
         }
     }
 
@@ -452,7 +637,6 @@ public class Mute implements IModule, Listener {
             return unMute(entity, server, staff, reason);
         } else {
             unMute(Core.getPlayerIP(entity), server, staff, reason);
-            updateMuteData(entity);
             return i18n.format("unmuteBroadcast", new String[]{entity + "'s IP", staff, server, reason});
         }
     }
@@ -461,30 +645,47 @@ public class Mute implements IModule, Listener {
      * Get all mute data of an entity <br>
      * <b>Should be run async to optimize performance</b>
      *
-     * @param entity | can be an ip or a player name
+     * @param entity      | can be an ip or a player name
+     * @param fullHistory | also read the mutes moved to the history table
      * @return List of MuteEntry of the entity
      */
-    public List<MuteEntry> getMuteData(final String entity) {
+    public List<MuteEntry> getMuteData(final String entity, final boolean fullHistory) {
         final List<MuteEntry> muteList = new ArrayList<>();
         PreparedStatement statement = null;
         ResultSet resultSet = null;
-        try (Connection conn = BATR.getConnection()) {
+        try (Connection conn = BATR.getReadConnection()) {
             // If the entity is an ip
+            final String param;
             if (UtilsKt.validIP(entity)) {
-                statement = conn.prepareStatement((DataSourceHandler.isSQLite())
-                        ? SQLQueries.Mute.SQLite.getMuteIP
-                        : SQLQueries.Mute.getMuteIP);
-                statement.setString(1, entity);
-                resultSet = statement.executeQuery();
+                if (fullHistory) {
+                    statement = conn.prepareStatement((DataSourceHandler.isSQLite())
+                            ? SQLQueries.Mute.SQLite.getMuteIPWithHistory
+                            : SQLQueries.Mute.getMuteIPWithHistory);
+                } else {
+                    statement = conn.prepareStatement((DataSourceHandler.isSQLite())
+                            ? SQLQueries.Mute.SQLite.getMuteIP
+                            : SQLQueries.Mute.getMuteIP);
+                }
+                param = entity;
             }
             // Otherwise if it's a player
             else {
-                statement = conn.prepareStatement((DataSourceHandler.isSQLite())
-                        ? SQLQueries.Mute.SQLite.getMute
-                        : SQLQueries.Mute.getMute);
-                statement.setString(1, Core.getUUID(entity));
-                resultSet = statement.executeQuery();
+                if (fullHistory) {
+                    statement = conn.prepareStatement((DataSourceHandler.isSQLite())
+                            ? SQLQueries.Mute.SQLite.getMuteWithHistory
+                            : SQLQueries.Mute.getMuteWithHistory);
+                } else {
+                    statement = conn.prepareStatement((DataSourceHandler.isSQLite())
+                            ? SQLQueries.Mute.SQLite.getMute
+                            : SQLQueries.Mute.getMute);
+                }
+                param = Core.getUUID(entity);
+            }
+            statement.setString(1, param);
+            if (fullHistory) {
+                statement.setString(2, param);
             }
+            resultSet = statement.executeQuery();
 
             while (resultSet.next()) {
                 final Timestamp beginDate;
@@ -524,46 +725,120 @@ public class Mute implements IModule, Listener {
         return muteList;
     }
 
+    /**
+     * (Re)load the mute data of an online player. <br>
+     * Afterwards the data are kept up to date through {@link #applyMute(ActiveMute)} and {@link #removeMute(ActiveMute)}.
+     *
+     * @param pName
+     */
     public void updateMuteData(final String pName) {
         final ProxiedPlayer player = ProxyServer.getInstance().getPlayer(pName);
         if (player == null) {
             return;
         }
-        PlayerMuteData pMuteData;
-        if (mutedPlayers.containsKey(pName)) {
-            pMuteData = mutedPlayers.get(pName);
-            pMuteData.clearServers();
-            pMuteData.unsetGlobal();
-        } else {
-            pMuteData = new PlayerMuteData(pName);
+        final PlayerSession session = Core.getSession(player);
+        mutedPlayers.put(session.getUniqueId(), loadMuteData(session.getUUID(), session.getIP()));
+    }
+
+    /**
+     * (Re)load the mute data of several online players at once, i.e when the module is loaded
+     *
+     * @param players
+     */
+    public void updateMuteData(final Collection<ProxiedPlayer> players) {
+        final Map<PlayerKey, ProxiedPlayer> playersByKey = new HashMap<>();
+        for (final ProxiedPlayer player : players) {
+            playersByKey.put(PlayerKey.of(player), player);
         }
-        PreparedStatement statement = null;
-        ResultSet resultSet = null;
-        try (Connection conn = BATR.getConnection()) {
-            statement = conn.prepareStatement("SELECT mute_server FROM `BAT_mute` WHERE UUID = ? AND mute_state = 1;");
-            statement.setString(1, Core.getUUID(pName));
-            resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                final String server = resultSet.getString("mute_server");
-                if (GLOBAL_SERVER.equals(server)) {
-                    pMuteData.setGlobal();
-                } else {
-                    pMuteData.addServer(server);
+        final Map<PlayerKey, List<ActiveMute>> mutes = getActiveMutes(playersByKey.keySet());
+        for (final Map.Entry<PlayerKey, ProxiedPlayer> entry : playersByKey.entrySet()) {
+            final PlayerMuteData pMuteData = new PlayerMuteData();
+            for (final ActiveMute activeMute : mutes.getOrDefault(entry.getKey(), Collections.emptyList())) {
+                pMuteData.addMute(activeMute);
+                if (activeMute.end() != null) {
+                    scheduleExpiration(activeMute.id(), activeMute.end().getTime());
                 }
             }
-            resultSet.close();
-            statement.close();
+            mutedPlayers.put(entry.getValue().getUniqueId(), pMuteData);
+        }
+    }
+
+    /**
+     * Get the active mutes of several players at once, using chunked queries on their UUID and their ip<br>
+     * <b>Should be run async to optimize performance</b>
+     *
+     * @param players
+     * @return the active mutes (player mutes and ip mutes) of each player, the players without any mute being omitted
+     */
+    public Map<PlayerKey, List<ActiveMute>> getActiveMutes(final Collection<PlayerKey> players) {
+        final Map<PlayerKey, List<ActiveMute>> mutes = new HashMap<>();
+        final List<PlayerKey> keys = new ArrayList<>(players);
+        for (int i = 0; i < keys.size(); i += MAX_PLAYERS_PER_QUERY) {
+            final Map<String, List<PlayerKey>> keysByUUID = new HashMap<>();
+            final Map<String, List<PlayerKey>> keysByIP = new HashMap<>();
+            for (final PlayerKey key : keys.subList(i, Math.min(i + MAX_PLAYERS_PER_QUERY, keys.size()))) {
+                keysByUUID.computeIfAbsent(key.uuid(), k -> new ArrayList<>()).add(key);
+                keysByIP.computeIfAbsent(key.ip(), k -> new ArrayList<>()).add(key);
+            }
 
-            statement = conn
-                    .prepareStatement("SELECT mute_server FROM `BAT_mute` WHERE mute_ip = ? AND mute_state = 1;");
-            statement.setString(1, Core.getPlayerIP(pName));
+            PreparedStatement statement = null;
+            ResultSet resultSet = null;
+            try (Connection conn = BATR.getConnection()) {
+                statement = conn.prepareStatement((DataSourceHandler.isSQLite()
+                        ? SQLQueries.Mute.SQLite.getActiveMutesOf
+                        : SQLQueries.Mute.getActiveMutesOf)
+                        .replace("{uuids}", DataSourceHandler.placeholders(keysByUUID.size()))
+                        .replace("{ips}", DataSourceHandler.placeholders(keysByIP.size())));
+                int index = 1;
+                for (final String uuid : keysByUUID.keySet()) {
+                    statement.setString(index++, uuid);
+                }
+                for (final String ip : keysByIP.keySet()) {
+                    statement.setString(index++, ip);
+                }
+                resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    final ActiveMute activeMute = readActiveMute(resultSet);
+                    final List<PlayerKey> concernedKeys = (activeMute.uuid() != null)
+                            ? keysByUUID.get(activeMute.uuid())
+                            : keysByIP.get(activeMute.ip());
+                    if (concernedKeys != null) {
+                        for (final PlayerKey key : concernedKeys) {
+                            mutes.computeIfAbsent(key, k -> new ArrayList<>()).add(activeMute);
+                        }
+                    }
+                }
+            } catch (final SQLException e) {
+                DataSourceHandler.handleException(e);
+            } finally {
+                DataSourceHandler.close(statement, resultSet);
+            }
+        }
+        return mutes;
+    }
+
+    /**
+     * Load the mute data of a player with a single query on his UUID and his ip
+     *
+     * @param uuid | UUID of the player without dashes
+     * @param ip
+     */
+    private PlayerMuteData loadMuteData(final String uuid, final String ip) {
+        final PlayerMuteData pMuteData = new PlayerMuteData();
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try (Connection conn = BATR.getConnection()) {
+            statement = conn.prepareStatement(DataSourceHandler.isSQLite()
+                    ? SQLQueries.Mute.SQLite.getActiveMutes
+                    : SQLQueries.Mute.getActiveMutes);
+            statement.setString(1, uuid);
+            statement.setString(2, ip);
             resultSet = statement.executeQuery();
             while (resultSet.next()) {
-                final String server = resultSet.getString("mute_server");
-                if (GLOBAL_SERVER.equals(server)) {
-                    pMuteData.setGlobal();
-                } else {
-                    pMuteData.addServer(server);
+                final ActiveMute activeMute = readActiveMute(resultSet);
+                pMuteData.addMute(activeMute);
+                if (activeMute.end() != null) {
+                    scheduleExpiration(activeMute.id(), activeMute.end().getTime());
                 }
             }
         } catch (final SQLException e) {
@@ -571,22 +846,25 @@ public class Mute implements IModule, Listener {
         } finally {
             DataSourceHandler.close(statement, resultSet);
         }
-        mutedPlayers.put(pName, pMuteData);
-        if (pMuteData.isMute(GLOBAL_SERVER)) {
-            loadMuteMessage(pName, GLOBAL_SERVER);
-        } else if (player.getServer() != null && pMuteData.isMute(player.getServer().getInfo().getName())) {
-            loadMuteMessage(pName, player.getServer().getInfo().getName());
-        }
+        return pMuteData;
     }
 
-    public List<MuteEntry> getManagedMute(final String staff) {
+    public List<MuteEntry> getManagedMute(final String staff, final boolean fullHistory) {
         final List<MuteEntry> muteList = new ArrayList<>();
         PreparedStatement statement = null;
         ResultSet resultSet = null;
-        try (Connection conn = BATR.getConnection()) {
-            statement = conn.prepareStatement((DataSourceHandler.isSQLite())
-                    ? SQLQueries.Mute.SQLite.getManagedMute
-                    : SQLQueries.Mute.getManagedMute);
+        try (Connection conn = BATR.getReadConnection()) {
+            if (fullHistory) {
+                statement = conn.prepareStatement((DataSourceHandler.isSQLite())
+                        ? SQLQueries.Mute.SQLite.getManagedMuteWithHistory
+                        : SQLQueries.Mute.getManagedMuteWithHistory);
+                statement.setString(3, staff);
+                statement.setString(4, staff);
+            } else {
+                statement = conn.prepareStatement((DataSourceHandler.isSQLite())
+                        ? SQLQueries.Mute.SQLite.getManagedMute
+                        : SQLQueries.Mute.getManagedMute);
+            }
             statement.setString(1, staff);
             statement.setString(2, staff);
             resultSet = statement.executeQuery();
@@ -614,13 +892,10 @@ public class Mute implements IModule, Listener {
                 if (reason == null) {
                     reason = NO_REASON;
                 }
-                String entity = (resultSet.getString("mute_ip") != null)
+                // The names of the players are resolved all at once after reading the rows
+                final String entity = (resultSet.getString("mute_ip") != null)
                         ? resultSet.getString("mute_ip")
-                        : Core.getPlayerName(resultSet.getString("UUID"));
-                // If the UUID search failed
-                if (entity == null) {
-                    entity = "UUID:" + resultSet.getString("UUID");
-                }
+                        : "UUID:" + resultSet.getString("UUID");
                 final boolean active = (resultSet.getBoolean("mute_state"));
                 String unmuteReason = resultSet.getString("mute_unmutereason");
                 if (unmuteReason == null) {
@@ -634,31 +909,136 @@ public class Mute implements IModule, Listener {
         } finally {
             DataSourceHandler.close(statement, resultSet);
         }
+        Core.resolvePlayerNames(muteList, MuteEntry::entity, MuteEntry::withEntity);
         return muteList;
     }
 
+    /**
+     * Count the mutes of an entity, or the mutes managed by a staff, including the archived ones
+     *
+     * @param entity
+     * @param staffLookup | count the mutes and unmutes made by the entity instead of its own mutes
+     */
+    public int countMutes(final String entity, final boolean staffLookup) {
+        if (staffLookup) {
+            return Page.count(SQLQueries.Mute.countManagedMutes, 2, entity, entity);
+        }
+        return UtilsKt.validIP(entity)
+                ? Page.count(SQLQueries.Mute.countMutesIP, 2, entity)
+                : Page.count(SQLQueries.Mute.countMutes, 2, Core.getUUID(entity));
+    }
+
+    /**
+     * Get a page of the mutes of an entity, or of the mutes managed by a staff, the latest first <br>
+     * <b>Should be runned async to optimize performance</b>
+     *
+     * @param entity
+     * @param staffLookup | read the mutes and unmutes made by the entity instead of its own mutes
+     * @param request     | the position and size of the page
+     */
+    public Page<MuteEntry> getMutePage(final String entity, final boolean staffLookup, final Page.Request request) {
+        final boolean sqlite = DataSourceHandler.isSQLite();
+        final Page<MuteEntry> page;
+        if (staffLookup) {
+            page = Page.read(sqlite ? SQLQueries.Mute.SQLite.getManagedMutePage : SQLQueries.Mute.getManagedMutePage,
+                    SQLQueries.Mute.pageKeys, 2, request, resultSet -> readMuteEntry(resultSet,
+                            // The names of the players are resolved all at once after reading the rows
+                            (resultSet.getString("mute_ip") != null)
+                                    ? resultSet.getString("mute_ip")
+                                    : "UUID:" + resultSet.getString("UUID"), entity),
+                    entity, entity);
+            Core.resolvePlayerNames(page.entries(), MuteEntry::entity, MuteEntry::withEntity);
+        } else if (UtilsKt.validIP(entity)) {
+            page = Page.read(sqlite ? SQLQueries.Mute.SQLite.getMuteIPPage : SQLQueries.Mute.getMuteIPPage,
+                    SQLQueries.Mute.pageKeys, 2, request,
+                    resultSet -> readMuteEntry(resultSet, entity, resultSet.getString("mute_staff")), entity);
+        } else {
+            page = Page.read(sqlite ? SQLQueries.Mute.SQLite.getMutePage : SQLQueries.Mute.getMutePage,
+                    SQLQueries.Mute.pageKeys, 2, request,
+                    resultSet -> readMuteEntry(resultSet, entity, resultSet.getString("mute_staff")), Core.getUUID(entity));
+        }
+        return page;
+    }
+
+    private static MuteEntry readMuteEntry(final ResultSet resultSet, final String entity, final String staff)
+            throws SQLException {
+        final Timestamp beginDate;
+        final Timestamp endDate;
+        final Timestamp unmuteDate;
+        if (DataSourceHandler.isSQLite()) {
+            beginDate = new Timestamp(resultSet.getLong("strftime('%s',mute_begin)") * 1000);
+            String endStr = resultSet.getString("mute_end");
+            endDate = (endStr == null) ? null : new Timestamp(Long.parseLong(endStr));
+            long unmuteLong = resultSet.getLong("strftime('%s',mute_unmutedate)") * 1000;
+            unmuteDate = (unmuteLong == 0) ? null : new Timestamp(unmuteLong);
+        } else {
+            beginDate = resultSet.getTimestamp("mute_begin");
+            endDate = resultSet.getTimestamp("mute_end");
+            unmuteDate = resultSet.getTimestamp("mute_unmutedate");
+        }
+        final String reason = resultSet.getString("mute_reason");
+        final String unmuteReason = resultSet.getString("mute_unmutereason");
+        return new MuteEntry(entity, resultSet.getString("mute_server"), (reason == null) ? NO_REASON : reason, staff,
+                beginDate, endDate, unmuteDate, (unmuteReason == null) ? NO_REASON : unmuteReason,
+                resultSet.getString("mute_unmutestaff"), resultSet.getBoolean("mute_state"));
+    }
+
     public void unloadMuteData(final ProxiedPlayer player) {
-        mutedPlayers.remove(player.getName());
+        mutedPlayers.remove(player.getUniqueId());
     }
 
     // Event Listener
+    /**
+     * Load the mute data while the login is held, so that they're available when the player starts chatting. <br>
+     * The login may still be refused after this handler, i.e by the asynchronous ban check, so the data are only
+     * staged until the player is connected.
+     */
+    @EventHandler(priority = EventPriority.HIGH)
+    public void onPlayerLogin(final LoginEvent ev) {
+        if (ev.isCancelled()) {
+            return;
+        }
+        ev.registerIntent(BATR.getInstance());
+        BATR.getInstance().getProxy().getScheduler().runAsync(BATR.getInstance(), () -> {
+            try {
+                final PendingConnection pConn = ev.getConnection();
+                final PlayerMuteData pMuteData = loadMuteData(Core.getConnectionUUID(pConn),
+                        IPCodec.format(pConn.getAddress().getAddress()));
+                if (!ev.isCancelled()) {
+                    loginMuteData.put(Core.getConnectionUniqueId(pConn), pMuteData);
+                }
+            } finally {
+                ev.completeIntent(BATR.getInstance());
+            }
+        });
+    }
+
+    /**
+     * Cache the mute data staged during the login once the player is connected. If they weren't loaded in time, they're
+     * loaded when the player connects to a server (cf {@link #onServerConnect}).
+     */
+    @EventHandler
+    public void onPostLogin(final PostLoginEvent e) {
+        final UUID uuid = e.getPlayer().getUniqueId();
+        final PlayerMuteData pMuteData = loginMuteData.getIfPresent(uuid);
+        if (pMuteData != null) {
+            loginMuteData.invalidate(uuid);
+            mutedPlayers.put(uuid, pMuteData);
+        }
+    }
+
     @EventHandler
     public void onServerConnect(final ServerConnectedEvent e) {
         final ProxiedPlayer player = e.getPlayer();
         final String pName = player.getName();
         final int muteState = isMute(player, e.getServer().getInfo().getName());
         if (muteState == -1) {
+            // The mute data should have been loaded during the login, this is only a fallback
             // Load mute data with a little bit of delay to handle server switching operations which may take some time
             BATR.getInstance().getProxy().getScheduler().schedule(BATR.getInstance(),
                     () -> updateMuteData(pName), 250, TimeUnit.MILLISECONDS);
         } else if (muteState == 1) {
-            PlayerMuteData pMuteData = mutedPlayers.get(pName);
-            if (pMuteData.isMute(GLOBAL_SERVER)) {
-                loadMuteMessage(pName, GLOBAL_SERVER);
-            } else if (pMuteData.isMute(e.getServer().getInfo().getName())) {
-                loadMuteMessage(pName, e.getServer().getInfo().getName());
-            }
-            player.sendMessage(pMuteData.getMuteMessage(this));
+            player.sendMessage(mutedPlayers.get(player.getUniqueId()).getMuteMessage(e.getServer().getInfo().getName()));
         }
     }
 
@@ -676,23 +1056,11 @@ public class Mute implements IModule, Listener {
         if (muteState == 0) {
             return;
         }
-        if (e.isCommand()) {
-            final String command = e.getMessage().replaceAll("/", "").toLowerCase() + " ";
-            // There is a bug when overriding the contains method of the arraylist, so we do the contains here
-            boolean contains = false;
-            for (final String forbiddenCmd : config.get(MuteConfig.FORBIDDEN_CMDS)) {
-                // Add a space because if we block "/r", we don't want to block "/replay"
-                if (command.startsWith(forbiddenCmd.toLowerCase() + " ")) {
-                    contains = true;
-                    break;
-                }
-            }
-            if (!contains) {
-                return;
-            }
+        if (e.isCommand() && !forbiddenCommands.matches(e.getMessage())) {
+            return;
         }
         if (muteState == 1) {
-            player.sendMessage(mutedPlayers.get(player.getName()).getMuteMessage(this));
+            player.sendMessage(mutedPlayers.get(player.getUniqueId()).getMuteMessage(player.getServer().getInfo().getName()));
             e.setCancelled(true);
         } else if (muteState == -1) {
             player.sendMessage(i18n.formatPrefix("loadingMutedata"));
@@ -701,102 +1069,98 @@ public class Mute implements IModule, Listener {
     }
 
     /**
-     * This class is used to cache the mute data of a player.
+     * This class is used to cache the mute data of a player, that is to say his active mutes and those of his ip.
      */
     public static class PlayerMuteData {
-        private final String pName;
-        private final List<String> servers;
-        private boolean globalMute = false;
-        private Map.Entry<String, Timestamp> muteMessage;
+        private final Map<Integer, ActiveMute> mutes = new ConcurrentHashMap<>();
         private final I18n i18n;
+        private volatile RenderedMuteMessage muteMessage;
 
-        public PlayerMuteData(final String pName) {
-            this.pName = pName;
+        public PlayerMuteData() {
             this.i18n = BATR.getInstance().getI18n();
-            // Override the arraylist implementation to make used methods non-case sensitive
-            this.servers = new ArrayList<>() {
-                @Override
-                public void add(int index, String element) {
-                    super.add(index, element.toLowerCase());
-                }
-
-                @Override
-                public boolean add(String e) {
-                    return super.add(e.toLowerCase());
-                }
-
-                @Override
-                public boolean contains(Object o) {
-                    if (o instanceof String) {
-                        return super.contains(((String) o).toLowerCase());
-                    }
-                    return super.contains(o);
-                }
-            };
         }
 
-        public void setGlobal() {
-            globalMute = true;
+        public void addMute(final ActiveMute activeMute) {
+            mutes.put(activeMute.id(), activeMute);
         }
 
-        public void unsetGlobal() {
-            globalMute = false;
+        public void removeMutes(final Predicate<ActiveMute> filter) {
+            mutes.values().removeIf(filter);
         }
 
-        public void addServer(final String server) {
-            if (!servers.contains(server)) {
-                servers.add(server);
-            }
-        }
-
-        public void removeServer(final String server) {
-            servers.remove(server);
+        public boolean isMute(final String server) {
+            return getMute(server) != null;
         }
 
-        public void clearServers() {
-            servers.clear();
+        /**
+         * Get the mute which applies on a server, the global mute having the priority
+         *
+         * @param server | if equals to (any), return the first mute found
+         * @return the mute or null if the player isn't muted from this server
+         */
+        public ActiveMute getMute(final String server) {
+            final long now = System.currentTimeMillis();
+            ActiveMute serverMute = null;
+            for (final ActiveMute activeMute : mutes.values()) {
+                // The expired mutes are ignored until the tempmute task disables them
+                if (activeMute.isExpired(now)) {
+                    continue;
+                }
+                if (GLOBAL_SERVER.equals(activeMute.server())) {
+                    return activeMute;
+                }
+                if (ANY_SERVER.equals(server) || activeMute.server().equalsIgnoreCase(server)) {
+                    serverMute = activeMute;
+                }
+            }
+            return serverMute;
         }
 
-        public boolean isMute(final String server) {
-            if (globalMute) {
-                return true;
-            } else if ((ANY_SERVER.equals(server) && !servers.isEmpty())) {
-                return true;
-            } else return servers.contains(server);
+        /**
+         * Get the message of the mute which applies on a server. <br>
+         * The message is rendered once per mute, except for a temporary mute whose message contains
+         * the remaining duration and is thus rendered at most once per second.
+         */
+        public BaseComponent[] getMuteMessage(final String server) {
+            final ActiveMute activeMute = getMute(server);
+            if (activeMute == null) {
+                return i18n.formatPrefix("wasUnmutedNotif", new String[]{NO_REASON});
+            }
+            final long second = (activeMute.end() != null) ? System.currentTimeMillis() / 1000 : 0;
+            final RenderedMuteMessage rendered = muteMessage;
+            if (rendered != null && rendered.mute().equals(activeMute) && rendered.second() == second) {
+                return rendered.message();
+            }
+            final BaseComponent[] message;
+            if (activeMute.end() != null) {
+                message = BATR.convertStringToComponent(i18n.format("isMuteTemp", new String[]{activeMute.reason(),
+                        FormatUtilsKt.getDuration(activeMute.end().getTime()), Core.defaultDF.format(activeMute.begin()), activeMute.staff()}));
+            } else {
+                message = BATR.convertStringToComponent(i18n.format("isMute", new String[]{activeMute.reason(),
+                        Core.defaultDF.format(activeMute.begin()), activeMute.staff()}));
+            }
+            muteMessage = new RenderedMuteMessage(activeMute, second, message);
+            return message;
         }
 
-        public BaseComponent[] getMuteMessage(final Mute module) {
-            if (muteMessage != null) {
-                if (muteMessage.getValue() != null) {
-                    if (muteMessage.getValue().getTime() >= System.currentTimeMillis()) {
-                        return BATR.convertStringToComponent(muteMessage.getKey().replace("{expiration}", FormatUtilsKt.getDuration(muteMessage.getValue().getTime())));
-                    }
-                    // If it's not synchronized with the db, force the update of mute data
-                    else {
-                        Statement statement = null;
-                        try (Connection conn = BATR.getConnection()) {
-                            statement = conn.createStatement();
-                            if (DataSourceHandler.isSQLite()) {
-                                statement.executeUpdate(SQLQueries.Mute.SQLite.updateExpiredMute);
-                            } else {
-                                statement.executeUpdate(SQLQueries.Mute.updateExpiredMute);
-                            }
-                        } catch (final SQLException e) {
-                            DataSourceHandler.handleException(e);
-                        } finally {
-                            DataSourceHandler.close(statement);
-                        }
-                        module.updateMuteData(pName);
-                    }
-                } else {
-                    return BATR.convertStringToComponent(muteMessage.getKey());
-                }
-            }
-            return i18n.formatPrefix("wasUnmutedNotif", new String[]{NO_REASON});
+        /**
+         * @param second | the second during which a temporary mute message was rendered, 0 for a permanent mute
+         */
+        private record RenderedMuteMessage(ActiveMute mute, long second, BaseComponent[] message) {
         }
+    }
 
-        public void setMuteMessage(final String messagePattern, final Timestamp expiration) {
-            muteMessage = new AbstractMap.SimpleEntry<>(messagePattern, expiration);
+    /**
+     * An active mute as cached in the mute data of the players
+     *
+     * @param uuid | null if it's an ip mute
+     * @param ip   | null if it's a player mute
+     * @param end  | null if it's a permanent mute
+     */
+    public record ActiveMute(int id, String uuid, String ip, String server, String reason, String staff,
+                             Timestamp begin, Timestamp end) {
+        public boolean isExpired(final long now) {
+            return end != null && end.getTime() <= now;
         }
     }
 }
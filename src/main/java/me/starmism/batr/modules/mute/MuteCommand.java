@@ -10,6 +10,7 @@ import me.starmism.batr.modules.IModule;
 import me.starmism.batr.modules.core.Core;
 import me.starmism.batr.modules.core.PermissionManager;
 import me.starmism.batr.utils.FormatUtilsKt;
+import me.starmism.batr.utils.IPCodec;
 import me.starmism.batr.utils.UtilsKt;
 import net.md_5.bungee.api.CommandSender;
 import net.md_5.bungee.api.ProxyServer;
@@ -100,7 +101,7 @@ public class MuteCommand extends CommandHandler {
 
 	public static void handleMuteCommand(final BATCommand command, final boolean global, final boolean ipMute,
 			final CommandSender sender, final String[] args, final boolean confirmedCmd) {
-		String target = args[0];
+		String target = IPCodec.normalize(args[0]);
 		String server = IModule.GLOBAL_SERVER;
 		final String staff = sender.getName();
 		String reason = IModule.NO_REASON;
@@ -232,7 +233,7 @@ public class MuteCommand extends CommandHandler {
 
 	public static void handleTempMuteCommand(final BATCommand command, final boolean global, final boolean ipMute,
 			final CommandSender sender, final String[] args, final boolean confirmedCmd) {
-		String target = args[0];
+		String target = IPCodec.normalize(args[0]);
 		String server = IModule.GLOBAL_SERVER;
 		final String staff = sender.getName();
 		String reason = IModule.NO_REASON;
@@ -360,7 +361,7 @@ public class MuteCommand extends CommandHandler {
 
 	public static void handleUnmuteCommand(final BATCommand command, final boolean global, final boolean ipUnmute,
 			final CommandSender sender, final String[] args, final boolean confirmedCmd) {
-		String target = args[0];
+		String target = IPCodec.normalize(args[0]);
 		String server = IModule.ANY_SERVER;
 		final String staff = sender.getName();
 		String reason = IModule.NO_REASON;
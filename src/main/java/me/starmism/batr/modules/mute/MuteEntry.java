@@ -5,4 +5,8 @@ import java.sql.Timestamp;
 public record MuteEntry(String entity, String server, String reason,
 						String staff, Timestamp beginDate, Timestamp endDate,
 						Timestamp unmuteDate, String unmuteReason, String unmuteStaff,
-						boolean active) {}
+						boolean active) {
+	public MuteEntry withEntity(final String entity) {
+		return new MuteEntry(entity, server, reason, staff, beginDate, endDate, unmuteDate, unmuteReason, unmuteStaff, active);
+	}
+}
@@ -0,0 +1,65 @@
+package me.starmism.batr.modules.mute;
+
+import me.starmism.batr.BATR;
+import me.starmism.batr.database.ChangeWatermark;
+import me.starmism.batr.database.DataSourceHandler;
+import me.starmism.batr.database.SQLQueries;
+import me.starmism.batr.modules.mute.Mute.ActiveMute;
+import net.md_5.bungee.api.ProxyServer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This task applies to the cached mute data the modifications made from the WebInterface or from another proxy,
+ * using a single query on the rows updated since its last run (mute_updated column). <br>
+ * The first run loads the mute data of every player on the server. <br>
+ * <b>This task must be run asynchronously </b>
+ */
+public class MuteSyncTask implements Runnable {
+    private final Mute mute;
+    private final ChangeWatermark watermark = new ChangeWatermark("mute_updated");
+
+    public MuteSyncTask(final Mute muteModule) {
+        mute = muteModule;
+    }
+
+    @Override
+    public void run() {
+        if (!watermark.isInitialized()) {
+            try (Connection conn = BATR.getConnection()) {
+                watermark.init(conn, SQLQueries.Mute.getLastUpdate);
+            } catch (final SQLException e) {
+                DataSourceHandler.handleException(e);
+            }
+            mute.updateMuteData(ProxyServer.getInstance().getPlayers());
+            return;
+        }
+
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try (Connection conn = BATR.getConnection()) {
+            statement = conn.prepareStatement(DataSourceHandler.isSQLite()
+                    ? SQLQueries.Mute.SQLite.getChangedMutes
+                    : SQLQueries.Mute.getChangedMutes);
+            watermark.setParameter(statement, 1);
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                watermark.update(resultSet);
+                final ActiveMute activeMute = Mute.readActiveMute(resultSet);
+                mute.dropPending(activeMute);
+                if (resultSet.getBoolean("mute_state")) {
+                    mute.applyMute(activeMute);
+                } else {
+                    mute.removeMute(activeMute);
+                }
+            }
+        } catch (final SQLException e) {
+            DataSourceHandler.handleException(e);
+        } finally {
+            DataSourceHandler.close(statement, resultSet);
+        }
+    }
+}
@@ -3,21 +3,23 @@ package me.starmism.batr.modules.mute;
 import me.starmism.batr.BATR;
 import me.starmism.batr.database.DataSourceHandler;
 import me.starmism.batr.database.SQLQueries;
-import net.md_5.bungee.api.ProxyServer;
-import net.md_5.bungee.api.connection.ProxiedPlayer;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
- * This task handles the mute related update :<br>
- * - check in the db for every active mute if it is finished if this is the case
- * : set mute_(ip)state to 0<br>
- * - update the PlayerMuteData of every player on the server <br>
+ * This task handles the tempmute's state update :<br>
+ * the mutes which are due are removed from the cached mute data, then their mute_state is set to 0 using their id.
  * <b>This task must be run asynchronously </b>
  */
 public class MuteTask implements Runnable {
+    // Maximum number of ids put in a single IN (...) clause
+    private static final int MAX_IDS_PER_QUERY = 500;
+    // Delay before the expiration of a chunk whose update failed is attempted again
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
     private final Mute mute;
 
     public MuteTask(final Mute muteModule) {
@@ -26,22 +28,24 @@ public class MuteTask implements Runnable {
 
     @Override
     public void run() {
-        Statement statement = null;
-        try (Connection conn = BATR.getConnection()) {
-            statement = conn.createStatement();
-            if (DataSourceHandler.isSQLite()) {
-                statement.executeUpdate(SQLQueries.Mute.SQLite.updateExpiredMute);
-            } else {
-                statement.executeUpdate(SQLQueries.Mute.updateExpiredMute);
+        final List<Integer> expiredMutes = mute.pollExpiredMutes(System.currentTimeMillis());
+        for (int i = 0; i < expiredMutes.size(); i += MAX_IDS_PER_QUERY) {
+            final List<Integer> chunk = expiredMutes.subList(i, Math.min(i + MAX_IDS_PER_QUERY, expiredMutes.size()));
+            PreparedStatement statement = null;
+            try (Connection conn = BATR.getConnection()) {
+                statement = conn.prepareStatement(SQLQueries.Mute.expireMutes
+                        .replace("{ids}", DataSourceHandler.placeholders(chunk.size())));
+                for (int j = 0; j < chunk.size(); j++) {
+                    statement.setInt(j + 1, chunk.get(j));
+                }
+                statement.executeUpdate();
+            } catch (final SQLException e) {
+                // The mutes are still active in the database, so their expiration is attempted again a bit later
+                DataSourceHandler.handleException(e);
+                mute.retryExpiration(chunk, System.currentTimeMillis() + RETRY_DELAY);
+            } finally {
+                DataSourceHandler.close(statement);
             }
-        } catch (final SQLException e) {
-            DataSourceHandler.handleException(e);
-        } finally {
-            DataSourceHandler.close(statement);
-        }
-        // Update player mute data
-        for (final ProxiedPlayer player : ProxyServer.getInstance().getPlayers()) {
-            mute.updateMuteData(player.getName());
         }
     }
 }
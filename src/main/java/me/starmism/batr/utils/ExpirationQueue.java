@@ -0,0 +1,45 @@
+package me.starmism.batr.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Queue of sanction ids ordered by their expiration date.<br>
+ * It allows to expire exactly the temporary sanctions which are due instead of sweeping the whole table.
+ * Ids aren't removed from the queue when a sanction is lifted before its expiration, so the caller must
+ * ignore the polled ids which are not active anymore.
+ */
+public class ExpirationQueue {
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparingLong(Entry::expiration));
+
+    public synchronized void schedule(final int id, final long expiration) {
+        queue.add(new Entry(id, expiration));
+    }
+
+    /**
+     * Remove and return the ids whose expiration date is passed
+     *
+     * @param now | current timestamp in millis
+     * @return ids of the expired sanctions, sorted by expiration date
+     */
+    public synchronized List<Integer> pollExpired(final long now) {
+        final List<Integer> expiredIds = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().expiration() <= now) {
+            expiredIds.add(queue.poll().id());
+        }
+        return expiredIds;
+    }
+
+    public synchronized void clear() {
+        queue.clear();
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    private record Entry(int id, long expiration) {
+    }
+}
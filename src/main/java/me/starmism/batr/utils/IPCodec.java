@@ -0,0 +1,250 @@
+package me.starmism.batr.utils;
+
+import java.net.InetAddress;
+
+/**
+ * Parse and format IPv4 and IPv6 addresses without any regex nor DNS resolution. <br>
+ * An address is decoded into a 16 bytes array, the IPv4 addresses being mapped into the IPv6 space
+ * (::ffff:a.b.c.d) so that both families can be compared and indexed the same way. <br>
+ * The canonical text form is the dotted notation for an IPv4 address and the RFC 5952 notation for an IPv6 one
+ * (lower case, leading zeros removed, longest run of zero groups compressed), so that a same address typed
+ * in different ways is always stored and compared as the same string.
+ */
+public final class IPCodec {
+    private static final int IPV4_MAPPED_PREFIX = 12;
+
+    private IPCodec() {
+    }
+
+    /**
+     * Check if a string is a valid IPv4 or IPv6 address
+     */
+    public static boolean isValid(final String ip) {
+        return parse(ip) != null;
+    }
+
+    /**
+     * Decode an IPv4 or IPv6 address
+     *
+     * @param ip | i.e 192.168.0.1 or 2001:db8::1, an IPv6 zone index (%eth0) is ignored
+     * @return the 16 bytes of the address or null if it isn't a valid address
+     */
+    public static byte[] parse(final String ip) {
+        if (ip == null || ip.isEmpty()) {
+            return null;
+        }
+        final int zone = ip.indexOf('%');
+        final int end = (zone == -1) ? ip.length() : zone;
+        if (ip.indexOf(':') == -1) {
+            final byte[] address = new byte[16];
+            address[10] = (byte) 0xFF;
+            address[11] = (byte) 0xFF;
+            return (zone == -1 && parseIPv4(ip, 0, end, address, IPV4_MAPPED_PREFIX)) ? address : null;
+        }
+        return parseIPv6(ip, end);
+    }
+
+    /**
+     * Get the canonical form of an address
+     *
+     * @return the canonical form or null if it isn't a valid address
+     */
+    public static String canonicalize(final String ip) {
+        final byte[] address = parse(ip);
+        return (address != null) ? format(address) : null;
+    }
+
+    /**
+     * Get the canonical form of an entity if it's an address, otherwise return it unchanged (i.e a player name)
+     */
+    public static String normalize(final String entity) {
+        final String canonical = canonicalize(entity);
+        return (canonical != null) ? canonical : entity;
+    }
+
+    /**
+     * Get the canonical form of a resolved address, i.e the address of a connection
+     */
+    public static String format(final InetAddress address) {
+        return format(address.getAddress());
+    }
+
+    /**
+     * Encode an address into its canonical form
+     *
+     * @param address | 4 bytes for an IPv4 address or 16 bytes
+     */
+    public static String format(final byte[] address) {
+        if (address.length == 4) {
+            return formatIPv4(address, 0);
+        }
+        if (isIPv4(address)) {
+            return formatIPv4(address, IPV4_MAPPED_PREFIX);
+        }
+
+        // Find the longest run of zero groups, which is replaced by "::" if it's at least two groups long
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int group = 0; group < 8; ) {
+            if (groupAt(address, group) != 0) {
+                group++;
+                continue;
+            }
+            final int start = group;
+            while (group < 8 && groupAt(address, group) == 0) {
+                group++;
+            }
+            if (group - start > bestLength) {
+                bestStart = start;
+                bestLength = group - start;
+            }
+        }
+
+        final StringBuilder sb = new StringBuilder(39);
+        for (int group = 0; group < 8; group++) {
+            if (group == bestStart) {
+                sb.append("::");
+                group += bestLength - 1;
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(groupAt(address, group)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Check if a 16 bytes address is an IPv4 address mapped into the IPv6 space
+     */
+    public static boolean isIPv4(final byte[] address) {
+        for (int i = 0; i < 10; i++) {
+            if (address[i] != 0) {
+                return false;
+            }
+        }
+        return address[10] == (byte) 0xFF && address[11] == (byte) 0xFF;
+    }
+
+    private static boolean parseIPv4(final String ip, final int start, final int end, final byte[] address,
+                                     final int offset) {
+        int index = offset;
+        int value = 0;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            final char c = ip.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || index == offset + 3) {
+                    return false;
+                }
+                address[index++] = (byte) value;
+                value = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9') {
+                // Leading zeros are rejected as some tools read them as octal
+                if (digits > 0 && value == 0) {
+                    return false;
+                }
+                value = value * 10 + (c - '0');
+                if (value > 255) {
+                    return false;
+                }
+                digits++;
+            } else {
+                return false;
+            }
+        }
+        if (digits == 0 || index != offset + 3) {
+            return false;
+        }
+        address[index] = (byte) value;
+        return true;
+    }
+
+    private static byte[] parseIPv6(final String ip, final int end) {
+        final byte[] address = new byte[16];
+        int group = 0;
+        int compressedAt = -1;
+        int i = 0;
+        if (ip.startsWith("::")) {
+            compressedAt = 0;
+            i = 2;
+            if (i == end) {
+                return address;
+            }
+        }
+        while (i < end) {
+            if (group == 8) {
+                return null;
+            }
+            // Find the end of the current group
+            int groupEnd = i;
+            while (groupEnd < end && ip.charAt(groupEnd) != ':' && ip.charAt(groupEnd) != '.') {
+                groupEnd++;
+            }
+            if (groupEnd < end && ip.charAt(groupEnd) == '.') {
+                // Embedded IPv4 address (i.e ::ffff:192.168.0.1), which takes the last two groups
+                if (group > 6 || !parseIPv4(ip, i, end, address, group * 2)) {
+                    return null;
+                }
+                group += 2;
+                break;
+            }
+            final int length = groupEnd - i;
+            if (length == 0 || length > 4) {
+                return null;
+            }
+            int value = 0;
+            for (int j = i; j < groupEnd; j++) {
+                final char c = ip.charAt(j);
+                final int digit = (c < 128) ? Character.digit(c, 16) : -1;
+                if (digit == -1) {
+                    return null;
+                }
+                value = (value << 4) | digit;
+            }
+            address[group * 2] = (byte) (value >>> 8);
+            address[group * 2 + 1] = (byte) value;
+            group++;
+            i = groupEnd;
+            if (i < end) {
+                // Skip the separator, "::" marking the compressed zero groups
+                i++;
+                if (i < end && ip.charAt(i) == ':') {
+                    if (compressedAt != -1) {
+                        return null;
+                    }
+                    compressedAt = group;
+                    i++;
+                } else if (i == end) {
+                    // Trailing single ':'
+                    return null;
+                }
+            }
+        }
+
+        if (compressedAt == -1) {
+            return (group == 8) ? address : null;
+        }
+        if (group == 8) {
+            return null;
+        }
+        // Move the groups after the "::" to the end of the address
+        final int tail = (group - compressedAt) * 2;
+        System.arraycopy(address, compressedAt * 2, address, 16 - tail, tail);
+        for (int k = compressedAt * 2; k < 16 - tail; k++) {
+            address[k] = 0;
+        }
+        return address;
+    }
+
+    private static String formatIPv4(final byte[] address, final int offset) {
+        return (address[offset] & 0xFF) + "." + (address[offset + 1] & 0xFF) + "."
+                + (address[offset + 2] & 0xFF) + "." + (address[offset + 3] & 0xFF);
+    }
+
+    private static int groupAt(final byte[] address, final int group) {
+        return ((address[group * 2] & 0xFF) << 8) | (address[group * 2 + 1] & 0xFF);
+    }
+}
@@ -0,0 +1,97 @@
+package me.starmism.batr.utils;
+
+import java.util.function.Function;
+
+/**
+ * Binary radix tree of ip ranges, each range holding a value. <br>
+ * Looking up the ranges containing an address walks at most one node per bit of the address,
+ * whatever the number of ranges stored. <br>
+ * Writes must be synchronized by the caller, reads can be done concurrently.
+ *
+ * @param <V> value type
+ */
+public class IPRadixTrie<V> {
+    private final Node<V> root = new Node<>();
+
+    /**
+     * Get the value of a range
+     *
+     * @return the value or null if the range isn't in the tree
+     */
+    public V get(final byte[] network, final int prefix) {
+        Node<V> node = root;
+        for (int bit = 0; bit < prefix && node != null; bit++) {
+            node = (bit(network, bit) == 0) ? node.zero : node.one;
+        }
+        return (node != null) ? node.value : null;
+    }
+
+    /**
+     * Set the value of a range, replacing the previous one
+     */
+    public void put(final byte[] network, final int prefix, final V value) {
+        Node<V> node = root;
+        for (int bit = 0; bit < prefix; bit++) {
+            if (bit(network, bit) == 0) {
+                if (node.zero == null) {
+                    node.zero = new Node<>();
+                }
+                node = node.zero;
+            } else {
+                if (node.one == null) {
+                    node.one = new Node<>();
+                }
+                node = node.one;
+            }
+        }
+        node.value = value;
+    }
+
+    /**
+     * Remove the value of a range. The empty nodes are kept, as the same ranges are likely to be banned again.
+     */
+    public void remove(final byte[] network, final int prefix) {
+        Node<V> node = root;
+        for (int bit = 0; bit < prefix && node != null; bit++) {
+            node = (bit(network, bit) == 0) ? node.zero : node.one;
+        }
+        if (node != null) {
+            node.value = null;
+        }
+    }
+
+    /**
+     * Visit the values of the ranges containing an address, from the widest range to the narrowest one
+     *
+     * @param address  | bytes of the address, of the same length as the networks stored
+     * @param function | called for each value, the walk stops as soon as it returns a non null result
+     * @return the first non null result or null
+     */
+    public <R> R findFirst(final byte[] address, final Function<V, R> function) {
+        Node<V> node = root;
+        for (int bit = 0; node != null; bit++) {
+            final V value = node.value;
+            if (value != null) {
+                final R result = function.apply(value);
+                if (result != null) {
+                    return result;
+                }
+            }
+            if (bit == address.length * 8) {
+                break;
+            }
+            node = (bit(address, bit) == 0) ? node.zero : node.one;
+        }
+        return null;
+    }
+
+    private static int bit(final byte[] bytes, final int bit) {
+        return (bytes[bit >>> 3] >>> (7 - (bit & 7))) & 1;
+    }
+
+    private static class Node<V> {
+        private volatile Node<V> zero;
+        private volatile Node<V> one;
+        private volatile V value;
+    }
+}
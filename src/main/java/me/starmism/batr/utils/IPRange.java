@@ -0,0 +1,105 @@
+package me.starmism.batr.utils;
+
+/**
+ * A CIDR range of IPv4 or IPv6 addresses, such as 192.168.0.0/24 or 2001:db8::/32. <br>
+ * The network address is normalized: the bits after the prefix length are cleared. It's stored in the 16 bytes
+ * form of {@link IPCodec}, so an IPv4 prefix length is shifted by the 96 bits of the IPv4-mapped prefix.
+ */
+public final class IPRange {
+    private final byte[] network;
+    private final int prefix;
+    private final int bits;
+
+    private IPRange(final byte[] network, final int prefix, final int bits) {
+        this.network = network;
+        this.prefix = prefix;
+        this.bits = bits;
+    }
+
+    /**
+     * Parse a CIDR range
+     *
+     * @param cidr | i.e 192.168.0.0/24
+     * @return the range or null if it isn't a valid CIDR range
+     */
+    public static IPRange parse(final String cidr) {
+        final int slash = cidr.indexOf('/');
+        if (slash == -1 || slash == cidr.length() - 1 || cidr.length() - slash > 4) {
+            return null;
+        }
+        final byte[] network = IPCodec.parse(cidr.substring(0, slash));
+        if (network == null) {
+            return null;
+        }
+        int prefix = 0;
+        for (int i = slash + 1; i < cidr.length(); i++) {
+            final char c = cidr.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            prefix = prefix * 10 + (c - '0');
+        }
+        final boolean ipv4 = IPCodec.isIPv4(network);
+        if (prefix > (ipv4 ? 32 : 128)) {
+            return null;
+        }
+        final int bits = ipv4 ? 96 + prefix : prefix;
+        for (int bit = bits; bit < network.length * 8; bit++) {
+            network[bit >>> 3] &= ~(1 << (7 - (bit & 7)));
+        }
+        return new IPRange(network, prefix, bits);
+    }
+
+    public static boolean isRange(final String entity) {
+        return parse(entity) != null;
+    }
+
+    /**
+     * @return the 16 bytes of the network address
+     */
+    public byte[] getNetwork() {
+        return network.clone();
+    }
+
+    /**
+     * @return the prefix length as written in the CIDR notation
+     */
+    public int getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the number of significant bits of the 16 bytes network address
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    public String getNetworkAddress() {
+        return IPCodec.format(network);
+    }
+
+    /**
+     * Check if an ip belongs to this range
+     *
+     * @param ip | any other string is considered as outside the range
+     */
+    public boolean contains(final String ip) {
+        final byte[] address = IPCodec.parse(ip);
+        if (address == null) {
+            return false;
+        }
+        for (int bit = 0; bit < bits; bit++) {
+            final int mask = 1 << (7 - (bit & 7));
+            if ((address[bit >>> 3] & mask) != (network[bit >>> 3] & mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return getNetworkAddress() + "/" + prefix;
+    }
+}
@@ -0,0 +1,41 @@
+package me.starmism.batr.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesce the concurrent executions of a task for a same key: while the task is running, the other callers
+ * asking for the same key wait for its result instead of running it again.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Run the task, or wait for the result of the one already running for this key
+     *
+     * @param key
+     * @param task
+     * @return the result of the task
+     */
+    public V execute(final K key, final Supplier<V> task) {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            final V result = task.get();
+            future.complete(result);
+            return result;
+        } catch (final RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+}
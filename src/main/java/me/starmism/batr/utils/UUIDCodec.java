@@ -0,0 +1,86 @@
+package me.starmism.batr.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Convert the UUIDs from and to the compact form stored in the database: 32 lower case hex characters,
+ * without dashes. <br>
+ * The conversion works directly on the two longs of the UUID, without any regex nor intermediate string.
+ */
+public final class UUIDCodec {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private UUIDCodec() {
+    }
+
+    /**
+     * Get the compact form of an UUID
+     *
+     * @return 32 hex characters, i.e 069a79f444e94726a5befca90e38aaf5
+     */
+    public static String toCompact(final UUID uuid) {
+        final char[] chars = new char[32];
+        writeHex(uuid.getMostSignificantBits(), chars, 0);
+        writeHex(uuid.getLeastSignificantBits(), chars, 16);
+        return new String(chars);
+    }
+
+    /**
+     * Parse an UUID written in its compact form or in its standard form (with dashes)
+     *
+     * @throws IllegalArgumentException if the string isn't an UUID (i.e it's a player name)
+     */
+    public static UUID parse(final String str) {
+        if (str.length() == 36) {
+            if (str.charAt(8) != '-' || str.charAt(13) != '-' || str.charAt(18) != '-' || str.charAt(23) != '-') {
+                throw new IllegalArgumentException("Invalid UUID string: " + str);
+            }
+            return new UUID(
+                    readHex(str, 0, 8) << 32 | readHex(str, 9, 13) << 16 | readHex(str, 14, 18),
+                    readHex(str, 19, 23) << 48 | readHex(str, 24, 36));
+        }
+        if (str.length() == 32) {
+            return new UUID(readHex(str, 0, 16), readHex(str, 16, 32));
+        }
+        throw new IllegalArgumentException("Invalid UUID string: " + str);
+    }
+
+    /**
+     * Check if a string is an UUID in its compact or standard form
+     */
+    public static boolean isUUID(final String str) {
+        try {
+            parse(str);
+            return true;
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the UUID given by BungeeCord to a player on an offline mode server
+     */
+    public static UUID offlinePlayer(final String pName) {
+        return UUID.nameUUIDFromBytes(("OfflinePlayer:" + pName).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeHex(final long value, final char[] chars, final int offset) {
+        for (int i = 0; i < 16; i++) {
+            chars[offset + i] = HEX_DIGITS[(int) (value >>> (60 - 4 * i)) & 0xF];
+        }
+    }
+
+    private static long readHex(final String str, final int start, final int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            final char c = str.charAt(i);
+            final int digit = (c < 128) ? Character.digit(c, 16) : -1;
+            if (digit == -1) {
+                throw new IllegalArgumentException("Invalid UUID string: " + str);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
@@ -19,8 +19,6 @@ private val gson = Gson()
                 + "(?:([0-9]+)\\s*d[a-z]*[,\\s]*)?" + "(?:([0-9]+)\\s*h[a-z]*[,\\s]*)?" + "(?:([0-9]+)\\s*m[a-z]*[,\\s]*)?"
                 + "(?:([0-9]+)\\s*(?:s[a-z]*)?)?", Pattern.CASE_INSENSITIVE
     ) //#y#mo#w#d#h#m#s
-    private val ipPattern =
-        Pattern.compile("(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)")
 
     /**
      * Get the timestamp corresponding to the current date + this duration
@@ -128,12 +126,18 @@ private val gson = Gson()
         return ProxyServer.getInstance().servers.containsKey(serverName)
     }
 
+    /**
+     * Get the ip of a player in its canonical form (see [IPCodec])
+     */
     fun getPlayerIP(player: ProxiedPlayer): String {
-        return player.address.address.hostAddress
+        return IPCodec.format(player.address.address)
     }
 
+    /**
+     * Check if a string is an IPv4 or an IPv6 address
+     */
     fun validIP(ip: String): Boolean {
-        return ipPattern.matcher(ip).matches()
+        return IPCodec.isValid(ip)
     }
 
     /**